@@ -0,0 +1,158 @@
+/*
+ * Metrics calculation shared by the SonarTS plugin scripts, and its compact binary encoding.
+ *
+ * Binary encoding, used instead of JSON when requested by the plugin:
+ *   "STS1" magic, then one record per file, each preceded by its byte length as a 4-byte big-endian integer,
+ *   then a zero length.
+ * Record (all integers are zigzag varints, strings are a varint byte length followed by UTF-8 bytes):
+ *   filepath
+ *   string table: count, strings (highlight text types and CPD images)
+ *   highlights: count, then columns startLine[], startCol[], endLine[], endCol[], textType[] (string table index)
+ *   cpd tokens: count, then columns startLine[], startCol[], endLine[], endCol[], image[] (string table index)
+ *   ncloc, commentLines, nosonarLines, executableLines: count, values
+ *   functions, statements, classes
+ */
+"use strict";
+
+const MAGIC = "STS1";
+
+/*
+ * Metrics of tslint-sonarts 1.0.0 (the version pinned in package.json): its "processRequest" prints the response to stdout,
+ * which is captured. When a program is given, files it already contains are not parsed again: "processRequest" creates source files
+ * with "ts.createSourceFile", which then answers with the source file of the program as long as its content is the same.
+ */
+function metrics(filepaths, program) {
+  const sonar = require("tslint-sonarts/lib/runner/sonar");
+  let printed = "";
+  const write = process.stdout.write;
+  process.stdout.write = chunk => {
+    printed += chunk;
+    return true;
+  };
+  try {
+    withSourceFilesOf(program, () => sonar.processRequest(JSON.stringify({ filepaths })));
+  } finally {
+    process.stdout.write = write;
+  }
+  return JSON.parse(printed);
+}
+
+function withSourceFilesOf(program, action) {
+  if (program === undefined) {
+    action();
+    return;
+  }
+  const ts = require("typescript");
+  const createSourceFile = ts.createSourceFile;
+  ts.createSourceFile = (fileName, sourceText, ...rest) => {
+    const sourceFile = program.getSourceFile(fileName);
+    return sourceFile !== undefined && sourceFile.text === sourceText ? sourceFile : createSourceFile(fileName, sourceText, ...rest);
+  };
+  try {
+    action();
+  } finally {
+    ts.createSourceFile = createSourceFile;
+  }
+}
+
+class Encoder {
+  constructor() {
+    this.buffer = Buffer.alloc(4096);
+    this.length = 0;
+  }
+
+  ensure(size) {
+    if (this.length + size > this.buffer.length) {
+      const grown = Buffer.alloc(Math.max(this.buffer.length * 2, this.length + size));
+      this.buffer.copy(grown, 0, 0, this.length);
+      this.buffer = grown;
+    }
+  }
+
+  int(value) {
+    // zigzag, so that unexpected negative values stay small
+    let n = value >= 0 ? value * 2 : -value * 2 - 1;
+    this.ensure(10);
+    while (n >= 0x80) {
+      this.buffer[this.length++] = (n % 0x80) | 0x80;
+      n = Math.floor(n / 0x80);
+    }
+    this.buffer[this.length++] = n;
+  }
+
+  string(value) {
+    const bytes = Buffer.from(value, "utf8");
+    this.int(bytes.length);
+    this.ensure(bytes.length);
+    bytes.copy(this.buffer, this.length);
+    this.length += bytes.length;
+  }
+
+  ints(values) {
+    const array = values || [];
+    this.int(array.length);
+    array.forEach(value => this.int(value));
+  }
+
+  column(objects, field) {
+    objects.forEach(object => this.int(object[field]));
+  }
+
+  bytes() {
+    return this.buffer.slice(0, this.length);
+  }
+}
+
+function encodeRecord(response) {
+  const strings = new Map();
+  const indexOf = string => {
+    let index = strings.get(string);
+    if (index === undefined) {
+      index = strings.size;
+      strings.set(string, index);
+    }
+    return index;
+  };
+  const highlights = response.highlights || [];
+  const cpdTokens = response.cpdTokens || [];
+  const textTypes = highlights.map(highlight => indexOf(highlight.textType));
+  const images = cpdTokens.map(token => indexOf(token.image));
+
+  const encoder = new Encoder();
+  encoder.string(response.filepath);
+  encoder.int(strings.size);
+  strings.forEach((index, string) => encoder.string(string));
+
+  [[highlights, textTypes], [cpdTokens, images]].forEach(([objects, stringIndexes]) => {
+    encoder.int(objects.length);
+    ["startLine", "startCol", "endLine", "endCol"].forEach(field => encoder.column(objects, field));
+    stringIndexes.forEach(index => encoder.int(index));
+  });
+
+  encoder.ints(response.ncloc);
+  encoder.ints(response.commentLines);
+  encoder.ints(response.nosonarLines);
+  encoder.ints(response.executableLines);
+  encoder.int(response.functions || 0);
+  encoder.int(response.statements || 0);
+  encoder.int(response.classes || 0);
+  return encoder.bytes();
+}
+
+function writeBinary(responses, output) {
+  output.write(Buffer.from(MAGIC, "ascii"));
+  responses.forEach(response => {
+    const record = encodeRecord(response);
+    output.write(lengthOf(record.length));
+    output.write(record);
+  });
+  output.write(lengthOf(0));
+}
+
+function lengthOf(length) {
+  const header = Buffer.alloc(4);
+  header.writeUInt32BE(length, 0);
+  return header;
+}
+
+module.exports = { metrics, encodeRecord, writeBinary };
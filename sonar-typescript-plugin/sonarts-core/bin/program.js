@@ -0,0 +1,45 @@
+/*
+ * Creation of type-checked programs shared by the SonarTS plugin scripts.
+ * Parsed declaration files (default libs and node_modules typings) are kept between programs created by the same process.
+ */
+"use strict";
+
+const path = require("path");
+const ts = require("typescript");
+
+const declarationFiles = new Map();
+
+function createProgram(tsconfigPath) {
+  const config = ts.readConfigFile(tsconfigPath, ts.sys.readFile);
+  if (config.error !== undefined) {
+    throw new Error(ts.flattenDiagnosticMessageText(config.error.messageText, "\n"));
+  }
+  const parsed = ts.parseJsonConfigFileContent(config.config, ts.sys, path.dirname(tsconfigPath), undefined, tsconfigPath);
+  const host = ts.createCompilerHost(parsed.options, true);
+  const getSourceFile = host.getSourceFile;
+  host.getSourceFile = (fileName, languageVersion, onError) => {
+    if (!isSharedDeclarationFile(fileName, parsed.options)) {
+      return getSourceFile.call(host, fileName, languageVersion, onError);
+    }
+    const key = `${languageVersion}:${fileName}`;
+    let sourceFile = declarationFiles.get(key);
+    if (sourceFile === undefined) {
+      sourceFile = getSourceFile.call(host, fileName, languageVersion, onError);
+      if (sourceFile !== undefined) {
+        declarationFiles.set(key, sourceFile);
+      }
+    }
+    return sourceFile;
+  };
+  return ts.createProgram(parsed.fileNames, parsed.options, host);
+}
+
+function isSharedDeclarationFile(fileName, options) {
+  if (!fileName.endsWith(".d.ts")) {
+    return false;
+  }
+  const libDirectory = path.dirname(ts.getDefaultLibFilePath(options));
+  return path.dirname(path.resolve(fileName)) === libDirectory || /[\\/]node_modules[\\/]/.test(fileName);
+}
+
+module.exports = { createProgram };
@@ -0,0 +1,67 @@
+#!/usr/bin/env node
+/*
+ * Calculates metrics and runs rules on the files of a tsconfig.json with a single type-checked program,
+ * instead of one "tsmetrics" process and one "tslint" process parsing the same files separately.
+ *
+ * Output has one JSON record per line, written as soon as available:
+ *   {"metrics": <same object as an element of "tsmetrics" response>}
+ *   {"failure": <same object as a tslint failure with "--format json">}
+ *   {"error": {"file": "<path>", "message": "<message>"}} for files which are not analyzed, the others still are
+ *
+ * Usage: node sonarts-analyze.js --config <tslint.json> --project <tsconfig.json> --files-from <file with one path per line>
+ *   [--metrics-from <file with one path per line>]
+ * Metrics are calculated only for files listed with "--metrics-from", rules are run on all files listed with "--files-from".
+ */
+"use strict";
+
+const fs = require("fs");
+const tslint = require("tslint");
+const { metrics } = require("./metrics");
+const { createProgram } = require("./program");
+
+// stdout is reserved for records
+console.log = console.error;
+
+const args = process.argv.slice(2);
+const configPath = option("--config");
+const tsconfigPath = option("--project");
+const files = readFileList(option("--files-from"));
+const filesToMeasure = option("--metrics-from") !== undefined ? readFileList(option("--metrics-from")) : [];
+
+const program = createProgram(tsconfigPath);
+
+if (filesToMeasure.length > 0) {
+  metrics(filesToMeasure, program).forEach(response => writeRecord({ metrics: response }));
+}
+
+const configuration = tslint.Configuration.loadConfigurationFromPath(configPath);
+let failed = false;
+files.forEach(file => {
+  const sourceFile = program.getSourceFile(file);
+  if (sourceFile === undefined) {
+    const message = `Invalid source file: ${file}. Ensure that the files supplied to lint have a .ts, .tsx, .js or .jsx extension.`;
+    console.error(message);
+    writeRecord({ error: { file, message } });
+    failed = true;
+    return;
+  }
+  // a linter per file, so that failures are written as soon as the file is analyzed
+  const linter = new tslint.Linter({ fix: false }, program);
+  linter.lint(file, sourceFile.getFullText(), configuration);
+  linter.getResult().failures.forEach(failure => writeRecord({ failure: failure.toJson() }));
+});
+
+process.exitCode = failed ? 1 : 0;
+
+function option(name) {
+  const index = args.indexOf(name);
+  return index >= 0 ? args[index + 1] : undefined;
+}
+
+function readFileList(fileList) {
+  return fs.readFileSync(fileList, "utf8").split(/\r?\n/).filter(file => file.length > 0);
+}
+
+function writeRecord(record) {
+  process.stdout.write(JSON.stringify(record) + "\n");
+}
@@ -0,0 +1,147 @@
+#!/usr/bin/env node
+/*
+ * Long-lived analysis server used by the SonarTS plugin when "sonar.typescript.daemon" is enabled.
+ *
+ * Requests are JSON documents, each preceded by its UTF-8 byte length as a 4-byte big-endian integer.
+ * Responses are JSON documents written as a sequence of chunks, each preceded the same way by its byte length, ended by an empty chunk:
+ * records are written as soon as their file is processed, so that memory does not grow with the size of the request.
+ * A response which stops in the middle of its array (e.g. unexpected failure) is ended by an empty chunk without closing the array.
+ * Supported requests:
+ *   {"type": "metrics", "filepaths": [...]}         -> same array as produced by "tsmetrics"
+ *   {"type": "lint", "tsconfig": "...", "files": [...]} -> array of the same records as produced by "sonarts-analyze.js":
+ *                                                      {"failure": <tslint failure>} or {"error": {"file": "<path>", "message": "<message>"}}
+ *                                                      for files which are not analyzed, the others still are
+ *   {"type": "close"}                               -> server exits
+ * Failed requests are answered with {"error": "<message>"}.
+ *
+ * Usage: node sonarts-server.js <path to tslint.json with rules which need type information>
+ */
+"use strict";
+
+const tslint = require("tslint");
+const { metrics } = require("./metrics");
+const { createProgram } = require("./program");
+
+const tslintConfigPath = process.argv[2];
+
+// stdout is reserved for response frames
+console.log = console.error;
+
+let configuration;
+
+let input = Buffer.alloc(0);
+
+process.stdin.on("data", chunk => {
+  input = Buffer.concat([input, chunk]);
+  while (input.length >= 4) {
+    const length = input.readUInt32BE(0);
+    if (input.length < 4 + length) {
+      break;
+    }
+    const payload = input.slice(4, 4 + length).toString("utf8");
+    input = input.slice(4 + length);
+    handle(JSON.parse(payload));
+  }
+});
+
+process.stdin.on("end", () => process.exit(0));
+
+function handle(request) {
+  if (request.type === "close") {
+    process.exit(0);
+  }
+  const response = new Response();
+  try {
+    if (request.type === "metrics") {
+      response.begin();
+      request.filepaths.forEach(filepath => response.records(metrics([filepath])));
+    } else if (request.type === "lint") {
+      lint(response, request.tsconfig, request.files);
+    } else {
+      response.error(`Unknown request type "${request.type}"`);
+    }
+    response.end();
+  } catch (e) {
+    if (response.started) {
+      console.error(`Failed to answer "${request.type}" request: ${e.message || e}`);
+      response.abort();
+    } else {
+      response.error(e.message || String(e));
+    }
+  }
+}
+
+class Response {
+  constructor() {
+    this.started = false;
+    this.count = 0;
+  }
+
+  begin() {
+    writeChunk("[");
+    this.started = true;
+  }
+
+  records(records) {
+    if (records.length > 0) {
+      writeChunk((this.count > 0 ? "," : "") + records.map(record => JSON.stringify(record)).join(","));
+      this.count += records.length;
+    }
+  }
+
+  error(message) {
+    writeChunk(JSON.stringify({ error: message }));
+    writeChunk("");
+  }
+
+  end() {
+    if (this.started) {
+      writeChunk("]");
+      writeChunk("");
+    }
+  }
+
+  abort() {
+    writeChunk("");
+  }
+}
+
+function writeChunk(chunk) {
+  const payload = Buffer.from(chunk, "utf8");
+  const header = Buffer.alloc(4);
+  header.writeUInt32BE(payload.length, 0);
+  process.stdout.write(header);
+  process.stdout.write(payload);
+}
+
+function lint(response, tsconfigPath, files) {
+  const program = createProgram(tsconfigPath);
+  response.begin();
+  files.forEach(file => {
+    const sourceFile = program.getSourceFile(file);
+    if (sourceFile === undefined) {
+      const message = `Invalid source file: ${file}. Ensure that the files supplied to lint have a .ts, .tsx, .js or .jsx extension.`;
+      console.error(message);
+      response.records([{ error: { file, message } }]);
+      return;
+    }
+    // a linter per file, so that a file failing to be analyzed does not lose the failures of the others
+    const linter = new tslint.Linter({ fix: false }, program);
+    try {
+      linter.lint(file, sourceFile.getFullText(), getConfiguration());
+    } catch (e) {
+      const message = `Failed to analyze ${file}: ${e.message || e}`;
+      console.error(message);
+      response.records([{ error: { file, message } }]);
+      return;
+    }
+    response.records(linter.getResult().failures.map(failure => ({ failure: failure.toJson() })));
+  });
+}
+
+function getConfiguration() {
+  if (configuration === undefined) {
+    configuration = tslint.Configuration.loadConfigurationFromPath(tslintConfigPath);
+  }
+  return configuration;
+}
@@ -0,0 +1,55 @@
+#!/usr/bin/env node
+/*
+ * Runs tslint on files read from a file instead of command line arguments, so that the number of files is not limited
+ * by maximum command line length. Files are linted one at a time and the output of each one is written as soon as it is linted,
+ * with the same formatter as tslint command line interface.
+ *
+ * Files tslint refuses to analyze are reported on stderr with one JSON line each: {"error": {"file": "<path>", "message": "<message>"}},
+ * so that they can be left out when analyzing again the other files. As with tslint command line interface, no file is linted then.
+ *
+ * Usage: node tslint-files.js --config <tslint.json> [--project <tsconfig.json> --type-check] --formatters-dir <directory> --format <name>
+ *   [--force] --files-from <file with one path per line>
+ */
+"use strict";
+
+const fs = require("fs");
+const tslint = require("tslint");
+const { createProgram } = require("./program");
+
+// stdout is reserved for the formatted failures
+console.log = console.error;
+
+const args = process.argv.slice(2);
+const configPath = option("--config");
+const tsconfigPath = option("--project");
+const files = fs.readFileSync(option("--files-from"), "utf8").split(/\r?\n/).filter(file => file.length > 0);
+
+const program = tsconfigPath !== undefined ? createProgram(tsconfigPath) : undefined;
+
+const invalidFiles = files.filter(file => (program !== undefined ? program.getSourceFile(file) === undefined : !fs.existsSync(file)));
+if (invalidFiles.length > 0) {
+  invalidFiles.forEach(file => {
+    const message = `Invalid source file: ${file}. Ensure that the files supplied to lint have a .ts, .tsx, .js or .jsx extension.`;
+    console.error(message);
+    console.error(JSON.stringify({ error: { file, message } }));
+  });
+  process.exit(1);
+}
+
+const configuration = tslint.Configuration.loadConfigurationFromPath(configPath);
+const linterOptions = { fix: false, formatter: option("--format"), formattersDirectory: option("--formatters-dir") };
+files.forEach(file => {
+  const source = program !== undefined ? program.getSourceFile(file).getFullText() : fs.readFileSync(file, "utf8");
+  // a linter per file, so that the output of a file is written as soon as it is linted
+  const linter = new tslint.Linter(linterOptions, program);
+  linter.lint(file, source, configuration);
+  const output = linter.getResult().output;
+  if (output.length > 0) {
+    process.stdout.write(output.endsWith("\n") ? output : output + "\n");
+  }
+});
+
+function option(name) {
+  const index = args.indexOf(name);
+  return index >= 0 ? args[index + 1] : undefined;
+}
@@ -0,0 +1,17 @@
+#!/usr/bin/env node
+/*
+ * Same as "tsmetrics" (reads {"filepaths": [...]} request on stdin), but writes the response with the binary encoding described in metrics.js.
+ *
+ * Usage: node tsmetrics-binary.js
+ */
+"use strict";
+
+const { metrics, writeBinary } = require("./metrics");
+
+// stdout is reserved for the response
+console.log = console.error;
+
+let input = "";
+process.stdin.setEncoding("utf8");
+process.stdin.on("data", chunk => (input += chunk));
+process.stdin.on("end", () => writeBinary(metrics(JSON.parse(input).filepaths), process.stdout));
@@ -0,0 +1,15 @@
+/*
+ * tslint formatter printing one failure per line ("--format ndjson"), same failure structure as "--format json".
+ * Allows SonarTS plugin to process failures without parsing the whole output at once.
+ */
+"use strict";
+
+const AbstractFormatter = require("tslint/lib/language/formatter/abstractFormatter").AbstractFormatter;
+
+class Formatter extends AbstractFormatter {
+  format(failures) {
+    return failures.map(failure => JSON.stringify(failure.toJson()) + "\n").join("");
+  }
+}
+
+exports.Formatter = Formatter;
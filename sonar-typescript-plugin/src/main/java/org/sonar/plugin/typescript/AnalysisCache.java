@@ -0,0 +1,405 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.CheckForNull;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.plugin.typescript.rules.TypeScriptRule;
+import org.sonar.plugin.typescript.rules.TypeScriptRules;
+
+/**
+ * Results of previous analyses, stored as JSON documents in files named after a hash of everything the result depends on.
+ * <ul>
+ *  <li>Metrics of a file only depend on its content.</li>
+ *  <li>Failures of rules which use type information also depend on rules configuration, on the tsconfig.json and the files it extends,
+ *  and on every file its program may import: they are reused only when none of the TypeScript files of the project, declaration files
+ *  and package manifests or lock files (which determine typings of "node_modules") changed.</li>
+ *  <li>Failures of other rules only depend on rules configuration and on the file itself.</li>
+ * </ul>
+ * By default, results are kept in a directory of the module in the Sonar user home (see {@link #moduleDirectory}), as the working directory is deleted
+ * at the start of each analysis. Entries not used by an analysis are deleted at its end (see {@link #prune()}), so that the cache does not grow with each change.
+ * Can be used from several threads.
+ */
+class AnalysisCache {
+
+  private static final Logger LOG = Loggers.get(AnalysisCache.class);
+
+  // to be changed when format of cached results changes
+  private static final String FORMAT_VERSION = "2";
+  private static final String METRICS = "metrics";
+  private static final String FAILURES = "failures";
+  private static final String SYNTACTIC_FAILURES = "syntactic-failures";
+  // besides input files, files which may change the programs of tsconfig.json files
+  private static final Set<String> PROGRAM_DEPENDENCIES = ImmutableSet.of("package.json", "package-lock.json", "npm-shrinkwrap.json", "yarn.lock");
+  private static final String DECLARATION_EXTENSION = ".d.ts";
+  // a configured directory may be shared by analyses of several branches
+  private static final long SHARED_RETENTION_MILLIS = TimeUnit.DAYS.toMillis(7);
+  private static final String DIRECTORY_NAME = "sonarts-cache";
+  private static final int MODULE_HASH_LENGTH = 16;
+  // content hash of files which could not be read, whose results are never reused
+  private static final String UNREADABLE = "";
+
+  private final Path directory;
+  private final long retentionMillis;
+  private final long startMillis = System.currentTimeMillis();
+  private final Set<Path> usedEntries = ConcurrentHashMap.newKeySet();
+  private final Path baseDir;
+  private final Collection<InputFile> projectFiles;
+  private final String versionKey;
+  private final String rulesKey;
+  private final TsConfig.Loader tsConfigLoader = new TsConfig.Loader();
+  private String programsKey;
+  private final Map<String, String> contentHashByPath = new ConcurrentHashMap<>();
+
+  private final AtomicInteger metricsHits = new AtomicInteger();
+  private final AtomicInteger metricsMisses = new AtomicInteger();
+  private final AtomicInteger failuresHits = new AtomicInteger();
+  private final AtomicInteger failuresMisses = new AtomicInteger();
+  private final AtomicInteger syntacticFailuresHits = new AtomicInteger();
+  private final AtomicInteger syntacticFailuresMisses = new AtomicInteger();
+
+  AnalysisCache(Path directory, long retentionMillis, TypeScriptRules typeScriptRules, Path baseDir, Collection<InputFile> projectFiles) {
+    this.directory = directory;
+    this.retentionMillis = retentionMillis;
+    this.baseDir = baseDir;
+    this.projectFiles = projectFiles;
+    this.versionKey = hash(FORMAT_VERSION, Strings.nullToEmpty(AnalysisCache.class.getPackage().getImplementationVersion()));
+    Hasher hasher = Hashing.sha256().newHasher().putString(versionKey, StandardCharsets.UTF_8);
+    for (TypeScriptRule rule : typeScriptRules) {
+      hasher.putString(rule.tsLintKey(), StandardCharsets.UTF_8).putString(rule.configuration().toString(), StandardCharsets.UTF_8);
+    }
+    this.rulesKey = hasher.hash().toString();
+  }
+
+  static AnalysisCache create(SensorContext sensorContext, TypeScriptRules typeScriptRules, Collection<InputFile> projectFiles) {
+    String configuredDirectory = sensorContext.settings().getString(TypeScriptPlugin.CACHE_DIRECTORY_KEY);
+    File directory;
+    long retentionMillis = 0;
+    if (Strings.isNullOrEmpty(configuredDirectory)) {
+      directory = moduleDirectory(sensorContext).toFile();
+    } else {
+      retentionMillis = SHARED_RETENTION_MILLIS;
+      directory = new File(configuredDirectory);
+      if (!directory.isAbsolute()) {
+        directory = new File(sensorContext.fileSystem().baseDir(), configuredDirectory);
+      }
+    }
+    LOG.debug("Using analysis cache " + directory.getAbsolutePath());
+    return new AnalysisCache(directory.toPath(), retentionMillis, typeScriptRules, sensorContext.fileSystem().baseDir().toPath(), projectFiles);
+  }
+
+  /**
+   * Directory of the analyzed module in the Sonar user home, named after a hash of the module key
+   */
+  static Path moduleDirectory(SensorContext sensorContext) {
+    String moduleKey = sensorContext.module().key();
+    return SonarUserHome.resolve(sensorContext.settings()).toPath().resolve(DIRECTORY_NAME).resolve(hash(moduleKey).substring(0, MODULE_HASH_LENGTH));
+  }
+
+  boolean hasMetrics(InputFile inputFile) {
+    String metricsKey = metricsKey(inputFile);
+    boolean hit = metricsKey != null && Files.exists(entry(METRICS, metricsKey));
+    (hit ? metricsHits : metricsMisses).incrementAndGet();
+    return hit;
+  }
+
+  /**
+   * Returns cached metrics of a file for which {@link #hasMetrics(InputFile)} returned true, or null if the entry could not be read after all
+   */
+  @CheckForNull
+  String readMetrics(InputFile inputFile) {
+    String metricsKey = metricsKey(inputFile);
+    String json = metricsKey == null ? null : read(entry(METRICS, metricsKey));
+    if (json == null) {
+      metricsHits.decrementAndGet();
+      metricsMisses.incrementAndGet();
+    }
+    return json;
+  }
+
+  void writeMetrics(String filepath, String json) {
+    String contentHash = contentHashByPath.get(filepath);
+    if (contentHash != null && !UNREADABLE.equals(contentHash)) {
+      write(entry(METRICS, hash(versionKey, contentHash)), json);
+    }
+  }
+
+  /**
+   * Key of the rule failures of files analyzed with the given tsconfig.json
+   */
+  String failuresKey(String tsconfigPath, Collection<InputFile> inputFiles) {
+    Path tsconfig = new File(tsconfigPath).toPath();
+    Hasher hasher = Hashing.sha256().newHasher()
+      .putString(rulesKey, StandardCharsets.UTF_8)
+      .putString(programsKey(), StandardCharsets.UTF_8)
+      .putString(tsconfigPath, StandardCharsets.UTF_8)
+      .putString(fileHash(tsconfig), StandardCharsets.UTF_8);
+    for (Path extended : extended(tsconfig)) {
+      hasher.putString(extended.toString(), StandardCharsets.UTF_8).putString(fileHash(extended), StandardCharsets.UTF_8);
+    }
+    List<InputFile> sortedFiles = new ArrayList<>(inputFiles);
+    sortedFiles.sort(Comparator.comparing(InputFile::absolutePath));
+    for (InputFile inputFile : sortedFiles) {
+      hasher.putString(inputFile.absolutePath(), StandardCharsets.UTF_8).putString(contentHash(inputFile), StandardCharsets.UTF_8);
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Returns cached failures of each file, or null if any of them is missing
+   */
+  @CheckForNull
+  List<String> readFailures(String failuresKey, Collection<InputFile> inputFiles) {
+    List<String> failures = new ArrayList<>(inputFiles.size());
+    for (InputFile inputFile : inputFiles) {
+      String json = read(entry(FAILURES, hash(failuresKey, inputFile.absolutePath())));
+      if (json == null) {
+        failuresMisses.addAndGet(inputFiles.size());
+        return null;
+      }
+      failures.add(json);
+    }
+    failuresHits.addAndGet(inputFiles.size());
+    return failures;
+  }
+
+  void writeFailures(String failuresKey, InputFile inputFile, String json) {
+    write(entry(FAILURES, hash(failuresKey, inputFile.absolutePath())), json);
+  }
+
+  /**
+   * Returns cached failures of rules which do not need type information, or null if there are none
+   */
+  @CheckForNull
+  String readSyntacticFailures(InputFile inputFile) {
+    String contentHash = contentHash(inputFile);
+    String json = UNREADABLE.equals(contentHash) ? null : read(entry(SYNTACTIC_FAILURES, hash(rulesKey, inputFile.absolutePath(), contentHash)));
+    (json == null ? syntacticFailuresMisses : syntacticFailuresHits).incrementAndGet();
+    return json;
+  }
+
+  void writeSyntacticFailures(InputFile inputFile, String json) {
+    String contentHash = contentHash(inputFile);
+    if (!UNREADABLE.equals(contentHash)) {
+      write(entry(SYNTACTIC_FAILURES, hash(rulesKey, inputFile.absolutePath(), contentHash)), json);
+    }
+  }
+
+  /**
+   * Deletes entries which were neither read nor written by this analysis and, for a configured directory, not during the last days either:
+   * read entries are touched, so the modification time of an entry is the time it was last used.
+   */
+  void prune() {
+    // entries written by a concurrent analysis are more recent than the start of this one
+    long threshold = startMillis - retentionMillis;
+    AtomicInteger deleted = new AtomicInteger();
+    for (String kind : new String[] {METRICS, FAILURES, SYNTACTIC_FAILURES}) {
+      Path kindDirectory = directory.resolve(kind);
+      if (!Files.isDirectory(kindDirectory)) {
+        continue;
+      }
+      try {
+        Files.walkFileTree(kindDirectory, new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            if (!usedEntries.contains(file) && attrs.lastModifiedTime().toMillis() < threshold) {
+              AtomicFiles.deleteQuietly(file);
+              deleted.incrementAndGet();
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            return FileVisitResult.CONTINUE;
+          }
+        });
+      } catch (IOException e) {
+        LOG.debug("Failed to prune analysis cache " + kindDirectory, e);
+      }
+    }
+    LOG.debug(String.format("Deleted %d unused entries of analysis cache", deleted.get()));
+  }
+
+  void logStatistics() {
+    LOG.info(String.format("Analysis cache: metrics of %d files reused, %d files measured; rule failures of %d files reused, %d files analyzed; "
+      + "syntactic rule failures of %d files reused, %d files analyzed",
+      metricsHits.get(), metricsMisses.get(), failuresHits.get(), failuresMisses.get(), syntacticFailuresHits.get(), syntacticFailuresMisses.get()));
+  }
+
+  private synchronized List<Path> extended(Path tsconfig) {
+    return tsConfigLoader.load(tsconfig).extended();
+  }
+
+  /**
+   * Imports are resolved by TypeScript, so the files of a program are not known before it is created: all files it may contain are hashed,
+   * once per analysis. Programs with a file which could not be read get a key of their own, so that their failures are never reused.
+   */
+  private synchronized String programsKey() {
+    if (programsKey == null) {
+      Hasher hasher = Hashing.sha256().newHasher();
+      List<InputFile> sortedFiles = new ArrayList<>(projectFiles);
+      sortedFiles.sort(Comparator.comparing(InputFile::absolutePath));
+      for (InputFile inputFile : sortedFiles) {
+        String contentHash = contentHash(inputFile);
+        hasher.putString(inputFile.absolutePath(), StandardCharsets.UTF_8)
+          .putString(UNREADABLE.equals(contentHash) ? UUID.randomUUID().toString() : contentHash, StandardCharsets.UTF_8);
+      }
+      for (Path dependency : programDependencies()) {
+        hasher.putString(dependency.toString(), StandardCharsets.UTF_8).putString(fileHash(dependency), StandardCharsets.UTF_8);
+      }
+      programsKey = hasher.hash().toString();
+    }
+    return programsKey;
+  }
+
+  private List<Path> programDependencies() {
+    List<Path> dependencies = new ArrayList<>();
+    try {
+      Files.walkFileTree(baseDir, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+          String name = dir.getFileName() == null ? "" : dir.getFileName().toString();
+          // typings of "node_modules" are covered by lock files
+          return "node_modules".equals(name) || (name.startsWith(".") && !dir.equals(baseDir)) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          String name = file.getFileName().toString();
+          if (name.endsWith(DECLARATION_EXTENSION) || PROGRAM_DEPENDENCIES.contains(name)) {
+            dependencies.add(file);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      LOG.debug("Failed to list declaration files of " + baseDir, e);
+    }
+    dependencies.sort(Comparator.naturalOrder());
+    return dependencies;
+  }
+
+  /**
+   * Returns null when the file could not be read
+   */
+  @CheckForNull
+  private String metricsKey(InputFile inputFile) {
+    String contentHash = contentHash(inputFile);
+    return UNREADABLE.equals(contentHash) ? null : hash(versionKey, contentHash);
+  }
+
+  /**
+   * Returns {@link #UNREADABLE} when the file could not be read: it is analyzed, as if it were not cached
+   */
+  private String contentHash(InputFile inputFile) {
+    return contentHashByPath.computeIfAbsent(inputFile.absolutePath(), path -> {
+      try {
+        // bytes rather than InputFile#contents(), which does not exist before SonarQube 6.2
+        return Hashing.sha256().hashBytes(Files.readAllBytes(inputFile.path())).toString();
+      } catch (IOException e) {
+        LOG.debug("Failed to read " + path + ", its results are not cached", e);
+        return UNREADABLE;
+      }
+    });
+  }
+
+  private static String fileHash(Path path) {
+    try {
+      return Hashing.sha256().hashBytes(Files.readAllBytes(path)).toString();
+    } catch (IOException e) {
+      LOG.debug("Failed to read " + path, e);
+      return "";
+    }
+  }
+
+  private static String hash(String... parts) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    for (String part : parts) {
+      hasher.putString(part, StandardCharsets.UTF_8);
+    }
+    return hasher.hash().toString();
+  }
+
+  private Path entry(String kind, String key) {
+    return directory.resolve(kind).resolve(key.substring(0, 2)).resolve(key + ".json");
+  }
+
+  @CheckForNull
+  private String read(Path entry) {
+    try {
+      String json = new String(Files.readAllBytes(entry), StandardCharsets.UTF_8);
+      usedEntries.add(entry);
+      touch(entry);
+      return json;
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      LOG.debug("Failed to read analysis cache entry " + entry, e);
+      return null;
+    }
+  }
+
+  private static void touch(Path entry) {
+    try {
+      Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      LOG.debug("Failed to touch analysis cache entry " + entry, e);
+    }
+  }
+
+  private void write(Path entry, String json) {
+    usedEntries.add(entry);
+    // a concurrent or interrupted analysis never reads a partial entry
+    AtomicFiles.write(entry, json);
+  }
+}
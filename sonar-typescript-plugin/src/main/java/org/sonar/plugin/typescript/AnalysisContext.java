@@ -0,0 +1,113 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.config.Settings;
+import org.sonar.plugin.typescript.executable.ExecutableBundle;
+import org.sonar.plugin.typescript.rules.TypeScriptRules;
+
+/**
+ * Collaborators of one execution of {@link ExternalTypescriptSensor}, shared by metrics calculation and rules execution:
+ * metrics and rules processes run concurrently on {@link #metricsExecutor} and {@link #rulesExecutor} threads, within the memory
+ * of {@link #scheduler}, while their results are saved by the sensor thread through {@link #saveQueue}.
+ * Executors and scheduler are shut down by {@link #close()}.
+ */
+class AnalysisContext implements AutoCloseable {
+
+  final SensorContext sensorContext;
+  final ExecutableBundle executableBundle;
+  final TypeScriptRules typeScriptRules;
+  final InputFileIndex inputFileIndex;
+  final IssueIndex issueIndex = new IssueIndex();
+  final AnalysisCache cache;
+  final PerformanceReport report;
+  final NodeHeap nodeHeap;
+  final ProcessScheduler scheduler;
+  final CostModel costModel;
+  final SaveQueue saveQueue = new SaveQueue();
+  final long processTimeoutSeconds;
+  final int workers;
+  final int maxFilesPerProcess;
+  final boolean binaryMetrics;
+  final ExecutorService metricsExecutor;
+  final ExecutorService rulesExecutor;
+
+  AnalysisContext(SensorContext sensorContext, ExecutableBundle executableBundle, TypeScriptRules typeScriptRules, Collection<InputFile> inputFiles,
+    PerformanceReport report) {
+    this.sensorContext = sensorContext;
+    this.executableBundle = executableBundle;
+    this.typeScriptRules = typeScriptRules;
+    this.inputFileIndex = new InputFileIndex(sensorContext.fileSystem(), inputFiles);
+    this.cache = AnalysisCache.create(sensorContext, typeScriptRules, inputFiles);
+    this.report = report;
+    Settings settings = sensorContext.settings();
+    CgroupLimits limits = CgroupLimits.read(CgroupLimits.DEFAULT_ROOT);
+    this.nodeHeap = NodeHeap.create(settings, limits);
+    this.processTimeoutSeconds = processTimeout(settings);
+    this.scheduler = ProcessScheduler.create(limits, processTimeoutSeconds, report);
+    // the working directory is deleted at the start of each analysis
+    this.costModel = CostModel.load(AnalysisCache.moduleDirectory(sensorContext).resolve(CostModel.FILE_NAME));
+    this.workers = workers(settings, limits);
+    this.maxFilesPerProcess = maxFilesPerProcess(settings);
+    this.binaryMetrics = settings.getBoolean(TypeScriptPlugin.BINARY_METRICS_KEY);
+    this.metricsExecutor = Executors.newSingleThreadExecutor(threadFactory("sonarts-metrics-%d"));
+    this.rulesExecutor = Executors.newFixedThreadPool(workers, threadFactory("sonarts-rules-%d"));
+  }
+
+  @Override
+  public void close() {
+    metricsExecutor.shutdownNow();
+    rulesExecutor.shutdownNow();
+    scheduler.close();
+  }
+
+  /**
+   * Defaults to the number of CPUs available to the container, if limited
+   */
+  private static int workers(Settings settings, CgroupLimits limits) {
+    int workers = settings.getInt(TypeScriptPlugin.WORKERS_KEY);
+    if (workers > 0) {
+      return workers;
+    }
+    int processors = Runtime.getRuntime().availableProcessors();
+    return limits.cpus() > 0 ? Math.min(limits.cpus(), processors) : processors;
+  }
+
+  private static long processTimeout(Settings settings) {
+    long timeout = settings.getLong(TypeScriptPlugin.PROCESS_TIMEOUT_KEY);
+    return timeout > 0 ? timeout : TypeScriptPlugin.PROCESS_TIMEOUT_DEFAULT_VALUE;
+  }
+
+  private static int maxFilesPerProcess(Settings settings) {
+    int maxFiles = settings.getInt(TypeScriptPlugin.MAX_FILES_PER_PROCESS_KEY);
+    return maxFiles > 0 ? maxFiles : TypeScriptPlugin.MAX_FILES_PER_PROCESS_DEFAULT_VALUE;
+  }
+
+  private static ThreadFactory threadFactory(String nameFormat) {
+    return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import javax.annotation.Nullable;
+
+/**
+ * JDK Flight Recorder events of the analysis (see {@link FlightRecorderEvents}), visible when the scanner runs with a recording, e.g. "-XX:StartFlightRecording".
+ * Events are only created when the JVM provides the "jdk.jfr" API (Java 8u262 and later): otherwise every method returns a span doing nothing.
+ * The API is not needed to build the plugin.
+ */
+public final class AnalysisEvents {
+
+  private static final boolean AVAILABLE = isFlightRecorderAvailable();
+  private static final Span NO_SPAN = () -> {
+  };
+  private static final ProcessSpan NO_PROCESS_SPAN = (pid, exitCode, killed) -> {
+  };
+
+  private AnalysisEvents() {
+  }
+
+  /**
+   * Event lasting until it is closed
+   */
+  @FunctionalInterface
+  public interface Span extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  /**
+   * Event lasting until the process exits
+   */
+  @FunctionalInterface
+  interface ProcessSpan {
+    void exited(long pid, int exitCode, boolean killed);
+  }
+
+  public static Span bundleDeploy(String bundleLocation) {
+    return AVAILABLE ? FlightRecorderEvents.bundleDeploy(bundleLocation) : NO_SPAN;
+  }
+
+  static Span tsconfigResolution(int files) {
+    return AVAILABLE ? FlightRecorderEvents.tsconfigResolution(files) : NO_SPAN;
+  }
+
+  static Span processSpawn(String scope, String commandLine) {
+    return AVAILABLE ? FlightRecorderEvents.processSpawn(scope, commandLine) : NO_SPAN;
+  }
+
+  static ProcessSpan process(String scope, String commandLine) {
+    return AVAILABLE ? FlightRecorderEvents.process(scope, commandLine) : NO_PROCESS_SPAN;
+  }
+
+  static Span jsonDecode(String scope) {
+    return AVAILABLE ? FlightRecorderEvents.jsonDecode(scope) : NO_SPAN;
+  }
+
+  /**
+   * Saving of {@code count} items of the given kind (e.g. highlighting ranges) on a file, or on several files when {@code file} is null
+   */
+  static Span save(String kind, @Nullable String file, int count) {
+    return AVAILABLE ? FlightRecorderEvents.save(kind, file, count) : NO_SPAN;
+  }
+
+  static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  private static boolean isFlightRecorderAvailable() {
+    try {
+      // event types are created when the class is initialized, which fails without the API
+      Class.forName(FlightRecorderEvents.class.getName(), true, AnalysisEvents.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import org.sonar.api.batch.sensor.highlighting.TypeOfText;
+
+/**
+ * Reads "tsmetrics" responses in the binary encoding described in "sonarts-core/bin/metrics.js":
+ * length-prefixed records, one per file, with positions as columns of varints and strings in a table.
+ * Each record is decoded from a {@link ByteBuffer} wrapping the bytes read from the process, without intermediate copies.
+ */
+class BinaryMetricsReader {
+
+  private static final byte[] MAGIC = "STS1".getBytes(StandardCharsets.US_ASCII);
+  private static final int FIELDS = 4;
+
+  private BinaryMetricsReader() {
+  }
+
+  /**
+   * Consumes the magic header if present, otherwise leaves the stream unchanged
+   */
+  static boolean isBinary(BufferedInputStream in) throws IOException {
+    in.mark(MAGIC.length);
+    byte[] header = new byte[MAGIC.length];
+    int read = 0;
+    while (read < header.length) {
+      int count = in.read(header, read, header.length - read);
+      if (count < 0) {
+        break;
+      }
+      read += count;
+    }
+    if (read == header.length && Arrays.equals(header, MAGIC)) {
+      return true;
+    }
+    in.reset();
+    return false;
+  }
+
+  static void read(DataInputStream in, Consumer<TsMetricsPerFileResponse> consumer) throws IOException {
+    // records are decoded before reading the next one, so the same buffer is reused
+    byte[] buffer = new byte[8192];
+    int length = in.readInt();
+    while (length != 0) {
+      if (length > buffer.length) {
+        buffer = new byte[Math.max(length, buffer.length * 2)];
+      }
+      in.readFully(buffer, 0, length);
+      consumer.accept(decode(ByteBuffer.wrap(buffer, 0, length)));
+      length = in.readInt();
+    }
+  }
+
+  static TsMetricsPerFileResponse decode(ByteBuffer record) {
+    TsMetricsPerFileResponse response = new TsMetricsPerFileResponse();
+    response.filepath = readString(record);
+
+    String[] strings = new String[readInt(record)];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = readString(record);
+    }
+
+    int[] highlightPositions = readPositions(record);
+    TypeOfText[] typeOfTextByString = new TypeOfText[strings.length];
+    TypeOfText[] types = new TypeOfText[highlightPositions.length / FIELDS];
+    for (int i = 0; i < types.length; i++) {
+      int string = readInt(record);
+      if (typeOfTextByString[string] == null) {
+        typeOfTextByString[string] = Highlights.typeOfText(strings[string]);
+      }
+      types[i] = typeOfTextByString[string];
+    }
+    response.highlights = new Highlights(highlightPositions, types);
+
+    int[] cpdPositions = readPositions(record);
+    String[] images = new String[cpdPositions.length / FIELDS];
+    for (int i = 0; i < images.length; i++) {
+      images[i] = strings[readInt(record)];
+    }
+    response.cpdTokens = new CpdTokens(cpdPositions, images);
+
+    response.ncloc = readInts(record);
+    response.commentLines = readInts(record);
+    int[] nosonarLines = readInts(record);
+    response.nosonarLines = Arrays.stream(nosonarLines).boxed().toArray(Integer[]::new);
+    response.executableLines = readInts(record);
+    response.functions = readInt(record);
+    response.statements = readInt(record);
+    response.classes = readInt(record);
+    return response;
+  }
+
+  /**
+   * Columns of start lines, start columns, end lines and end columns, packed as expected by {@link Highlights} and {@link CpdTokens}
+   */
+  private static int[] readPositions(ByteBuffer record) {
+    int size = readInt(record);
+    int[] positions = new int[size * FIELDS];
+    for (int field = 0; field < FIELDS; field++) {
+      for (int i = 0; i < size; i++) {
+        positions[i * FIELDS + field] = readInt(record);
+      }
+    }
+    return positions;
+  }
+
+  private static int[] readInts(ByteBuffer record) {
+    int[] values = new int[readInt(record)];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = readInt(record);
+    }
+    return values;
+  }
+
+  private static String readString(ByteBuffer record) {
+    int length = readInt(record);
+    String string = new String(record.array(), record.arrayOffset() + record.position(), length, StandardCharsets.UTF_8);
+    record.position(record.position() + length);
+    return string;
+  }
+
+  /**
+   * Zigzag varint
+   */
+  private static int readInt(ByteBuffer record) {
+    long value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = record.get();
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return (int) ((value >>> 1) ^ -(value & 1));
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import javax.annotation.CheckForNull;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Memory and CPU limits of the container the analysis runs in, read from cgroup v2 files, then from cgroup v1 files.
+ * In a container, the cgroup file system is mounted with the cgroup of the container as root, so that files of the root are the ones applying to the analysis.
+ * Limits are unknown outside of Linux and when they are not set.
+ */
+class CgroupLimits {
+
+  private static final Logger LOG = Loggers.get(CgroupLimits.class);
+  static final Path DEFAULT_ROOT = Paths.get("/sys/fs/cgroup");
+  static final long UNKNOWN = -1;
+  // cgroup v1 reports "no limit" as a huge page-aligned value
+  private static final long UNLIMITED_V1 = 1L << 60;
+
+  private final long memoryBytes;
+  private final int cpus;
+
+  CgroupLimits(long memoryBytes, int cpus) {
+    this.memoryBytes = memoryBytes;
+    this.cpus = cpus;
+  }
+
+  static CgroupLimits read(Path root) {
+    return new CgroupLimits(memoryLimit(root), cpuLimit(root));
+  }
+
+  /**
+   * Memory limit in bytes, or {@link #UNKNOWN}
+   */
+  long memoryBytes() {
+    return memoryBytes;
+  }
+
+  /**
+   * Number of CPUs the container may use, rounded up, or {@link #UNKNOWN}
+   */
+  int cpus() {
+    return cpus;
+  }
+
+  /**
+   * Memory limit of the container or, when unknown, physical memory of the host, or {@link #UNKNOWN}
+   */
+  long memoryBytesOrPhysical() {
+    return memoryBytes != UNKNOWN ? memoryBytes : physicalMemoryBytes();
+  }
+
+  private static long physicalMemoryBytes() {
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      long physicalMemory = ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+      if (physicalMemory > 0) {
+        return physicalMemory;
+      }
+    }
+    return UNKNOWN;
+  }
+
+  private static long memoryLimit(Path root) {
+    String v2 = readValue(root.resolve("memory.max"));
+    if (v2 != null) {
+      return "max".equals(v2) ? UNKNOWN : parse(v2);
+    }
+    String v1 = readValue(root.resolve("memory").resolve("memory.limit_in_bytes"));
+    if (v1 != null) {
+      long limit = parse(v1);
+      return limit >= UNLIMITED_V1 ? UNKNOWN : limit;
+    }
+    return UNKNOWN;
+  }
+
+  private static int cpuLimit(Path root) {
+    String v2 = readValue(root.resolve("cpu.max"));
+    if (v2 != null) {
+      String[] quotaAndPeriod = v2.split("\\s+");
+      return quotaAndPeriod.length == 2 && !"max".equals(quotaAndPeriod[0]) ? cpus(parse(quotaAndPeriod[0]), parse(quotaAndPeriod[1])) : (int) UNKNOWN;
+    }
+    for (String controller : new String[] {"cpu", "cpu,cpuacct"}) {
+      String quota = readValue(root.resolve(controller).resolve("cpu.cfs_quota_us"));
+      String period = readValue(root.resolve(controller).resolve("cpu.cfs_period_us"));
+      if (quota != null && period != null) {
+        return cpus(parse(quota), parse(period));
+      }
+    }
+    return (int) UNKNOWN;
+  }
+
+  private static int cpus(long quota, long period) {
+    if (quota <= 0 || period <= 0) {
+      return (int) UNKNOWN;
+    }
+    return (int) Math.max(1, (quota + period - 1) / period);
+  }
+
+  private static long parse(String value) {
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      LOG.debug("Unexpected cgroup value " + value);
+      return UNKNOWN;
+    }
+  }
+
+  @CheckForNull
+  private static String readValue(Path file) {
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try {
+      return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+    } catch (IOException e) {
+      LOG.debug("Failed to read " + file, e);
+      return null;
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Duration, number of files and size of the files of the rules processes of each tsconfig.json, observed during previous analyses,
+ * so that tsconfig.json files expected to take longer are analyzed first: the analysis does not end with a big tsconfig.json started last.
+ * The duration of a tsconfig.json is predicted from its previous duration, scaled with the size of its files, or from the size of its files
+ * and the throughput observed on other tsconfig.json files when it is unknown.
+ * Observations are kept in the directory of the module in the Sonar user home (see {@link AnalysisCache#moduleDirectory}).
+ * Observations can be recorded from several threads.
+ */
+class CostModel {
+
+  private static final Logger LOG = Loggers.get(CostModel.class);
+  static final String FILE_NAME = "sonarts-costs.json";
+  // when nothing was observed yet: a few seconds to start node and load the compiler, then about one second per MB of sources
+  private static final long PROCESS_MILLISECONDS = 3000;
+  private static final double DEFAULT_MILLISECONDS_PER_BYTE = 1000.0 / (1024 * 1024);
+
+  private final Path file;
+  private final Map<String, Cost> history;
+  private final Map<String, Cost> observed = new ConcurrentHashMap<>();
+  private final double millisecondsPerByte;
+
+  CostModel(Path file, Map<String, Cost> history) {
+    this.file = file;
+    this.history = history;
+    long bytes = 0;
+    long milliseconds = 0;
+    for (Cost cost : history.values()) {
+      if (cost.bytes > 0) {
+        bytes += cost.bytes;
+        milliseconds += Math.max(0, cost.milliseconds - PROCESS_MILLISECONDS);
+      }
+    }
+    this.millisecondsPerByte = bytes > 0 ? ((double) milliseconds / bytes) : DEFAULT_MILLISECONDS_PER_BYTE;
+  }
+
+  static CostModel load(Path file) {
+    Map<String, Cost> history = new HashMap<>();
+    try {
+      Costs costs = new Gson().fromJson(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), Costs.class);
+      if (costs != null && costs.groups != null) {
+        history.putAll(costs.groups);
+      }
+    } catch (NoSuchFileException e) {
+      // first analysis
+    } catch (IOException | JsonParseException e) {
+      LOG.debug("Failed to read " + file, e);
+    }
+    return new CostModel(file, history);
+  }
+
+  long predictMilliseconds(String tsconfigPath, Collection<InputFile> inputFiles) {
+    long bytes = bytes(inputFiles);
+    Cost cost = history.get(tsconfigPath);
+    if (cost == null) {
+      return PROCESS_MILLISECONDS + (long) (bytes * millisecondsPerByte);
+    }
+    if (cost.bytes > 0) {
+      return (long) ((double) cost.milliseconds * bytes / cost.bytes);
+    }
+    return cost.files > 0 ? (cost.milliseconds * inputFiles.size() / cost.files) : cost.milliseconds;
+  }
+
+  /**
+   * Returns tsconfig.json files in decreasing order of their predicted duration, logging the predicted duration of their analysis by {@code workers} concurrent processes
+   */
+  List<String> longestFirst(Map<String, Collection<InputFile>> inputFilesByTsconfig, int workers) {
+    Map<String, Long> predictions = new HashMap<>();
+    inputFilesByTsconfig.forEach((tsconfigPath, inputFiles) -> predictions.put(tsconfigPath, predictMilliseconds(tsconfigPath, inputFiles)));
+    List<String> order = new ArrayList<>(predictions.keySet());
+    order.sort(Comparator.<String>comparingLong(predictions::get).reversed().thenComparing(Comparator.naturalOrder()));
+    if (order.isEmpty()) {
+      return order;
+    }
+
+    // each tsconfig.json is started by the first available worker
+    PriorityQueue<Long> workerLoads = new PriorityQueue<>();
+    for (int i = 0; i < Math.max(1, workers); i++) {
+      workerLoads.add(0L);
+    }
+    order.forEach(tsconfigPath -> workerLoads.add(workerLoads.poll() + predictions.get(tsconfigPath)));
+    long makespan = workerLoads.stream().mapToLong(Long::longValue).max().orElse(0);
+
+    LOG.info(String.format("Predicted duration of rules execution with %d workers: %s", workers, seconds(makespan)));
+    LOG.debug("Order of tsconfig.json files: " + order.stream().map(tsconfigPath -> tsconfigPath + " (" + seconds(predictions.get(tsconfigPath)) + ")")
+      .collect(Collectors.joining(", ")));
+    return order;
+  }
+
+  /**
+   * Batches of a same tsconfig.json add up
+   */
+  void record(String tsconfigPath, long milliseconds, Collection<InputFile> inputFiles) {
+    Cost batchCost = new Cost(milliseconds, inputFiles.size(), bytes(inputFiles));
+    observed.merge(tsconfigPath, batchCost, (cost, other) -> new Cost(cost.milliseconds + other.milliseconds, cost.files + other.files, cost.bytes + other.bytes));
+  }
+
+  /**
+   * Keeps previous costs of tsconfig.json files which were not analyzed (e.g. their results were in the analysis cache)
+   */
+  void save() {
+    if (observed.isEmpty()) {
+      return;
+    }
+    Costs costs = new Costs();
+    costs.groups = new HashMap<>(history);
+    costs.groups.putAll(observed);
+    AtomicFiles.write(file, new Gson().toJson(costs));
+  }
+
+  private static long bytes(Collection<InputFile> inputFiles) {
+    long bytes = 0;
+    for (InputFile inputFile : inputFiles) {
+      bytes += inputFile.file().length();
+    }
+    return bytes;
+  }
+
+  private static String seconds(long milliseconds) {
+    return String.format(Locale.ENGLISH, "%.1f s", milliseconds / 1000.0);
+  }
+
+  private static class Costs {
+    Map<String, Cost> groups;
+  }
+
+  static class Cost {
+    final long milliseconds;
+    final int files;
+    final long bytes;
+
+    Cost(long milliseconds, int files, long bytes) {
+      this.milliseconds = milliseconds;
+      this.files = files;
+      this.bytes = bytes;
+    }
+  }
+}
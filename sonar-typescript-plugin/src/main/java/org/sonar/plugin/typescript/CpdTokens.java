@@ -0,0 +1,160 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * CPD tokens of a file, as produced by "tsmetrics": array of {startLine, startCol, endLine, endCol, image} objects.
+ * Stored as columns, like {@link Highlights}.
+ */
+@JsonAdapter(CpdTokens.Adapter.class)
+class CpdTokens {
+
+  private static final int FIELDS = 4;
+
+  private int size = 0;
+  private int[] positions;
+  private String[] images;
+
+  CpdTokens(int capacity) {
+    positions = new int[capacity * FIELDS];
+    images = new String[capacity];
+  }
+
+  /**
+   * @param positions start line, start column, end line and end column of each element
+   */
+  CpdTokens(int[] positions, String[] images) {
+    this.positions = positions;
+    this.images = images;
+    this.size = images.length;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int startLine(int index) {
+    return positions[index * FIELDS];
+  }
+
+  int startCol(int index) {
+    return positions[index * FIELDS + 1];
+  }
+
+  int endLine(int index) {
+    return positions[index * FIELDS + 2];
+  }
+
+  int endCol(int index) {
+    return positions[index * FIELDS + 3];
+  }
+
+  String image(int index) {
+    return images[index];
+  }
+
+  void add(int startLine, int startCol, int endLine, int endCol, String image) {
+    if (size == images.length) {
+      int capacity = Math.max(16, size * 2);
+      positions = Arrays.copyOf(positions, capacity * FIELDS);
+      images = Arrays.copyOf(images, capacity);
+    }
+    int offset = size * FIELDS;
+    positions[offset] = startLine;
+    positions[offset + 1] = startCol;
+    positions[offset + 2] = endLine;
+    positions[offset + 3] = endCol;
+    images[size] = image;
+    size++;
+  }
+
+  static class Adapter extends TypeAdapter<CpdTokens> {
+
+    @Override
+    public CpdTokens read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      CpdTokens cpdTokens = new CpdTokens(16);
+      in.beginArray();
+      while (in.hasNext()) {
+        int startLine = 0;
+        int startCol = 0;
+        int endLine = 0;
+        int endCol = 0;
+        String image = null;
+        in.beginObject();
+        while (in.hasNext()) {
+          switch (in.nextName()) {
+            case "startLine":
+              startLine = in.nextInt();
+              break;
+            case "startCol":
+              startCol = in.nextInt();
+              break;
+            case "endLine":
+              endLine = in.nextInt();
+              break;
+            case "endCol":
+              endCol = in.nextInt();
+              break;
+            case "image":
+              image = in.nextString();
+              break;
+            default:
+              in.skipValue();
+          }
+        }
+        in.endObject();
+        cpdTokens.add(startLine, startCol, endLine, endCol, image);
+      }
+      in.endArray();
+      return cpdTokens;
+    }
+
+    @Override
+    public void write(JsonWriter out, CpdTokens cpdTokens) throws IOException {
+      if (cpdTokens == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginArray();
+      for (int i = 0; i < cpdTokens.size(); i++) {
+        out.beginObject()
+          .name("startLine").value(cpdTokens.startLine(i))
+          .name("startCol").value(cpdTokens.startCol(i))
+          .name("endLine").value(cpdTokens.endLine(i))
+          .name("endCol").value(cpdTokens.endCol(i))
+          .name("image").value(cpdTokens.image(i))
+          .endObject();
+      }
+      out.endArray();
+    }
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import com.google.common.io.CountingInputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import org.sonar.api.utils.command.Command;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.plugin.typescript.executable.SonarTSServer;
+
+/**
+ * Node process started by the sensor. Its error stream is read on its own thread from the start, so that the process never blocks on a full pipe,
+ * and a watchdog kills the process when it runs longer than the timeout, if any. Output written before the kill can still be read.
+ * Bytes read from its output are counted for the {@link PerformanceReport}, its start and its lifetime are recorded as {@link AnalysisEvents}.
+ */
+class ExternalProcess implements SonarTSServer.ServerProcess {
+
+  private static final Logger LOG = Loggers.get(ExternalProcess.class);
+  // a process writing megabytes of warnings should not fill the memory of the scanner
+  private static final int MAX_ERRORS_LENGTH = 1024 * 1024;
+  private static final long STREAM_CLOSE_TIMEOUT_SECONDS = 5;
+  private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(
+    new ThreadFactoryBuilder().setNameFormat("sonarts-watchdog").setDaemon(true).build());
+
+  private final Process process;
+  private final String commandLine;
+  private final String scope;
+  private final long timeoutSeconds;
+  private final CountingInputStream output;
+  private final Future<String> errors;
+  private final AtomicBoolean killed = new AtomicBoolean();
+  @Nullable
+  private final ScheduledFuture<?> watchdog;
+  private final AnalysisEvents.ProcessSpan processSpan;
+  private final long startNanos = System.nanoTime();
+  private volatile long endNanos;
+  private volatile Runnable onFinish = () -> {
+  };
+
+  private ExternalProcess(Process process, String commandLine, String scope, long timeoutSeconds) {
+    this.process = process;
+    this.commandLine = commandLine;
+    this.scope = scope;
+    this.timeoutSeconds = timeoutSeconds;
+    this.output = new CountingInputStream(process.getInputStream());
+    this.errors = readAsync(process.getErrorStream());
+    this.watchdog = timeoutSeconds > 0 ? WATCHDOG.schedule(this::kill, timeoutSeconds, TimeUnit.SECONDS) : null;
+    this.processSpan = AnalysisEvents.process(scope, commandLine);
+  }
+
+  /**
+   * {@code scope} tells what the process is analyzing (e.g. a tsconfig.json file) when it is killed, it is never killed when {@code timeoutSeconds} is not positive.
+   * When {@code heapMb} is positive, it is passed to node as "--max-old-space-size" command line option, before the script:
+   * NODE_OPTIONS environment variable is ignored by node before version 8, and is left as set by the user.
+   */
+  static ExternalProcess start(Command command, String scope, long timeoutSeconds, int heapMb) throws IOException {
+    List<String> commandComponents = new ArrayList<>();
+    commandComponents.add(command.getExecutable());
+    if (heapMb > 0) {
+      commandComponents.add("--max-old-space-size=" + heapMb);
+    }
+    commandComponents.addAll(command.getArguments());
+    ProcessBuilder processBuilder = new ProcessBuilder(commandComponents);
+    processBuilder.environment().putAll(command.getEnvironmentVariables());
+    String commandLine = command.toCommandLine();
+    Process process;
+    try (AnalysisEvents.Span span = AnalysisEvents.processSpawn(scope, commandLine)) {
+      process = processBuilder.start();
+    }
+    return new ExternalProcess(process, commandLine, scope, timeoutSeconds);
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return output;
+  }
+
+  long bytesRead() {
+    return output.getCount();
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    return process.getOutputStream();
+  }
+
+  /**
+   * Waits for the end of the process, which is at the latest when the watchdog kills it
+   */
+  int waitFor() throws InterruptedException {
+    int exitCode = process.waitFor();
+    finished(exitCode);
+    return exitCode;
+  }
+
+  /**
+   * Returns false when the process is still running after {@code timeout}
+   */
+  @Override
+  public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+    if (!process.waitFor(timeout, unit)) {
+      return false;
+    }
+    finished(process.exitValue());
+    return true;
+  }
+
+  private void finished(int exitCode) {
+    if (watchdog != null) {
+      watchdog.cancel(false);
+    }
+    ended();
+    processSpan.exited(pid(), exitCode, killed.get());
+    onFinish.run();
+  }
+
+  /**
+   * Kills the process and its children, without waiting for its end
+   */
+  @Override
+  public void destroy() {
+    if (watchdog != null) {
+      watchdog.cancel(false);
+    }
+    destroyDescendants(process);
+    process.destroyForcibly();
+    ended();
+    onFinish.run();
+  }
+
+  private void ended() {
+    if (endNanos == 0) {
+      endNanos = System.nanoTime();
+    }
+  }
+
+  /**
+   * Time the process ran, from its start to the first time its end was seen, or until now while it runs
+   */
+  long runningNanos() {
+    long end = endNanos;
+    return (end == 0 ? System.nanoTime() : end) - startNanos;
+  }
+
+  /**
+   * {@code action} is run once the process is finished or destroyed, it may be run again by other means
+   */
+  void onFinish(Runnable action) {
+    this.onFinish = action;
+  }
+
+  @Override
+  public boolean isAlive() {
+    return process.isAlive();
+  }
+
+  /**
+   * Returns the process id, or -1 when it is not available
+   */
+  long pid() {
+    try {
+      return (long) Process.class.getMethod("pid").invoke(process);
+    } catch (NoSuchMethodException e) {
+      // Java 8: only known by the implementation
+      try {
+        Field pid = process.getClass().getDeclaredField("pid");
+        pid.setAccessible(true);
+        return pid.getLong(process);
+      } catch (ReflectiveOperationException | RuntimeException pidException) {
+        return -1;
+      }
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return -1;
+    }
+  }
+
+  boolean isKilled() {
+    return killed.get();
+  }
+
+  /**
+   * Returns the error output of the process, to be called once the process is finished
+   */
+  @Override
+  public String errors() {
+    try {
+      return errors.get(STREAM_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return "";
+    } catch (ExecutionException | TimeoutException e) {
+      // e.g. error stream kept open by a child process
+      LOG.debug("Failed to read error output of external process " + commandLine, e);
+      return "";
+    }
+  }
+
+  private void kill() {
+    if (process.isAlive() && killed.compareAndSet(false, true)) {
+      LOG.error(String.format("External process for `%s` did not finish in %d seconds, killing it: `%s`", scope, timeoutSeconds, commandLine));
+      destroyDescendants(process);
+      process.destroyForcibly();
+    }
+  }
+
+  /**
+   * Children of the process (e.g. started by a custom bundle) are killed too when the JVM allows to find them (Java 9 and later)
+   */
+  @SuppressWarnings("unchecked")
+  private static void destroyDescendants(Process process) {
+    try {
+      Method descendants = Process.class.getMethod("descendants");
+      Class<?> processHandle = Class.forName("java.lang.ProcessHandle");
+      Method destroyForcibly = processHandle.getMethod("destroyForcibly");
+      ((Stream<Object>) descendants.invoke(process)).forEach(child -> {
+        try {
+          destroyForcibly.invoke(child);
+        } catch (ReflectiveOperationException e) {
+          LOG.debug("Failed to kill child process", e);
+        }
+      });
+    } catch (NoSuchMethodException | ClassNotFoundException e) {
+      // Java 8: only the process itself is killed
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      LOG.debug("Failed to kill child processes", e);
+    }
+  }
+
+  private static Future<String> readAsync(InputStream inputStream) {
+    FutureTask<String> task = new FutureTask<>(() -> {
+      StringBuilder content = new StringBuilder();
+      try (Reader reader = new InputStreamReader(inputStream, Charset.defaultCharset())) {
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) >= 0) {
+          content.append(buffer, 0, Math.min(read, MAX_ERRORS_LENGTH - content.length()));
+        }
+      }
+      return content.toString();
+    });
+    Thread thread = new Thread(task, "sonarts-process-stderr");
+    thread.setDaemon(true);
+    thread.start();
+    return task;
+  }
+}
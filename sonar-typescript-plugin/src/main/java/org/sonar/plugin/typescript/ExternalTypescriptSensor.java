@@ -19,27 +19,47 @@
  */
 package org.sonar.plugin.typescript;
 
-import com.google.common.base.Charsets;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
-import org.apache.commons.io.IOUtils;
 import org.sonar.api.batch.fs.FilePredicate;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.fs.InputFile;
@@ -49,7 +69,6 @@ import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.batch.sensor.SensorDescriptor;
 import org.sonar.api.batch.sensor.cpd.NewCpdTokens;
 import org.sonar.api.batch.sensor.highlighting.NewHighlighting;
-import org.sonar.api.batch.sensor.highlighting.TypeOfText;
 import org.sonar.api.batch.sensor.issue.NewIssue;
 import org.sonar.api.batch.sensor.issue.NewIssueLocation;
 import org.sonar.api.issue.NoSonarFilter;
@@ -63,11 +82,20 @@ import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.plugin.typescript.executable.ExecutableBundle;
 import org.sonar.plugin.typescript.executable.ExecutableBundleFactory;
+import org.sonar.plugin.typescript.executable.SonarTSServer;
 import org.sonar.plugin.typescript.rules.TypeScriptRules;
 
 public class ExternalTypescriptSensor implements Sensor {
 
   private static final Logger LOG = Loggers.get(ExternalTypescriptSensor.class);
+  private static final String SYNTACTIC_RULES_SCOPE = "rules without type information";
+  private static final String METRICS_SCOPE = "metrics calculation";
+  private static final String SERVER_SCOPE = "SonarTS server";
+  private static final String CACHE_REPLAY_PHASE = "cache replay";
+  private static final String READ_OUTPUT_PHASE = "reading process output";
+  private static final String ISSUES = "issues";
+  private static final String NOT_ANALYZED = "Not analyzed due to a previous error : ";
+  private static final Pattern INVALID_SOURCE_FILE = Pattern.compile("Invalid source file: (\\S+?)\\. Ensure");
   private final CheckFactory checkFactory;
 
   private ExecutableBundleFactory executableBundleFactory;
@@ -94,95 +122,553 @@ public class ExternalTypescriptSensor implements Sensor {
 
   @Override
   public void execute(SensorContext sensorContext) {
+    PerformanceReport report = new PerformanceReport("typescript");
     File deployDestination = sensorContext.fileSystem().workDir();
-    ExecutableBundle executableBundle = executableBundleFactory.createAndDeploy(deployDestination);
+    ExecutableBundle executableBundle;
+    TypeScriptRules typeScriptRules = new TypeScriptRules(checkFactory);
+    try (PerformanceReport.Timer timer = report.start("deploy")) {
+      executableBundle = executableBundleFactory.createAndDeploy(deployDestination, SonarUserHome.resolve(sensorContext.settings()), sensorContext.fileSystem().baseDir());
+      executableBundle.activateRules(typeScriptRules);
+    }
 
     FileSystem fileSystem = sensorContext.fileSystem();
     FilePredicate mainFilePredicate = sensorContext.fileSystem().predicates().and(
       fileSystem.predicates().hasType(InputFile.Type.MAIN),
       fileSystem.predicates().hasLanguage(TypeScriptLanguage.KEY));
-    Iterable<InputFile> inputFiles = fileSystem.inputFiles(mainFilePredicate);
+    List<InputFile> inputFiles = Lists.newArrayList(fileSystem.inputFiles(mainFilePredicate));
+    report.setFiles(inputFiles.size());
 
-    LOG.info("Metrics calculation");
-    runMetrics(inputFiles, sensorContext, executableBundle);
+    try (AnalysisContext analysis = new AnalysisContext(sensorContext, executableBundle, typeScriptRules, inputFiles, report)) {
+      if (sensorContext.settings().getBoolean(TypeScriptPlugin.DAEMON_KEY)) {
+        analyzeWithServer(analysis, inputFiles);
+      } else {
+        analyzeWithProcesses(analysis, inputFiles);
+      }
+      analysis.cache.logStatistics();
+      analysis.cache.prune();
+      analysis.issueIndex.logStatistics();
+      analysis.costModel.save();
+      report.setIssues(analysis.issueIndex.size());
+      report.write(fileSystem.workDir());
+    }
+  }
 
+  /**
+   * Metrics and rules are calculated concurrently by node processes, results are saved by this thread as soon as they are available
+   */
+  private void analyzeWithProcesses(AnalysisContext analysis, List<InputFile> inputFiles) {
+    LOG.info("Metrics calculation");
+    List<InputFile> measuredFiles = new ArrayList<>();
+    Set<InputFile> filesToMeasure = new LinkedHashSet<>();
+    inputFiles.forEach(inputFile -> (analysis.cache.hasMetrics(inputFile) ? measuredFiles : filesToMeasure).add(inputFile));
 
     LOG.info("Rules execution");
-    TypeScriptRules typeScriptRules = new TypeScriptRules(checkFactory);
-    executableBundle.activateRules(typeScriptRules);
-    runRules(inputFiles, executableBundle, sensorContext, typeScriptRules, deployDestination);
+    List<InputFile> filesWithoutTsconfig = new ArrayList<>();
+    Multimap<String, InputFile> inputFileByTsconfig;
+    try (PerformanceReport.Timer timer = analysis.report.start("tsconfig resolution")) {
+      inputFileByTsconfig = getInputFileByTsconfig(inputFiles, analysis.sensorContext.fileSystem().baseDir(), filesWithoutTsconfig::add);
+    }
+    Set<InputFile> measuredByRules = Collections.emptySet();
+    // only rules needing type information are worth the creation of a program per tsconfig.json
+    if (analysis.typeScriptRules.hasEnabledTypeAwareRules()) {
+      // with combined analysis, files analyzed by rules processes are measured by the same processes
+      boolean combined = analysis.sensorContext.settings().getBoolean(TypeScriptPlugin.COMBINED_ANALYSIS_KEY);
+      measuredByRules = submitRules(analysis, inputFileByTsconfig, combined ? filesToMeasure : Collections.emptySet());
+    }
+    submitSyntacticRules(analysis, inputFileByTsconfig, filesWithoutTsconfig);
+    filesToMeasure.removeAll(measuredByRules);
+    submitMetrics(analysis, new ArrayList<>(filesToMeasure));
+
+    // previous results are saved while processes are running for other files
+    List<InputFile> notReplayed = new ArrayList<>();
+    replayMetrics(analysis, measuredFiles, notReplayed);
+    analysis.saveQueue.defer(() -> submitMetrics(analysis, notReplayed));
 
+    analysis.saveQueue.drain();
+    analysis.report.addPhase("saving results", analysis.saveQueue.savingWallNanos(), analysis.saveQueue.savingCpuNanos());
   }
 
-  private void runRules(Iterable<InputFile> inputFiles, ExecutableBundle executableBundle, SensorContext sensorContext, TypeScriptRules typeScriptRules, File deployDestination) {
-    File projectBaseDir = sensorContext.fileSystem().baseDir();
+  private void submitSyntacticRules(AnalysisContext analysis, Multimap<String, InputFile> inputFileByTsconfig, List<InputFile> filesWithoutTsconfig) {
+    if (analysis.typeScriptRules.hasEnabledSyntacticRules()) {
+      // files without tsconfig.json are still analyzed with rules which do not need a program, using default compiler options
+      filesWithoutTsconfig.forEach(inputFile -> LOG.warn(noTsconfigMessage(inputFile) + " Only rules which do not need type information are run on this file."));
+      List<InputFile> syntacticFiles = new ArrayList<>(inputFileByTsconfig.values());
+      syntacticFiles.addAll(filesWithoutTsconfig);
+      submitSyntacticRules(analysis, syntacticFiles);
+    } else {
+      filesWithoutTsconfig.forEach(ExternalTypescriptSensor::logNotAnalyzedWithoutTsconfig);
+    }
+  }
 
-    Multimap<String, InputFile> inputFileByTsconfig = getInputFileByTsconfig(inputFiles, projectBaseDir);
+  /**
+   * Files are split in batches of at most {@link TypeScriptPlugin#MAX_FILES_PER_PROCESS_KEY} files, each one measured by its own process
+   */
+  private void submitMetrics(AnalysisContext analysis, List<InputFile> inputFiles) {
+    for (List<InputFile> batch : Lists.partition(inputFiles, analysis.maxFilesPerProcess)) {
+      analysis.saveQueue.submit(analysis.metricsExecutor, publisher -> runMetricsProcessWithRetry(analysis, batch, metricsSaver(analysis, publisher)));
+    }
+  }
 
-    for (String tsconfigPath : inputFileByTsconfig.keySet()) {
+  /**
+   * Returns consumer of metrics calculated on another thread, caching them and publishing their save
+   */
+  private Consumer<TsMetricsPerFileResponse> metricsSaver(AnalysisContext analysis, Consumer<Runnable> publisher) {
+    Gson gson = new Gson();
+    return tsMetricsPerFileResponse -> {
+      analysis.cache.writeMetrics(tsMetricsPerFileResponse.filepath, gson.toJson(tsMetricsPerFileResponse));
+      publisher.accept(() -> saveMetricsResponse(analysis, tsMetricsPerFileResponse));
+    };
+  }
+
+  /**
+   * Saves cached metrics once the save queue is drained, files for which they could not be read are added to {@code notReplayed}
+   */
+  private void replayMetrics(AnalysisContext analysis, List<InputFile> inputFiles, List<InputFile> notReplayed) {
+    Gson gson = new Gson();
+    for (InputFile inputFile : inputFiles) {
+      replay(analysis, () -> {
+        String json = analysis.cache.readMetrics(inputFile);
+        if (json == null) {
+          notReplayed.add(inputFile);
+        } else {
+          saveMetricsResponse(analysis.sensorContext, gson.fromJson(json, TsMetricsPerFileResponse.class), inputFile);
+        }
+      });
+    }
+  }
+
+  /**
+   * Saves cached failures of each file once the save queue is drained
+   */
+  private void replayFailures(AnalysisContext analysis, Collection<InputFile> inputFiles, List<String> cachedFailures) {
+    Iterator<String> jsons = cachedFailures.iterator();
+    for (InputFile inputFile : inputFiles) {
+      String json = jsons.next();
+      replay(analysis, () -> saveCachedFailures(analysis, inputFile, json));
+    }
+  }
+
+  private void saveCachedFailures(AnalysisContext analysis, InputFile inputFile, String json) {
+    Failure[] failures = new Gson().fromJson(json, Failure[].class);
+    try (AnalysisEvents.Span span = AnalysisEvents.save(ISSUES, inputFile.absolutePath(), failures.length)) {
+      for (Failure failure : failures) {
+        saveFailure(analysis, failure, inputFile);
+      }
+    }
+  }
+
+  /**
+   * Cached results are saved by the sensor thread one file at a time, in between results published by processes (see {@link SaveQueue#defer}),
+   * so that processes are not blocked on a full save queue, and their output pipe, while cached results are saved
+   */
+  private static void replay(AnalysisContext analysis, Runnable action) {
+    analysis.saveQueue.defer(() -> {
+      try (PerformanceReport.Timer timer = analysis.report.start(CACHE_REPLAY_PHASE)) {
+        action.run();
+      }
+    });
+  }
+
+  private static void writeFailures(AnalysisCache cache, String failuresKey, Collection<InputFile> inputFiles, Map<String, List<Failure>> failuresByFile) {
+    Gson gson = new Gson();
+    for (InputFile inputFile : inputFiles) {
+      cache.writeFailures(failuresKey, inputFile, gson.toJson(failuresByFile.getOrDefault(inputFile.absolutePath(), Collections.emptyList())));
+    }
+  }
+
+  /**
+   * Same as per-process analysis, but metrics and rules which need type information are calculated by a single node process,
+   * which keeps rules configuration and parsed declaration files between tsconfig.json files. Rules which do not need type information
+   * are still run by separate processes on all files, including files without tsconfig.json, concurrently with the server.
+   * Files the server fails to analyze, and all remaining files once it stops answering (e.g. killed after {@link TypeScriptPlugin#PROCESS_TIMEOUT_KEY}),
+   * are analyzed by separate processes.
+   */
+  private void analyzeWithServer(AnalysisContext analysis, List<InputFile> inputFiles) {
+    AnalysisCache cache = analysis.cache;
+    try (SonarTSServer server = startServer(analysis, inputFiles);
+      PerformanceReport.Timer timer = analysis.report.start("server analysis")) {
+      LOG.info("Metrics calculation");
+      List<InputFile> measuredFiles = new ArrayList<>();
+      List<InputFile> filesToMeasure = new ArrayList<>();
+      inputFiles.forEach(inputFile -> (cache.hasMetrics(inputFile) ? measuredFiles : filesToMeasure).add(inputFile));
+
+      LOG.info("Rules execution");
+      List<InputFile> filesWithoutTsconfig = new ArrayList<>();
+      Multimap<String, InputFile> inputFileByTsconfig;
+      try (PerformanceReport.Timer resolutionTimer = analysis.report.start("tsconfig resolution")) {
+        inputFileByTsconfig = getInputFileByTsconfig(inputFiles, analysis.sensorContext.fileSystem().baseDir(), filesWithoutTsconfig::add);
+      }
+      Map<String, String> failuresKeyByTsconfig = analysis.typeScriptRules.hasEnabledTypeAwareRules()
+        ? replayCachedFailures(analysis, inputFileByTsconfig)
+        : Collections.emptyMap();
+      // requests are sent one at a time from an executor thread, while the sensor thread saves results
+      analysis.saveQueue.submit(analysis.metricsExecutor,
+        publisher -> runServerRequests(analysis, server, filesToMeasure, inputFileByTsconfig, failuresKeyByTsconfig, publisher));
+      submitSyntacticRules(analysis, inputFileByTsconfig, filesWithoutTsconfig);
+
+      List<InputFile> notReplayed = new ArrayList<>();
+      replayMetrics(analysis, measuredFiles, notReplayed);
+      analysis.saveQueue.defer(() -> submitMetrics(analysis, notReplayed));
+
+      analysis.saveQueue.drain();
+      analysis.report.addPhase("saving results", analysis.saveQueue.savingWallNanos(), analysis.saveQueue.savingCpuNanos());
+    }
+  }
+
+  /**
+   * The server is started within the memory of the analysis like other node processes, with a heap sized for all files, as it keeps
+   * declaration files between tsconfig.json files. It is not killed after {@link TypeScriptPlugin#PROCESS_TIMEOUT_KEY}, which applies to each request instead.
+   */
+  private static SonarTSServer startServer(AnalysisContext analysis, List<InputFile> inputFiles) {
+    Command command = analysis.executableBundle.getTsServerCommand();
+    String commandLine = command.toCommandLine();
+    LOG.debug(String.format("Starting SonarTS server `%s`", commandLine));
+    int heapMb = analysis.nodeHeap.sizeFor(inputFiles);
+    try {
+      ExternalProcess process = analysis.scheduler.startLongLived(command, SERVER_SCOPE, heapMb, NodeHeap.expectedMb(heapMb));
+      return new SonarTSServer(commandLine, process, analysis.processTimeoutSeconds);
+    } catch (IOException e) {
+      throw new IllegalStateException(String.format("Failed to start SonarTS server `%s`", commandLine), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(String.format("Interrupted while starting SonarTS server `%s`", commandLine), e);
+    }
+  }
+
+  /**
+   * Files are sent to the server in batches of at most {@link TypeScriptPlugin#MAX_FILES_PER_PROCESS_KEY} files, like to separate processes.
+   * Files the server does not analyze are analyzed by separate processes, submitted from the sensor thread through {@code publisher}
+   */
+  private void runServerRequests(AnalysisContext analysis, SonarTSServer server, List<InputFile> filesToMeasure, Multimap<String, InputFile> inputFileByTsconfig,
+    Map<String, String> failuresKeyByTsconfig, Consumer<Runnable> publisher) {
+    List<InputFile> notMeasured = new ArrayList<>();
+    for (List<InputFile> batch : Iterables.partition(filesToMeasure, analysis.maxFilesPerProcess)) {
+      if (server.isAlive()) {
+        notMeasured.addAll(requestMetrics(analysis, server, batch, publisher));
+      } else {
+        notMeasured.addAll(batch);
+      }
+    }
+    if (!notMeasured.isEmpty()) {
+      publisher.accept(() -> submitMetrics(analysis, notMeasured));
+    }
+    for (Map.Entry<String, String> failuresKeyOfTsconfig : failuresKeyByTsconfig.entrySet()) {
+      String tsconfigPath = failuresKeyOfTsconfig.getKey();
+      String failuresKey = failuresKeyOfTsconfig.getValue();
+      for (List<InputFile> batch : Iterables.partition(inputFileByTsconfig.get(tsconfigPath), analysis.maxFilesPerProcess)) {
+        if (!server.isAlive() || !requestLint(analysis, server, tsconfigPath, failuresKey, batch, publisher)) {
+          // split in smaller batches until the failing file is isolated, issues reported by the server before it failed are not saved twice
+          publisher.accept(() -> analysis.saveQueue.submit(analysis.rulesExecutor,
+            rulesPublisher -> runRules(analysis, tsconfigPath, failuresKey, batch, Collections.emptyList(), rulesPublisher)));
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns files which are not measured, when the server fails or stops before answering for all files
+   */
+  private List<InputFile> requestMetrics(AnalysisContext analysis, SonarTSServer server, List<InputFile> filesToMeasure, Consumer<Runnable> publisher) {
+    List<String> filepaths = filesToMeasure.stream().map(InputFile::absolutePath).collect(Collectors.toList());
+    Set<String> measuredPaths = new HashSet<>();
+    Consumer<TsMetricsPerFileResponse> metricsSaver = metricsSaver(analysis, publisher);
+    try (JsonReader metricsResponse = new JsonReader(server.metrics(filepaths))) {
+      if (metricsResponse.peek() == JsonToken.BEGIN_ARRAY) {
+        readMetricsResponses(metricsResponse, tsMetricsPerFileResponse -> {
+          measuredPaths.add(tsMetricsPerFileResponse.filepath);
+          metricsSaver.accept(tsMetricsPerFileResponse);
+        });
+        analysis.report.addResults(METRICS_SCOPE, measuredPaths.size(), 0);
+      } else {
+        LOG.error(String.format("SonarTS server failed to calculate metrics: %s, files are measured by separate processes", serverError(new JsonParser().parse(metricsResponse))));
+      }
+    } catch (IOException | JsonParseException e) {
+      LOG.error("SonarTS server stopped while calculating metrics, remaining files are measured by separate processes", e);
+    }
+    return filesToMeasure.stream().filter(inputFile -> !measuredPaths.contains(inputFile.absolutePath())).collect(Collectors.toList());
+  }
+
+  /**
+   * Returns false when the server fails to analyze the batch or stops before the end of its response.
+   * Files reported as not analyzed by the server (e.g. excluded from the tsconfig.json) are not analyzed again.
+   */
+  private boolean requestLint(AnalysisContext analysis, SonarTSServer server, String tsconfigPath, String failuresKey, List<InputFile> batch, Consumer<Runnable> publisher) {
+    LOG.info(String.format("Running rule analysis for `%s` with %s files", tsconfigPath, batch.size()));
+    try (JsonReader lintResponse = new JsonReader(server.lint(tsconfigPath, batch))) {
+      if (lintResponse.peek() != JsonToken.BEGIN_ARRAY) {
+        LOG.error(String.format("SonarTS server failed to analyze `%s`: %s, its files are analyzed by separate processes", tsconfigPath,
+          serverError(new JsonParser().parse(lintResponse))));
+        return false;
+      }
+      Map<String, List<Failure>> failuresByFile = new HashMap<>();
+      Set<String> invalidPaths = new HashSet<>();
+      Gson gson = new Gson();
+      readRecords(lintResponse, reader -> readRecord(reader, gson, failure -> {
+        failuresByFile.computeIfAbsent(failure.name, name -> new ArrayList<>()).add(failure);
+        publisher.accept(() -> saveFailure(analysis, failure));
+      }, tsMetricsPerFileResponse -> {
+        // not requested
+      }, invalidPaths::add));
+      List<InputFile> invalidFiles = batch.stream().filter(inputFile -> invalidPaths.contains(inputFile.absolutePath())).collect(Collectors.toList());
+      invalidFiles.forEach(inputFile -> LOG.error(NOT_ANALYZED + inputFile.absolutePath()));
+      analysis.report.addResults(tsconfigPath, batch.size() - invalidFiles.size(), failuresCount(failuresByFile));
+      if (invalidFiles.isEmpty()) {
+        writeFailures(analysis.cache, failuresKey, batch, failuresByFile);
+      }
+      return true;
+    } catch (IOException | JsonParseException e) {
+      LOG.error(String.format("SonarTS server stopped while analyzing `%s`, remaining files are analyzed by separate processes", tsconfigPath), e);
+      return false;
+    }
+  }
+
+  private static String serverError(JsonElement response) {
+    if (response.isJsonObject() && response.getAsJsonObject().has("error")) {
+      return response.getAsJsonObject().get("error").getAsString();
+    }
+    return "unexpected response " + response;
+  }
+
+  /**
+   * tslint processes running rules which need type information for different tsconfig.json files are run concurrently by rules executor threads,
+   * while their results are saved by the sensor thread, as {@link SensorContext} is not meant to be shared between threads.
+   * Files of a tsconfig.json are split in batches of at most {@link TypeScriptPlugin#MAX_FILES_PER_PROCESS_KEY} files, each one analyzed by its own process,
+   * so that node memory stays bounded on big projects.
+   * Metrics of {@code filesToMeasure} are calculated by the same process as their rules, with the same program (see {@link ExecutableBundle#getAnalyzeCommand}),
+   * returns the files which are measured this way.
+   */
+  private Set<InputFile> submitRules(AnalysisContext analysis, Multimap<String, InputFile> inputFileByTsconfig, Set<InputFile> filesToMeasure) {
+    Set<InputFile> measuredByRules = new HashSet<>();
+    Map<String, String> failuresKeyByTsconfig = replayCachedFailures(analysis, inputFileByTsconfig);
+
+    // tsconfig.json files expected to take longer are started first
+    Map<String, Collection<InputFile>> inputFilesToAnalyze = Maps.filterKeys(inputFileByTsconfig.asMap(), failuresKeyByTsconfig::containsKey);
+    for (String tsconfigPath : analysis.costModel.longestFirst(inputFilesToAnalyze, analysis.workers)) {
       Collection<InputFile> inputFilesForThisConfig = inputFileByTsconfig.get(tsconfigPath);
+      String failuresKey = failuresKeyByTsconfig.get(tsconfigPath);
+      for (List<InputFile> batch : Iterables.partition(inputFilesForThisConfig, analysis.maxFilesPerProcess)) {
+        List<InputFile> batchFilesToMeasure = batch.stream().filter(filesToMeasure::contains).collect(Collectors.toList());
+        measuredByRules.addAll(batchFilesToMeasure);
+        analysis.saveQueue.submit(analysis.rulesExecutor, publisher -> runRules(analysis, tsconfigPath, failuresKey, batch, batchFilesToMeasure, publisher));
+      }
+    }
+    return measuredByRules;
+  }
 
-      Command command = executableBundle.getTslintCommand(tsconfigPath, inputFilesForThisConfig);
-      Failure[] failures = runRulesProcess(command, deployDestination, inputFilesForThisConfig);
-      saveFailures(sensorContext, failures, typeScriptRules);
+  /**
+   * Replays cached failures of tsconfig.json files whose files did not change, while processes are running for the others.
+   * Returns the failures key of the tsconfig.json files to analyze, in the order of {@code inputFileByTsconfig}.
+   */
+  private Map<String, String> replayCachedFailures(AnalysisContext analysis, Multimap<String, InputFile> inputFileByTsconfig) {
+    AnalysisCache cache = analysis.cache;
+    Map<String, String> failuresKeyByTsconfig = new LinkedHashMap<>();
+    for (String tsconfigPath : inputFileByTsconfig.keySet()) {
+      Collection<InputFile> inputFilesForThisConfig = inputFileByTsconfig.get(tsconfigPath);
+      String failuresKey = cache.failuresKey(tsconfigPath, inputFilesForThisConfig);
+      List<String> cachedFailures = cache.readFailures(failuresKey, inputFilesForThisConfig);
+      if (cachedFailures == null) {
+        failuresKeyByTsconfig.put(tsconfigPath, failuresKey);
+      } else {
+        replayFailures(analysis, inputFilesForThisConfig, cachedFailures);
+      }
     }
+    return failuresKeyByTsconfig;
   }
 
-  private static Multimap<String, InputFile> getInputFileByTsconfig(Iterable<InputFile> inputFiles, File projectBaseDir) {
-    Multimap<String, InputFile> inputFileByTsconfig = ArrayListMultimap.create();
+  /**
+   * Runs rules needing type information on a batch of files of a tsconfig.json, on a rules executor thread
+   */
+  private void runRules(AnalysisContext analysis, String tsconfigPath, String failuresKey, List<InputFile> batch, List<InputFile> batchFilesToMeasure,
+    Consumer<Runnable> publisher) {
+    ExecutableBundle executableBundle = analysis.executableBundle;
+    Set<String> measuredPaths = new HashSet<>();
+    Function<List<InputFile>, Command> commandFactory = files -> {
+      // files analyzed again after a failure are not measured twice
+      List<InputFile> toMeasure = files.stream()
+        .filter(inputFile -> batchFilesToMeasure.contains(inputFile) && !measuredPaths.contains(inputFile.absolutePath()))
+        .collect(Collectors.toList());
+      return toMeasure.isEmpty() ? executableBundle.getTslintCommand(tsconfigPath, files) : executableBundle.getAnalyzeCommand(tsconfigPath, files, toMeasure);
+    };
+    Map<String, List<Failure>> failuresByFile = new HashMap<>();
+    Consumer<Failure> failureConsumer = failure -> {
+      failuresByFile.computeIfAbsent(failure.name, name -> new ArrayList<>()).add(failure);
+      publisher.accept(() -> saveFailure(analysis, failure));
+    };
+    Consumer<TsMetricsPerFileResponse> metricsSaver = metricsSaver(analysis, publisher);
+    Consumer<TsMetricsPerFileResponse> metricsConsumer = batchFilesToMeasure.isEmpty() ? null : tsMetricsPerFileResponse -> {
+      measuredPaths.add(tsMetricsPerFileResponse.filepath);
+      metricsSaver.accept(tsMetricsPerFileResponse);
+    };
+    AtomicLong processNanos = new AtomicLong();
+    List<InputFile> analyzedFiles = runRulesProcessWithRetry(analysis, commandFactory, tsconfigPath, batch, failureConsumer, metricsConsumer, processNanos);
+    // waiting for the memory to start processes depends on other tsconfig.json files, only the time processes ran is a cost of this one
+    analysis.costModel.record(tsconfigPath, TimeUnit.NANOSECONDS.toMillis(processNanos.get()), batch);
+    analysis.report.addResults(tsconfigPath, analyzedFiles.size(), failuresCount(failuresByFile));
+    if (analyzedFiles.size() == batch.size()) {
+      writeFailures(analysis.cache, failuresKey, batch, failuresByFile);
+    }
+    // metrics do not depend on rules, files the process did not measure are measured on their own
+    List<InputFile> notMeasured = batchFilesToMeasure.stream().filter(inputFile -> !measuredPaths.contains(inputFile.absolutePath())).collect(Collectors.toList());
+    if (!notMeasured.isEmpty()) {
+      runMetricsProcessWithRetry(analysis, notMeasured, metricsSaver);
+    }
+  }
 
+  /**
+   * Rules which do not need type information are run without program, each file being parsed on its own:
+   * files are spread over all rules executor threads and results are cached per file.
+   */
+  private void submitSyntacticRules(AnalysisContext analysis, Collection<InputFile> inputFiles) {
+    AnalysisCache cache = analysis.cache;
+    List<InputFile> analyzedFiles = new ArrayList<>();
+    List<String> cachedFailures = new ArrayList<>();
+    List<InputFile> filesToAnalyze = new ArrayList<>();
     for (InputFile inputFile : inputFiles) {
-      File tsConfig = findTsConfig(inputFile, projectBaseDir);
-      if (tsConfig == null) {
-        LOG.error("No tsconfig.json file found for " + inputFile.absolutePath() + " (looking up the directories tree). This file will not be analyzed.");
+      String json = cache.readSyntacticFailures(inputFile);
+      if (json == null) {
+        filesToAnalyze.add(inputFile);
       } else {
-        inputFileByTsconfig.put(tsConfig.getAbsolutePath(), inputFile);
+        analyzedFiles.add(inputFile);
+        cachedFailures.add(json);
       }
     }
-    return inputFileByTsconfig;
+
+    int filesPerWorker = (filesToAnalyze.size() + analysis.workers - 1) / analysis.workers;
+    int batchSize = Math.max(1, Math.min(filesPerWorker, analysis.maxFilesPerProcess));
+    for (List<InputFile> batch : Lists.partition(filesToAnalyze, batchSize)) {
+      analysis.saveQueue.submit(analysis.rulesExecutor, publisher -> {
+        Map<String, List<Failure>> failuresByFile = new HashMap<>();
+        List<InputFile> analyzedBatchFiles = runRulesProcessWithRetry(analysis, analysis.executableBundle::getSyntacticTslintCommand, SYNTACTIC_RULES_SCOPE, batch,
+          failure -> {
+            failuresByFile.computeIfAbsent(failure.name, name -> new ArrayList<>()).add(failure);
+            publisher.accept(() -> saveFailure(analysis, failure));
+          }, null, new AtomicLong());
+        analysis.report.addResults(SYNTACTIC_RULES_SCOPE, analyzedBatchFiles.size(), failuresCount(failuresByFile));
+        Gson gson = new Gson();
+        for (InputFile inputFile : analyzedBatchFiles) {
+          cache.writeSyntacticFailures(inputFile, gson.toJson(failuresByFile.getOrDefault(inputFile.absolutePath(), Collections.emptyList())));
+        }
+      });
+    }
+
+    // previous results are saved while processes are running for other files
+    replayFailures(analysis, analyzedFiles, cachedFailures);
+  }
+
+  private static int failuresCount(Map<String, List<Failure>> failuresByFile) {
+    return failuresByFile.values().stream().mapToInt(List::size).sum();
   }
 
-  @Nullable
-  private static File findTsConfig(InputFile inputFile, File projectBaseDir) {
-    File currentDirectory = inputFile.file();
-    do {
-      currentDirectory = currentDirectory.getParentFile();
-      File tsconfig = new File(currentDirectory, "tsconfig.json");
-      if (tsconfig.exists()) {
-        return tsconfig;
+  /**
+   * Plans the programs to create: a file included by several tsconfig files (e.g. "src/tsconfig.json" and "src/app/tsconfig.spec.json")
+   * is analyzed with the preferred one only (see {@link TsConfigResolver#tsConfigsOf}). It is still part of the programs of the other ones,
+   * which need it for type information, but rules are not run on it there, and no program is created for a tsconfig file all files of which are analyzed with another one.
+   * Files for which no tsconfig.json is found are passed to {@code withoutTsconfig}
+   */
+  private static Multimap<String, InputFile> getInputFileByTsconfig(Collection<InputFile> inputFiles, File projectBaseDir, Consumer<InputFile> withoutTsconfig) {
+    Multimap<String, InputFile> inputFileByTsconfig = ArrayListMultimap.create();
+    int overlappingFiles = 0;
+
+    try (AnalysisEvents.Span span = AnalysisEvents.tsconfigResolution(inputFiles.size())) {
+      TsConfigResolver tsConfigResolver = new TsConfigResolver(projectBaseDir);
+      for (InputFile inputFile : inputFiles) {
+        List<File> tsConfigs = tsConfigResolver.tsConfigsOf(inputFile.file());
+        if (tsConfigs.isEmpty()) {
+          withoutTsconfig.accept(inputFile);
+          continue;
+        }
+        String tsConfig = tsConfigs.get(0).getAbsolutePath();
+        inputFileByTsconfig.put(tsConfig, inputFile);
+        if (tsConfigs.size() > 1) {
+          overlappingFiles++;
+          LOG.debug(String.format("%s is included by %d tsconfig files, it is analyzed with `%s`", inputFile.absolutePath(), tsConfigs.size(), tsConfig));
+        }
       }
-    } while (!currentDirectory.getAbsolutePath().equals(projectBaseDir.getAbsolutePath()));
-    return null;
+    }
+    if (overlappingFiles > 0) {
+      LOG.info(String.format("%d files are included by several tsconfig files, each one is analyzed with a single tsconfig file", overlappingFiles));
+    }
+    return inputFileByTsconfig;
+  }
+
+  private static void logNotAnalyzedWithoutTsconfig(InputFile inputFile) {
+    LOG.error(noTsconfigMessage(inputFile) + " This file will not be analyzed.");
+  }
+
+  private static String noTsconfigMessage(InputFile inputFile) {
+    return "No tsconfig.json file found for " + inputFile.absolutePath() + " (looking up the directories tree).";
   }
 
-  private void runMetrics(Iterable<InputFile> inputFiles, SensorContext sensorContext, ExecutableBundle executableBundle) {
+  private void saveMetricsResponse(AnalysisContext analysis, TsMetricsPerFileResponse tsMetricsPerFileResponse) {
+    InputFile inputFile = analysis.inputFileIndex.get(tsMetricsPerFileResponse.filepath);
+    if (inputFile != null) {
+      saveMetricsResponse(analysis.sensorContext, tsMetricsPerFileResponse, inputFile);
+    } else {
+      LOG.error("Failed to find input file for path `" + tsMetricsPerFileResponse.filepath + "`");
+    }
+  }
 
-    TsMetricsPerFileResponse[] tsMetricsPerFileResponses = runMetricsProcess(executableBundle, inputFiles);
+  private void saveMetricsResponse(SensorContext sensorContext, TsMetricsPerFileResponse tsMetricsPerFileResponse, InputFile inputFile) {
+    saveHighlights(sensorContext, tsMetricsPerFileResponse.highlights, inputFile);
+    saveMetrics(sensorContext, tsMetricsPerFileResponse, inputFile);
+    saveCpd(sensorContext, tsMetricsPerFileResponse.cpdTokens, inputFile);
+  }
 
-    for (TsMetricsPerFileResponse tsMetricsPerFileResponse : tsMetricsPerFileResponses) {
-      FileSystem fileSystem = sensorContext.fileSystem();
-      InputFile inputFile = fileSystem.inputFile(fileSystem.predicates().hasAbsolutePath(tsMetricsPerFileResponse.filepath));
-      if (inputFile != null) {
-        saveHighlights(sensorContext, tsMetricsPerFileResponse.highlights, inputFile);
-        saveMetrics(sensorContext, tsMetricsPerFileResponse, inputFile);
-        saveCpd(sensorContext, tsMetricsPerFileResponse.cpdTokens, inputFile);
+  /**
+   * When node runs out of memory, files which are not measured yet are measured again in smaller batches or with a higher heap,
+   * the same way as rules (see {@link #runRulesProcessWithRetry}).
+   */
+  private static void runMetricsProcessWithRetry(AnalysisContext analysis, List<InputFile> inputFiles, Consumer<TsMetricsPerFileResponse> consumer) {
+    int bisectionSteps = 32 - Integer.numberOfLeadingZeros(inputFiles.size());
+    AtomicInteger retries = new AtomicInteger(2 * bisectionSteps + 1);
+    runMetricsProcessWithRetry(analysis, inputFiles, consumer, analysis.nodeHeap.sizeFor(inputFiles), retries);
+  }
+
+  private static void runMetricsProcessWithRetry(AnalysisContext analysis, List<InputFile> inputFiles, Consumer<TsMetricsPerFileResponse> consumer, int heapMb,
+    AtomicInteger retries) {
+    Set<String> measuredPaths = new HashSet<>();
+    boolean outOfMemory = runMetricsProcess(analysis, inputFiles, tsMetricsPerFileResponse -> {
+      measuredPaths.add(tsMetricsPerFileResponse.filepath);
+      consumer.accept(tsMetricsPerFileResponse);
+    }, heapMb);
+    if (!outOfMemory) {
+      return;
+    }
+    List<InputFile> remainingFiles = inputFiles.stream().filter(inputFile -> !measuredPaths.contains(inputFile.absolutePath())).collect(Collectors.toList());
+    if (remainingFiles.isEmpty()) {
+      return;
+    }
+    int retryHeapMb = analysis.nodeHeap.raise(heapMb);
+    List<List<InputFile>> retriedFiles = retriesAfterOutOfMemory(remainingFiles, METRICS_SCOPE, heapMb, retryHeapMb, retries);
+    if (retriedFiles.isEmpty()) {
+      logMissingMetrics(remainingFiles);
+    }
+    for (List<InputFile> files : retriedFiles) {
+      if (retries.getAndDecrement() > 0) {
+        runMetricsProcessWithRetry(analysis, files, consumer, retryHeapMb, retries);
       } else {
-        LOG.error("Failed to find input file for path `" + tsMetricsPerFileResponse.filepath + "`");
+        logMissingMetrics(files);
       }
     }
   }
 
+  private static void logMissingMetrics(List<InputFile> inputFiles) {
+    LOG.error(String.format("Metrics of %d files are missing, run with -X for more information", inputFiles.size()));
+  }
 
-  private static TsMetricsPerFileResponse[] runMetricsProcess(ExecutableBundle executableBundle, Iterable<InputFile> inputFiles) {
-    Command sonarCommand = executableBundle.getTsMetricsCommand();
-    List<String> commandComponents = decomposeToComponents(sonarCommand);
+  /**
+   * Responses are decoded and passed to {@code consumer} one file at a time, so that the whole response is never kept in memory.
+   * Returns true when node ran out of memory, in which case the metrics which are missing are left to the caller.
+   */
+  private static boolean runMetricsProcess(AnalysisContext analysis, Collection<InputFile> inputFiles, Consumer<TsMetricsPerFileResponse> consumer, int heapMb) {
+    Command sonarCommand = analysis.executableBundle.getTsMetricsCommand(analysis.binaryMetrics);
     String commandLine = sonarCommand.toCommandLine();
-    ProcessBuilder processBuilder = new ProcessBuilder(commandComponents);
     String[] filepaths = Iterables.toArray(Iterables.transform(inputFiles, InputFile::absolutePath), String.class);
     LOG.debug(String.format("Starting external process `%s` with %d files", commandLine, filepaths.length));
-    InputStreamReader inputStreamReader;
+    ExternalProcess process;
+    BufferedInputStream processOutput;
     try {
-      Process process = processBuilder.start();
+      process = analysis.scheduler.start(sonarCommand, METRICS_SCOPE, heapMb, NodeHeap.expectedMb(heapMb));
       OutputStreamWriter writerToSonar = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
 
       TsMetricsRequest requestToSonar = new TsMetricsRequest(filepaths);
@@ -190,68 +676,333 @@ public class ExternalTypescriptSensor implements Sensor {
       writerToSonar.write(json);
       writerToSonar.close();
 
-      inputStreamReader = new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8);
+      processOutput = new BufferedInputStream(process.getInputStream());
 
     } catch (Exception e) {
       LOG.error(String.format("Failed to run external process `%s`. As a result, NO METRICS WERE GENERATED, run with -X for more information", commandLine), e);
-      return new TsMetricsPerFileResponse[0];
+      return false;
+    }
+
+    String incompleteResponse = null;
+    // the response of a process which is killed or runs out of memory may be truncated anywhere
+    Exception readFailure = null;
+    try (PerformanceReport.Timer timer = analysis.report.start(READ_OUTPUT_PHASE); AnalysisEvents.Span span = AnalysisEvents.jsonDecode(METRICS_SCOPE)) {
+      incompleteResponse = readMetricsOutput(processOutput, commandLine, consumer);
+    } catch (IOException | JsonParseException e) {
+      readFailure = e;
+    }
+    try {
+      process.waitFor();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(String.format("Interrupted while waiting for external process `%s`", commandLine), e);
+    }
+    String errors = process.errors();
+    if (!errors.isEmpty()) {
+      LOG.debug(errors);
+    }
+    if (process.isKilled()) {
+      LOG.error(String.format("Metrics of %d files may be missing, run with -X for more information", filepaths.length));
+    } else if (NodeHeap.isOutOfMemory(errors)) {
+      return true;
+    } else if (readFailure != null) {
+      throw new IllegalStateException(String.format("Failed to read response of external process `%s`", commandLine), readFailure);
+    } else {
+      if (incompleteResponse != null) {
+        LOG.error(incompleteResponse);
+      }
+      analysis.report.addResults(METRICS_SCOPE, filepaths.length, 0);
+    }
+    return false;
+  }
+
+  /**
+   * Returns the error to log when the response ends before it is complete, once it is known that node did not run out of memory
+   */
+  @CheckForNull
+  private static String readMetricsOutput(BufferedInputStream processOutput, String commandLine, Consumer<TsMetricsPerFileResponse> consumer) throws IOException {
+    // the process may not support binary encoding, in which case it answers with JSON
+    if (BinaryMetricsReader.isBinary(processOutput)) {
+      try (DataInputStream binaryResponse = new DataInputStream(processOutput)) {
+        BinaryMetricsReader.read(binaryResponse, consumer);
+      } catch (EOFException e) {
+        return String.format("External process `%s` stopped before the end of its response. Metrics of some files are missing, run with -X for more information", commandLine);
+      }
+      return null;
     }
 
-    TsMetricsPerFileResponse[] responses = new Gson().fromJson(inputStreamReader, TsMetricsPerFileResponse[].class);
-    if (responses == null) {
-      LOG.error(String.format("External process `%s` returned an empty response. As a result, NO METRICS WERE GENERATED, run with -X for more information", commandLine));
+    try (JsonReader jsonReader = new JsonReader(new InputStreamReader(processOutput, StandardCharsets.UTF_8))) {
+      jsonReader.peek();
+      readMetricsResponses(jsonReader, consumer);
+
+    } catch (EOFException e) {
+      return String.format("External process `%s` returned an empty response. As a result, NO METRICS WERE GENERATED, run with -X for more information", commandLine);
+    }
+    return null;
+  }
 
-      return new TsMetricsPerFileResponse[0];
+  private static void readMetricsResponses(JsonReader jsonReader, Consumer<TsMetricsPerFileResponse> consumer) throws IOException {
+    Gson gson = new Gson();
+    jsonReader.beginArray();
+    while (jsonReader.hasNext()) {
+      consumer.accept(gson.fromJson(jsonReader, TsMetricsPerFileResponse.class));
     }
-    return responses;
+    jsonReader.endArray();
+  }
+
+  /**
+   * Runs rules on {@code inputFiles}, then analyzes again files which are not analyzed when the process fails: files with failures in its output
+   * are analyzed, as failures are written file by file, the others are analyzed again. Files reported as invalid by the process are left out or,
+   * when the failure is not attributed to any file, files are split in halves until it is isolated.
+   * When node runs out of memory, files are split in halves and analyzed again with a higher heap, as long as {@link NodeHeap} allows it.
+   * The number of processes started for retries is bounded, so that a failure unrelated to files (e.g. invalid tsconfig.json) does not make the analysis much longer.
+   * Returns files which were completely analyzed, the time processes ran is added to {@code processNanos}.
+   */
+  private static List<InputFile> runRulesProcessWithRetry(AnalysisContext analysis, Function<List<InputFile>, Command> commandFactory, String scope, List<InputFile> inputFiles,
+    Consumer<Failure> consumer, @Nullable Consumer<TsMetricsPerFileResponse> metricsConsumer, AtomicLong processNanos) {
+    int bisectionSteps = 32 - Integer.numberOfLeadingZeros(inputFiles.size());
+    AtomicInteger retries = new AtomicInteger(2 * bisectionSteps + 1);
+    return runRulesProcessWithRetry(analysis, commandFactory, scope, inputFiles, consumer, metricsConsumer, analysis.nodeHeap.sizeFor(inputFiles), retries, processNanos);
+  }
 
+  private static List<InputFile> runRulesProcessWithRetry(AnalysisContext analysis, Function<List<InputFile>, Command> commandFactory, String scope, List<InputFile> inputFiles,
+    Consumer<Failure> consumer, @Nullable Consumer<TsMetricsPerFileResponse> metricsConsumer, int heapMb, AtomicInteger retries, AtomicLong processNanos) {
+    Set<String> reportedPaths = new HashSet<>();
+    Consumer<Failure> reportingConsumer = failure -> {
+      reportedPaths.add(failure.name);
+      consumer.accept(failure);
+    };
+    RulesProcessResult result = runRulesProcess(analysis, commandFactory.apply(inputFiles), scope, inputFiles, reportingConsumer, metricsConsumer, heapMb, processNanos);
+    if (result.complete) {
+      return inputFiles;
+    }
+    if (result.killed) {
+      // analyzing the same files again would most likely take as long
+      LOG.error(String.format("Results for `%s` may be incomplete, %d files were not completely analyzed", scope, inputFiles.size()));
+      return Collections.emptyList();
+    }
+    List<InputFile> analyzedFiles = new ArrayList<>();
+    List<InputFile> remainingFiles = new ArrayList<>();
+    inputFiles.forEach(inputFile -> (reportedPaths.contains(inputFile.absolutePath()) ? analyzedFiles : remainingFiles).add(inputFile));
+    if (!result.emptyOutput) {
+      // files without failures in the output may not have been analyzed, failures reported twice by retries are saved once by the issue index
+      LOG.debug(result.errors);
+      if (remainingFiles.isEmpty()) {
+        return analyzedFiles;
+      }
+      LOG.info(String.format("Analyzing again %d files of `%s` without results", remainingFiles.size(), scope));
+    }
+    List<InputFile> invalidFiles = remainingFiles.stream().filter(inputFile -> result.invalidFiles.contains(inputFile.absolutePath())).collect(Collectors.toList());
+    boolean outOfMemory = NodeHeap.isOutOfMemory(result.errors);
+
+    List<List<InputFile>> retriedFiles;
+    int retryHeapMb = heapMb;
+    if (outOfMemory) {
+      retryHeapMb = analysis.nodeHeap.raise(heapMb);
+      retriedFiles = retriesAfterOutOfMemory(remainingFiles, scope, heapMb, retryHeapMb, retries);
+      if (retriedFiles.isEmpty()) {
+        logNotAnalyzed(result.errors, remainingFiles);
+        return analyzedFiles;
+      }
+    } else if (!invalidFiles.isEmpty()) {
+      logNotAnalyzed(result.errors, invalidFiles);
+      List<InputFile> otherFiles = new ArrayList<>(remainingFiles);
+      otherFiles.removeAll(invalidFiles);
+      retriedFiles = otherFiles.isEmpty() ? Collections.emptyList() : Collections.singletonList(otherFiles);
+    } else if (remainingFiles.size() > 1 && retries.get() >= 2) {
+      LOG.info(String.format("Splitting %d files of `%s` to isolate the file which could not be analyzed", remainingFiles.size(), scope));
+      retriedFiles = Lists.partition(remainingFiles, (remainingFiles.size() + 1) / 2);
+    } else {
+      logNotAnalyzed(result.errors, remainingFiles);
+      return analyzedFiles;
+    }
+
+    for (List<InputFile> files : retriedFiles) {
+      if (retries.getAndDecrement() > 0) {
+        analyzedFiles.addAll(runRulesProcessWithRetry(analysis, commandFactory, scope, files, consumer, metricsConsumer, retryHeapMb, retries, processNanos));
+      } else {
+        files.forEach(inputFile -> LOG.error(NOT_ANALYZED + inputFile.absolutePath()));
+      }
+    }
+    return analyzedFiles;
+  }
+
+  /**
+   * Batches to analyze again after node ran out of memory with {@code heapMb}: halves of {@code files} while retries allow it,
+   * otherwise the same files with {@code retryHeapMb}. Returns no batch when the heap cannot be raised anymore.
+   */
+  private static List<List<InputFile>> retriesAfterOutOfMemory(List<InputFile> files, String scope, int heapMb, int retryHeapMb, AtomicInteger retries) {
+    if (files.size() > 1 && retries.get() >= 2) {
+      LOG.warn(String.format("Node ran out of memory with a heap of %d MB, analyzing again %d files of `%s` in smaller batches with a heap of %d MB",
+        heapMb, files.size(), scope, retryHeapMb));
+      return Lists.partition(files, (files.size() + 1) / 2);
+    }
+    if (retryHeapMb > heapMb) {
+      LOG.warn(String.format("Node ran out of memory with a heap of %d MB, analyzing again %d files of `%s` with a heap of %d MB", heapMb, files.size(), scope, retryHeapMb));
+      return Collections.singletonList(files);
+    }
+    LOG.error(String.format("Node ran out of memory with a heap of %d MB analyzing `%s`, consider increasing %s", heapMb, scope, TypeScriptPlugin.NODE_MAX_HEAP_KEY));
+    return Collections.emptyList();
   }
 
-  private static Failure[] runRulesProcess(Command ruleCommand, File tmpDir, Collection<InputFile> inputFilesForThisConfig) {
-    List<String> commandComponents = decomposeToComponents(ruleCommand);
-    ProcessBuilder processBuilder = new ProcessBuilder(commandComponents);
+  /**
+   * Failures are passed to {@code consumer} while tslint output is being read, without intermediate file.
+   * Both "--format json" (single array) and "--format ndjson" (one failure per line) outputs are supported.
+   * When {@code metricsConsumer} is not null, the output of {@link ExecutableBundle#getAnalyzeCommand} is expected instead, with metrics records besides failures.
+   */
+  private static RulesProcessResult runRulesProcess(AnalysisContext analysis, Command ruleCommand, String scope, Collection<InputFile> inputFilesForThisConfig,
+    Consumer<Failure> consumer, @Nullable Consumer<TsMetricsPerFileResponse> metricsConsumer, int heapMb, AtomicLong processNanos) {
     String commandLine = ruleCommand.toCommandLine();
-    LOG.info(String.format("Running rule analysis for `%s` with %s files", commandComponents.get(commandComponents.indexOf("--project") + 1), inputFilesForThisConfig.size()));
+    LOG.info(String.format("Running rule analysis for `%s` with %s files", scope, inputFilesForThisConfig.size()));
     try {
-      File outFile = new File(tmpDir, "sonartsRules.out");
-      processBuilder.redirectOutput(outFile);
-      Process process = processBuilder.start();
-      process.waitFor();
+      ExternalProcess process = analysis.scheduler.start(ruleCommand, scope, heapMb, NodeHeap.expectedMb(heapMb));
+      process.getOutputStream().close();
 
-      Failure[] failures = new Gson().fromJson(new InputStreamReader(new FileInputStream(outFile), Charsets.UTF_8), Failure[].class);
+      Set<String> invalidFiles = new HashSet<>();
+      int recordsCount;
+      // when the process is killed, its output ends and results read so far are kept
+      try (PerformanceReport.Timer timer = analysis.report.start(READ_OUTPUT_PHASE); AnalysisEvents.Span span = AnalysisEvents.jsonDecode(scope);
+        JsonReader jsonReader = new JsonReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+        Gson gson = new Gson();
+        recordsCount = readRecords(jsonReader, metricsConsumer == null
+          ? reader -> readFailure(reader, gson, consumer)
+          : reader -> readRecord(reader, gson, consumer, metricsConsumer, invalidFiles::add));
+      } catch (IOException | JsonParseException e) {
+        if (!process.isKilled()) {
+          throw e;
+        }
+        // last record was truncated by the kill
+        recordsCount = -1;
+      }
+      int exitCode = process.waitFor();
+      processNanos.addAndGet(process.runningNanos());
+      if (process.isKilled()) {
+        return RulesProcessResult.KILLED;
+      }
+      if (exitCode == 0) {
+        return RulesProcessResult.COMPLETE;
+      }
 
-      if (failures == null) {
+      String errorOutput = process.errors();
+      invalidFiles.addAll(invalidFiles(errorOutput));
+      if (recordsCount == 0) {
         // output is empty if some problem happened during linting
-        InputStream errorStream = process.getErrorStream();
-        String errors = IOUtils.toString(errorStream, Charset.defaultCharset());
         LOG.error(String.format("External process failed with empty output: `%s`", commandLine));
-        if (!errors.isEmpty()) {
-          Pattern pattern = Pattern.compile(".*Invalid source file: (\\S+?)\\. Ensure.*", Pattern.DOTALL);
-          Matcher matcher = pattern.matcher(errors);
-          if (matcher.matches()) {
-            LOG.error(String.format("Probably `%s` is excluded in your tsconfig.json, in this case exclude it from SonarQube analysis as well. " +
-              "SonarQube configuration should always match your tsconfig.json configuration", matcher.group(1)));
-          }
-          LOG.debug(errors);
-        }
-        inputFilesForThisConfig.stream().map(InputFile::absolutePath).forEach(path -> LOG.error("Not analyzed due to a previous error : " + path));
-        return new Failure[0];
+      } else {
+        LOG.error(String.format("External process `%s` exited with code %d, results for `%s` may be incomplete", commandLine, exitCode, scope));
       }
-      return failures;
+      return new RulesProcessResult(false, recordsCount == 0, false, errorOutput, invalidFiles);
 
     } catch (Exception e) {
       throw new IllegalStateException(String.format("Failed to run external process `%s`", commandLine), e);
+    } finally {
+      analysis.executableBundle.cleanUp(ruleCommand);
+    }
+  }
+
+  /**
+   * Files reported as not analyzed on the error stream, either with a JSON error event or with the message of tslint
+   */
+  private static Set<String> invalidFiles(String errors) {
+    Set<String> invalidFiles = new HashSet<>();
+    Gson gson = new Gson();
+    for (String line : errors.split("\\r?\\n")) {
+      if (line.startsWith("{\"error\"")) {
+        try {
+          ProcessError processError = gson.fromJson(line, ProcessErrorEvent.class).error;
+          if (processError != null && processError.file != null) {
+            invalidFiles.add(processError.file);
+          }
+        } catch (JsonParseException e) {
+          LOG.debug("Unexpected error event " + line, e);
+        }
+      }
+    }
+    Matcher matcher = INVALID_SOURCE_FILE.matcher(errors);
+    while (matcher.find()) {
+      invalidFiles.add(matcher.group(1));
+    }
+    return invalidFiles;
+  }
+
+  /**
+   * Reads every value of an output with several top-level values (one per line with "ndjson" format), each one being either a record or an array of records.
+   * Returns the number of records counted by {@code recordReader}.
+   */
+  private static int readRecords(JsonReader jsonReader, RecordReader recordReader) throws IOException {
+    jsonReader.setLenient(true);
+    int count = 0;
+    try {
+      jsonReader.peek();
+    } catch (EOFException e) {
+      // empty output
+      return count;
+    }
+    while (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+      if (jsonReader.peek() == JsonToken.BEGIN_ARRAY) {
+        jsonReader.beginArray();
+        while (jsonReader.hasNext()) {
+          count += recordReader.read(jsonReader);
+        }
+        jsonReader.endArray();
+      } else {
+        count += recordReader.read(jsonReader);
+      }
     }
+    return count;
+  }
+
+  private static int readFailure(JsonReader jsonReader, Gson gson, Consumer<Failure> consumer) {
+    consumer.accept(gson.fromJson(jsonReader, Failure.class));
+    return 1;
+  }
 
+  private static int readRecord(JsonReader jsonReader, Gson gson, Consumer<Failure> failureConsumer, Consumer<TsMetricsPerFileResponse> metricsConsumer,
+    Consumer<String> invalidFileConsumer) throws IOException {
+    int count = 0;
+    jsonReader.beginObject();
+    while (jsonReader.hasNext()) {
+      String kind = jsonReader.nextName();
+      if ("failure".equals(kind)) {
+        failureConsumer.accept(gson.fromJson(jsonReader, Failure.class));
+        count++;
+      } else if ("metrics".equals(kind)) {
+        metricsConsumer.accept(gson.fromJson(jsonReader, TsMetricsPerFileResponse.class));
+        count++;
+      } else if ("error".equals(kind)) {
+        ProcessError processError = gson.fromJson(jsonReader, ProcessError.class);
+        LOG.error(processError.message);
+        invalidFileConsumer.accept(processError.file);
+        count++;
+      } else {
+        jsonReader.skipValue();
+      }
+    }
+    jsonReader.endObject();
+    return count;
   }
 
-  private void saveCpd(SensorContext sensorContext, CpdToken[] cpdTokens, InputFile file) {
-    NewCpdTokens newCpdTokens = sensorContext.newCpdTokens().onFile(file);
-    for (CpdToken cpdToken : cpdTokens) {
-      newCpdTokens.addToken(cpdToken.startLine, cpdToken.startCol, cpdToken.endLine, cpdToken.endCol, cpdToken.image);
+  private static void logNotAnalyzed(String errors, Collection<InputFile> inputFiles) {
+    if (!errors.isEmpty()) {
+      Matcher matcher = INVALID_SOURCE_FILE.matcher(errors);
+      while (matcher.find()) {
+        LOG.error(String.format("Probably `%s` is excluded in your tsconfig.json, in this case exclude it from SonarQube analysis as well. " +
+          "SonarQube configuration should always match your tsconfig.json configuration", matcher.group(1)));
+      }
+      LOG.debug(errors);
     }
+    inputFiles.stream().map(InputFile::absolutePath).forEach(path -> LOG.error(NOT_ANALYZED + path));
+  }
 
-    newCpdTokens.save();
+  private void saveCpd(SensorContext sensorContext, CpdTokens cpdTokens, InputFile file) {
+    try (AnalysisEvents.Span span = AnalysisEvents.save("cpd tokens", file.absolutePath(), cpdTokens.size())) {
+      NewCpdTokens newCpdTokens = sensorContext.newCpdTokens().onFile(file);
+      for (int i = 0; i < cpdTokens.size(); i++) {
+        newCpdTokens.addToken(cpdTokens.startLine(i), cpdTokens.startCol(i), cpdTokens.endLine(i), cpdTokens.endCol(i), cpdTokens.image(i));
+      }
+
+      newCpdTokens.save();
+    }
   }
 
   private void saveMetrics(SensorContext sensorContext, TsMetricsPerFileResponse tsMetricsPerFileResponse, InputFile inputFile) {
@@ -283,49 +1034,56 @@ public class ExternalTypescriptSensor implements Sensor {
     sensorContext.<Integer>newMeasure().forMetric(metric).on(inputFile).withValue(value).save();
   }
 
-  private static List<String> decomposeToComponents(Command sonarCommand) {
-    List<String> commandComponents = new ArrayList<>();
-    commandComponents.add(sonarCommand.getExecutable());
-    sonarCommand.getArguments().forEach(commandComponents::add);
-    return commandComponents;
-  }
-
-  private void saveFailures(SensorContext sensorContext, Failure[] failures, TypeScriptRules typeScriptRules) {
-    FileSystem fs = sensorContext.fileSystem();
-    for (Failure failure : failures) {
-      InputFile inputFile = fs.inputFile(fs.predicates().hasAbsolutePath(failure.name));
-      if (inputFile != null) {
-        RuleKey ruleKey = typeScriptRules.ruleKeyFromTsLintKey(failure.ruleName);
-        NewIssue issue = sensorContext.newIssue().forRule(ruleKey);
-        NewIssueLocation location = issue.newLocation();
-        location.on(inputFile);
-        location.message(failure.failure);
-
-        // semicolon rule
-        if (ruleKey.rule().equals("S1438")) {
-          location.at(inputFile.selectLine(failure.startPosition.line + 1));
-
-        } else if (!TypeScriptRules.FILE_LEVEL_RULES.contains(ruleKey.rule())) {
-          location.at(inputFile.newRange(
-            failure.startPosition.line + 1,
-            failure.startPosition.character,
-            failure.endPosition.line + 1,
-            failure.endPosition.character));
-        }
+  private void saveFailure(AnalysisContext analysis, Failure failure) {
+    InputFile inputFile = analysis.inputFileIndex.get(failure.name);
+    if (inputFile != null) {
+      saveFailure(analysis, failure, inputFile);
+    }
+  }
 
-        issue.at(location);
-        issue.save();
-      }
+  private void saveFailure(AnalysisContext analysis, Failure failure, InputFile inputFile) {
+    if (!analysis.issueIndex.add(inputFile, failure.ruleName, failure.startPosition.line, failure.startPosition.character,
+      failure.endPosition.line, failure.endPosition.character)) {
+      return;
     }
+    RuleKey ruleKey = analysis.typeScriptRules.ruleKeyFromTsLintKey(failure.ruleName);
+    NewIssue issue = analysis.sensorContext.newIssue().forRule(ruleKey);
+    NewIssueLocation location = issue.newLocation();
+    location.on(inputFile);
+    location.message(failure.failure);
+
+    // semicolon rule
+    if (ruleKey.rule().equals("S1438")) {
+      location.at(inputFile.selectLine(failure.startPosition.line + 1));
+
+    } else if (!TypeScriptRules.FILE_LEVEL_RULES.contains(ruleKey.rule())) {
+      location.at(inputFile.newRange(
+        failure.startPosition.line + 1,
+        failure.startPosition.character,
+        failure.endPosition.line + 1,
+        failure.endPosition.character));
+    }
+
+    issue.at(location);
+    issue.save();
   }
 
-  private void saveHighlights(SensorContext sensorContext, Highlight[] highlights, InputFile inputFile) {
-    NewHighlighting highlighting = sensorContext.newHighlighting().onFile(inputFile);
-    for (Highlight highlight : highlights) {
-      highlighting.highlight(highlight.startLine, highlight.startCol, highlight.endLine, highlight.endCol,
-        TypeOfText.valueOf(highlight.textType.toUpperCase(Locale.ENGLISH)));
+  private void saveHighlights(SensorContext sensorContext, Highlights highlights, InputFile inputFile) {
+    try (AnalysisEvents.Span span = AnalysisEvents.save("highlighting", inputFile.absolutePath(), highlights.size())) {
+      NewHighlighting highlighting = sensorContext.newHighlighting().onFile(inputFile);
+      for (int i = 0; i < highlights.size(); i++) {
+        highlighting.highlight(highlights.startLine(i), highlights.startCol(i), highlights.endLine(i), highlights.endCol(i), highlights.type(i));
+      }
+      highlighting.save();
     }
-    highlighting.save();
+  }
+
+  @FunctionalInterface
+  private interface RecordReader {
+    /**
+     * Reads one record, returns the number of records counted
+     */
+    int read(JsonReader jsonReader) throws IOException;
   }
 
   private static class Failure {
@@ -337,37 +1095,38 @@ public class ExternalTypescriptSensor implements Sensor {
   }
 
   private static class Position {
-    Integer line;
-    Integer character;
-  }
-
-  private static class TsMetricsPerFileResponse {
-    String filepath;
-    Highlight[] highlights;
-    CpdToken[] cpdTokens;
-    int[] ncloc;
-    int[] commentLines;
-    Integer[] nosonarLines;
-    int[] executableLines;
-    int functions;
-    int statements;
-    int classes;
-  }
-
-  private static class Highlight {
-    Integer startLine;
-    Integer startCol;
-    Integer endLine;
-    Integer endCol;
-    String textType;
-  }
-
-  private static class CpdToken {
-    Integer startLine;
-    Integer startCol;
-    Integer endLine;
-    Integer endCol;
-    String image;
+    int line;
+    int character;
+  }
+
+  private static class RulesProcessResult {
+    static final RulesProcessResult COMPLETE = new RulesProcessResult(true, false, false, "", Collections.emptySet());
+    static final RulesProcessResult KILLED = new RulesProcessResult(false, false, true, "", Collections.emptySet());
+
+    final boolean complete;
+    // the process failed before reporting anything
+    final boolean emptyOutput;
+    // the process was killed by the watchdog
+    final boolean killed;
+    final String errors;
+    final Set<String> invalidFiles;
+
+    RulesProcessResult(boolean complete, boolean emptyOutput, boolean killed, String errors, Set<String> invalidFiles) {
+      this.complete = complete;
+      this.emptyOutput = emptyOutput;
+      this.killed = killed;
+      this.errors = errors;
+      this.invalidFiles = invalidFiles;
+    }
+  }
+
+  private static class ProcessErrorEvent {
+    ProcessError error;
+  }
+
+  private static class ProcessError {
+    String file;
+    String message;
   }
 
   private static class TsMetricsRequest {
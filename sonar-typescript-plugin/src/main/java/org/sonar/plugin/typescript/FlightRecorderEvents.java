@@ -0,0 +1,175 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Events of the analysis, in category "SonarTS" of JDK Flight Recorder. Only to be used through {@link AnalysisEvents},
+ * which makes sure that "jdk.jfr" API is available before loading this class.
+ * The API is only used by reflection, through "jdk.jfr.EventFactory", so that the plugin still compiles and runs with JDKs which do not provide it.
+ */
+final class FlightRecorderEvents {
+
+  private static final String CATEGORY = "SonarTS";
+
+  private static final Class<?> ANNOTATION_ELEMENT = type("jdk.jfr.AnnotationElement");
+  private static final Class<?> VALUE_DESCRIPTOR = type("jdk.jfr.ValueDescriptor");
+  private static final Class<?> EVENT_FACTORY = type("jdk.jfr.EventFactory");
+  private static final Class<?> EVENT = type("jdk.jfr.Event");
+  private static final Constructor<?> NEW_ANNOTATION_ELEMENT = constructor(ANNOTATION_ELEMENT, Class.class, Object.class);
+  private static final Constructor<?> NEW_VALUE_DESCRIPTOR = constructor(VALUE_DESCRIPTOR, Class.class, String.class, List.class);
+  private static final Method CREATE_FACTORY = method(EVENT_FACTORY, "create", List.class, List.class);
+  private static final Method NEW_EVENT = method(EVENT_FACTORY, "newEvent");
+  private static final Method BEGIN = method(EVENT, "begin");
+  private static final Method COMMIT = method(EVENT, "commit");
+  private static final Method SET = method(EVENT, "set", int.class, Object.class);
+
+  private static final Object BUNDLE_DEPLOY = factory("org.sonarts.BundleDeploy", "Bundle Deploy", null,
+    field(String.class, "bundleLocation", "Bundle Location"));
+  private static final Object TSCONFIG_RESOLUTION = factory("org.sonarts.TsconfigResolution", "Tsconfig Resolution", null,
+    field(int.class, "files", "Files"));
+  private static final Object PROCESS_SPAWN = factory("org.sonarts.ProcessSpawn", "Node Process Spawn", null,
+    field(String.class, "tsconfig", "Tsconfig"),
+    field(String.class, "commandLine", "Command Line"));
+  private static final Object PROCESS = factory("org.sonarts.Process", "Node Process", "From the start of the process to its exit",
+    field(String.class, "tsconfig", "Tsconfig"),
+    field(String.class, "commandLine", "Command Line"),
+    field(long.class, "pid", "Process Id"),
+    field(int.class, "exitCode", "Exit Code"),
+    field(boolean.class, "killed", "Killed After Timeout"));
+  private static final Object JSON_DECODE = factory("org.sonarts.JsonDecode", "Process Output Decoding", null,
+    field(String.class, "tsconfig", "Tsconfig"));
+  private static final Object SAVE = factory("org.sonarts.Save", "Save To Sensor Context", null,
+    field(String.class, "kind", "Kind"),
+    field(String.class, "file", "File"),
+    field(int.class, "count", "Count"));
+
+  private FlightRecorderEvents() {
+  }
+
+  static AnalysisEvents.Span bundleDeploy(String bundleLocation) {
+    return span(BUNDLE_DEPLOY, bundleLocation);
+  }
+
+  static AnalysisEvents.Span tsconfigResolution(int files) {
+    return span(TSCONFIG_RESOLUTION, files);
+  }
+
+  static AnalysisEvents.Span processSpawn(String scope, String commandLine) {
+    return span(PROCESS_SPAWN, scope, commandLine);
+  }
+
+  static AnalysisEvents.ProcessSpan process(String scope, String commandLine) {
+    Object event = begin(PROCESS, scope, commandLine);
+    return (pid, exitCode, killed) -> {
+      invoke(SET, event, 2, pid);
+      invoke(SET, event, 3, exitCode);
+      invoke(SET, event, 4, killed);
+      invoke(COMMIT, event);
+    };
+  }
+
+  static AnalysisEvents.Span jsonDecode(String scope) {
+    return span(JSON_DECODE, scope);
+  }
+
+  static AnalysisEvents.Span save(String kind, String file, int count) {
+    return span(SAVE, kind, file, count);
+  }
+
+  private static AnalysisEvents.Span span(Object factory, Object... values) {
+    Object event = begin(factory, values);
+    return () -> invoke(COMMIT, event);
+  }
+
+  private static Object begin(Object factory, Object... values) {
+    Object event = invoke(NEW_EVENT, factory);
+    for (int i = 0; i < values.length; i++) {
+      invoke(SET, event, i, values[i]);
+    }
+    invoke(BEGIN, event);
+    return event;
+  }
+
+  private static Object factory(String name, String label, String description, Object... fields) {
+    List<Object> annotations = new ArrayList<>();
+    annotations.add(annotation("jdk.jfr.Name", name));
+    annotations.add(annotation("jdk.jfr.Label", label));
+    annotations.add(annotation("jdk.jfr.Category", new String[] {CATEGORY}));
+    if (description != null) {
+      annotations.add(annotation("jdk.jfr.Description", description));
+    }
+    return invoke(CREATE_FACTORY, null, annotations, Arrays.asList(fields));
+  }
+
+  private static Object field(Class<?> valueType, String name, String label) {
+    return newInstance(NEW_VALUE_DESCRIPTOR, valueType, name, Arrays.asList(annotation("jdk.jfr.Label", label)));
+  }
+
+  private static Object annotation(String annotationType, Object value) {
+    return newInstance(NEW_ANNOTATION_ELEMENT, type(annotationType), value);
+  }
+
+  private static Class<?> type(String name) {
+    try {
+      return Class.forName(name, true, FlightRecorderEvents.class.getClassLoader());
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException("Flight Recorder API is not available", e);
+    }
+  }
+
+  private static Constructor<?> constructor(Class<?> type, Class<?>... parameterTypes) {
+    try {
+      return type.getConstructor(parameterTypes);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException("Unsupported Flight Recorder API", e);
+    }
+  }
+
+  private static Method method(Class<?> type, String name, Class<?>... parameterTypes) {
+    try {
+      return type.getMethod(name, parameterTypes);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException("Unsupported Flight Recorder API", e);
+    }
+  }
+
+  private static Object newInstance(Constructor<?> constructor, Object... arguments) {
+    try {
+      return constructor.newInstance(arguments);
+    } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("Failed to create Flight Recorder " + constructor.getDeclaringClass().getSimpleName(), e);
+    }
+  }
+
+  private static Object invoke(Method method, Object target, Object... arguments) {
+    try {
+      return method.invoke(target, arguments);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("Failed to call Flight Recorder " + method.getName(), e);
+    }
+  }
+}
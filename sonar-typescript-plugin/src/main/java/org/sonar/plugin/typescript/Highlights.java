@@ -0,0 +1,176 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import org.sonar.api.batch.sensor.highlighting.TypeOfText;
+
+/**
+ * Highlights of a file, as produced by "tsmetrics": array of {startLine, startCol, endLine, endCol, textType} objects.
+ * Stored as columns of primitive values instead of one object per highlight, as a file can have hundreds of thousands of them.
+ */
+@JsonAdapter(Highlights.Adapter.class)
+class Highlights {
+
+  private static final int FIELDS = 4;
+  private static final Map<String, TypeOfText> TYPE_OF_TEXT_BY_NAME = new HashMap<>();
+
+  static {
+    for (TypeOfText typeOfText : TypeOfText.values()) {
+      TYPE_OF_TEXT_BY_NAME.put(typeOfText.name().toLowerCase(Locale.ENGLISH), typeOfText);
+    }
+  }
+
+  private int size = 0;
+  private int[] positions;
+  private TypeOfText[] types;
+
+  Highlights(int capacity) {
+    positions = new int[capacity * FIELDS];
+    types = new TypeOfText[capacity];
+  }
+
+  /**
+   * @param positions start line, start column, end line and end column of each element
+   */
+  Highlights(int[] positions, TypeOfText[] types) {
+    this.positions = positions;
+    this.types = types;
+    this.size = types.length;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int startLine(int index) {
+    return positions[index * FIELDS];
+  }
+
+  int startCol(int index) {
+    return positions[index * FIELDS + 1];
+  }
+
+  int endLine(int index) {
+    return positions[index * FIELDS + 2];
+  }
+
+  int endCol(int index) {
+    return positions[index * FIELDS + 3];
+  }
+
+  TypeOfText type(int index) {
+    return types[index];
+  }
+
+  void add(int startLine, int startCol, int endLine, int endCol, TypeOfText type) {
+    if (size == types.length) {
+      int capacity = Math.max(16, size * 2);
+      positions = Arrays.copyOf(positions, capacity * FIELDS);
+      types = Arrays.copyOf(types, capacity);
+    }
+    int offset = size * FIELDS;
+    positions[offset] = startLine;
+    positions[offset + 1] = startCol;
+    positions[offset + 2] = endLine;
+    positions[offset + 3] = endCol;
+    types[size] = type;
+    size++;
+  }
+
+  static TypeOfText typeOfText(String name) {
+    TypeOfText typeOfText = TYPE_OF_TEXT_BY_NAME.get(name);
+    return typeOfText != null ? typeOfText : TypeOfText.valueOf(name.toUpperCase(Locale.ENGLISH));
+  }
+
+  static class Adapter extends TypeAdapter<Highlights> {
+
+    @Override
+    public Highlights read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      Highlights highlights = new Highlights(16);
+      in.beginArray();
+      while (in.hasNext()) {
+        int startLine = 0;
+        int startCol = 0;
+        int endLine = 0;
+        int endCol = 0;
+        TypeOfText type = null;
+        in.beginObject();
+        while (in.hasNext()) {
+          switch (in.nextName()) {
+            case "startLine":
+              startLine = in.nextInt();
+              break;
+            case "startCol":
+              startCol = in.nextInt();
+              break;
+            case "endLine":
+              endLine = in.nextInt();
+              break;
+            case "endCol":
+              endCol = in.nextInt();
+              break;
+            case "textType":
+              type = typeOfText(in.nextString());
+              break;
+            default:
+              in.skipValue();
+          }
+        }
+        in.endObject();
+        highlights.add(startLine, startCol, endLine, endCol, type);
+      }
+      in.endArray();
+      return highlights;
+    }
+
+    @Override
+    public void write(JsonWriter out, Highlights highlights) throws IOException {
+      if (highlights == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginArray();
+      for (int i = 0; i < highlights.size(); i++) {
+        out.beginObject()
+          .name("startLine").value(highlights.startLine(i))
+          .name("startCol").value(highlights.startCol(i))
+          .name("endLine").value(highlights.endLine(i))
+          .name("endCol").value(highlights.endCol(i))
+          .name("textType").value(highlights.type(i).name().toLowerCase(Locale.ENGLISH))
+          .endObject();
+      }
+      out.endArray();
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputFile;
+
+/**
+ * Input files by absolute path, as reported by node processes, so that a file is looked up with a predicate at most once.
+ * Only used from the sensor thread.
+ */
+class InputFileIndex {
+  private final FileSystem fileSystem;
+  private final Map<String, InputFile> inputFileByPath = new HashMap<>();
+  private final Set<String> unknownPaths = new HashSet<>();
+
+  InputFileIndex(FileSystem fileSystem, Iterable<InputFile> inputFiles) {
+    this.fileSystem = fileSystem;
+    inputFiles.forEach(inputFile -> inputFileByPath.put(inputFile.absolutePath(), inputFile));
+  }
+
+  @CheckForNull
+  InputFile get(String path) {
+    InputFile inputFile = inputFileByPath.get(path);
+    if (inputFile == null && !unknownPaths.contains(path)) {
+      // path reported differently from InputFile#absolutePath, e.g. not normalized
+      inputFile = fileSystem.inputFile(fileSystem.predicates().hasAbsolutePath(path));
+      if (inputFile == null) {
+        unknownPaths.add(path);
+      } else {
+        inputFileByPath.put(path, inputFile);
+      }
+    }
+    return inputFile;
+  }
+}
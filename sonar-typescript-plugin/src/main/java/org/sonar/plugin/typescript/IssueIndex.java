@@ -0,0 +1,62 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Issues saved during the analysis, by file, rule and range, so that an issue reported several times (e.g. replayed from the analysis cache and
+ * reported again by a process) is saved once. Can be used from several threads.
+ */
+class IssueIndex {
+
+  private static final Logger LOG = Loggers.get(IssueIndex.class);
+
+  private final Set<String> keys = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger duplicates = new AtomicInteger();
+
+  /**
+   * Returns false if the same issue was already added
+   */
+  boolean add(InputFile inputFile, String ruleName, int startLine, int startCharacter, int endLine, int endCharacter) {
+    String key = String.join(":", inputFile.absolutePath(), ruleName,
+      Integer.toString(startLine), Integer.toString(startCharacter), Integer.toString(endLine), Integer.toString(endCharacter));
+    if (keys.add(key)) {
+      return true;
+    }
+    duplicates.incrementAndGet();
+    return false;
+  }
+
+  int size() {
+    return keys.size();
+  }
+
+  void logStatistics() {
+    if (duplicates.get() > 0) {
+      LOG.debug(String.format("%d duplicated issues were ignored", duplicates.get()));
+    }
+  }
+}
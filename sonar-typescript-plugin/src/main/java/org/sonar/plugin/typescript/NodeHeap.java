@@ -0,0 +1,98 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import java.util.Collection;
+import java.util.regex.Pattern;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.config.Settings;
+
+/**
+ * Heap size of node processes ("--max-old-space-size", in MB), estimated from the number and the size of the files they analyze:
+ * a program keeps syntax trees, symbols and types of all its files, which take many times the size of the source code.
+ * The size is never below the default of V8 on 64 bits, and never above {@link TypeScriptPlugin#NODE_MAX_HEAP_KEY},
+ * which defaults to half of the memory of the container (see {@link CgroupLimits}) or of the host, even when this is below the default of V8:
+ * a process killed by the kernel loses all its results, while running out of heap is retried with smaller batches.
+ */
+class NodeHeap {
+
+  // old space of node 8 on 64 bits
+  static final int DEFAULT_MB = 1400;
+  // code, buffers and young generation of a process are not part of its old space
+  static final int OVERHEAD_MB = 128;
+  private static final int BASE_MB = 512;
+  private static final int KB_PER_FILE = 128;
+  private static final int BYTES_FACTOR = 50;
+  private static final long MB = 1024L * 1024L;
+  private static final Pattern OUT_OF_MEMORY = Pattern.compile("JavaScript heap out of memory|Reached heap limit|Allocation failed - process out of memory");
+
+  private final int maxMb;
+
+  NodeHeap(int maxMb) {
+    this.maxMb = maxMb;
+  }
+
+  static NodeHeap create(Settings settings, CgroupLimits limits) {
+    int maxMb = settings.getInt(TypeScriptPlugin.NODE_MAX_HEAP_KEY);
+    return new NodeHeap(maxMb > 0 ? maxMb : defaultMaxMb(limits));
+  }
+
+  int maxMb() {
+    return maxMb;
+  }
+
+  int sizeFor(Collection<InputFile> inputFiles) {
+    return (int) Math.min(Math.max(estimateMb(inputFiles), DEFAULT_MB), maxMb);
+  }
+
+  /**
+   * Memory a process granted the given heap size may use
+   */
+  static long expectedMb(int heapMb) {
+    return (long) heapMb + OVERHEAD_MB;
+  }
+
+  /**
+   * Heap a process analyzing the files is expected to need, before taking default and maximum heap sizes into account
+   */
+  static long estimateMb(Collection<InputFile> inputFiles) {
+    long bytes = 0;
+    for (InputFile inputFile : inputFiles) {
+      bytes += inputFile.file().length();
+    }
+    return BASE_MB + inputFiles.size() * KB_PER_FILE / 1024L + bytes * BYTES_FACTOR / MB;
+  }
+
+  /**
+   * Heap size to retry with after {@code heapMb} was not enough, which is {@code heapMb} itself when it cannot be raised
+   */
+  int raise(int heapMb) {
+    return (int) Math.min(2L * heapMb, maxMb);
+  }
+
+  static boolean isOutOfMemory(String errors) {
+    return OUT_OF_MEMORY.matcher(errors).find();
+  }
+
+  private static int defaultMaxMb(CgroupLimits limits) {
+    long memoryMb = limits.memoryBytesOrPhysical() / MB;
+    return memoryMb > 0 ? (int) Math.max(memoryMb / 2, 1) : (2 * DEFAULT_MB);
+  }
+}
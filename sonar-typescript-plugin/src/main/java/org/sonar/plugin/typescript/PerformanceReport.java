@@ -0,0 +1,279 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Where the time of a sensor goes: wall and CPU time of each phase (e.g. deployment of the bundle, start of node processes, reading of their output,
+ * saving of results), and for each group of files analyzed by node processes (e.g. a tsconfig.json file) the time of its processes,
+ * the number of files and issues and the number of bytes read from the processes.
+ * CPU time is the one of the threads measuring the phase: a thread reading the output of a process uses CPU to decode it, not while waiting for it.
+ * Written to the work directory as JSON and in the text format of Prometheus node exporter, and summarized in the logs.
+ * Can be used from several threads.
+ */
+public class PerformanceReport {
+
+  private static final Logger LOG = Loggers.get(PerformanceReport.class);
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  private final String sensor;
+  private final long startNanos = System.nanoTime();
+  // guarded by this, in order of first occurrence
+  private final Map<String, Phase> phases = new LinkedHashMap<>();
+  private final Map<String, Group> groups = new LinkedHashMap<>();
+  private int files;
+  private int issues;
+  private long bytesRead;
+
+  /**
+   * {@code sensor} names the report files, e.g. "sonarts-typescript-performance.json"
+   */
+  public PerformanceReport(String sensor) {
+    this.sensor = sensor;
+  }
+
+  /**
+   * Starts measuring a phase on the current thread, until the returned timer is closed. A phase can be measured several times, from several threads.
+   */
+  public Timer start(String phase) {
+    return new Timer(phase);
+  }
+
+  synchronized void addPhase(String phase, long wallNanos, long cpuNanos) {
+    phases.computeIfAbsent(phase, name -> new Phase()).add(wallNanos, cpuNanos);
+  }
+
+  /**
+   * Records a process of the group
+   */
+  synchronized void addProcess(String group, long wallNanos, long processBytesRead) {
+    Group stats = group(group);
+    stats.processes++;
+    stats.wallNanos += wallNanos;
+    stats.bytesRead += processBytesRead;
+    bytesRead += processBytesRead;
+  }
+
+  /**
+   * Records files analyzed for the group and the issues reported on them
+   */
+  synchronized void addResults(String group, int groupFiles, int groupIssues) {
+    Group stats = group(group);
+    stats.files += groupFiles;
+    stats.issues += groupIssues;
+  }
+
+  public synchronized void setFiles(int files) {
+    this.files = files;
+  }
+
+  public synchronized void setIssues(int issues) {
+    this.issues = issues;
+  }
+
+  /**
+   * Bytes read besides the output of processes, e.g. from report files
+   */
+  public synchronized void addBytesRead(long bytes) {
+    bytesRead += bytes;
+  }
+
+  private Group group(String group) {
+    return groups.computeIfAbsent(group, name -> new Group());
+  }
+
+  /**
+   * Writes "sonarts-[sensor]-performance.json" and "sonarts-[sensor]-performance.prom" to {@code workDir} and logs a summary
+   */
+  public synchronized void write(File workDir) {
+    long wallNanos = System.nanoTime() - startNanos;
+    Path json = workDir.toPath().resolve(fileName("json"));
+    AtomicFiles.write(json, new GsonBuilder().setPrettyPrinting().create().toJson(toJson(wallNanos)));
+    AtomicFiles.write(workDir.toPath().resolve(fileName("prom")), toPrometheus(wallNanos));
+
+    LOG.info(String.format(Locale.ENGLISH, "Performance of %s analysis: %d files in %s (%.1f files/s), %d issues (%.1f issues/s), %d KB read, details in %s",
+      sensor, files, seconds(wallNanos), perSecond(files, wallNanos), issues, perSecond(issues, wallNanos), bytesRead / 1024, json));
+    for (Map.Entry<String, Phase> phase : phases.entrySet()) {
+      LOG.info(String.format(Locale.ENGLISH, "  %-32s %10s wall %10s CPU", phase.getKey(), seconds(phase.getValue().wallNanos), seconds(phase.getValue().cpuNanos)));
+    }
+  }
+
+  String fileName(String extension) {
+    return "sonarts-" + sensor + "-performance." + extension;
+  }
+
+  private JsonObject toJson(long wallNanos) {
+    JsonObject report = new JsonObject();
+    report.addProperty("sensor", sensor);
+    report.addProperty("wallSeconds", wallNanos / NANOS_PER_SECOND);
+    report.addProperty("files", files);
+    report.addProperty("issues", issues);
+    report.addProperty("bytesRead", bytesRead);
+    report.addProperty("filesPerSecond", perSecond(files, wallNanos));
+    report.addProperty("issuesPerSecond", perSecond(issues, wallNanos));
+    report.addProperty("cpuTimeSupported", THREADS.isCurrentThreadCpuTimeSupported());
+
+    JsonArray phasesJson = new JsonArray();
+    phases.forEach((name, phase) -> {
+      JsonObject phaseJson = new JsonObject();
+      phaseJson.addProperty("name", name);
+      phaseJson.addProperty("count", phase.count);
+      phaseJson.addProperty("wallSeconds", phase.wallNanos / NANOS_PER_SECOND);
+      phaseJson.addProperty("cpuSeconds", phase.cpuNanos / NANOS_PER_SECOND);
+      phasesJson.add(phaseJson);
+    });
+    report.add("phases", phasesJson);
+
+    JsonArray groupsJson = new JsonArray();
+    groups.forEach((name, group) -> {
+      JsonObject groupJson = new JsonObject();
+      groupJson.addProperty("name", name);
+      groupJson.addProperty("processes", group.processes);
+      // sum over the processes of the group, which may run concurrently
+      groupJson.addProperty("wallSeconds", group.wallNanos / NANOS_PER_SECOND);
+      groupJson.addProperty("files", group.files);
+      groupJson.addProperty("issues", group.issues);
+      groupJson.addProperty("bytesRead", group.bytesRead);
+      groupJson.addProperty("filesPerSecond", perSecond(group.files, group.wallNanos));
+      groupJson.addProperty("issuesPerSecond", perSecond(group.issues, group.wallNanos));
+      groupsJson.add(groupJson);
+    });
+    report.add("groups", groupsJson);
+    return report;
+  }
+
+  private String toPrometheus(long wallNanos) {
+    StringBuilder text = new StringBuilder();
+    String sensorLabel = "sensor=\"" + escape(sensor) + "\"";
+    gauge(text, "sonarts_analysis_wall_seconds", "Wall time of the analysis");
+    sample(text, "sonarts_analysis_wall_seconds", sensorLabel, wallNanos / NANOS_PER_SECOND);
+    gauge(text, "sonarts_analysis_files", "Files analyzed");
+    sample(text, "sonarts_analysis_files", sensorLabel, files);
+    gauge(text, "sonarts_analysis_issues", "Issues saved");
+    sample(text, "sonarts_analysis_issues", sensorLabel, issues);
+    gauge(text, "sonarts_analysis_bytes_read", "Bytes read from processes and reports");
+    sample(text, "sonarts_analysis_bytes_read", sensorLabel, bytesRead);
+
+    gauge(text, "sonarts_phase_wall_seconds", "Wall time of each phase of the analysis, summed over threads");
+    phases.forEach((name, phase) -> sample(text, "sonarts_phase_wall_seconds", label(sensorLabel, "phase", name), phase.wallNanos / NANOS_PER_SECOND));
+    gauge(text, "sonarts_phase_cpu_seconds", "CPU time of each phase of the analysis, summed over threads");
+    phases.forEach((name, phase) -> sample(text, "sonarts_phase_cpu_seconds", label(sensorLabel, "phase", name), phase.cpuNanos / NANOS_PER_SECOND));
+
+    gauge(text, "sonarts_group_processes", "Processes started for each group of files");
+    groups.forEach((name, group) -> sample(text, "sonarts_group_processes", label(sensorLabel, "group", name), group.processes));
+    gauge(text, "sonarts_group_wall_seconds", "Wall time of the processes of each group of files, summed over processes");
+    groups.forEach((name, group) -> sample(text, "sonarts_group_wall_seconds", label(sensorLabel, "group", name), group.wallNanos / NANOS_PER_SECOND));
+    gauge(text, "sonarts_group_files", "Files analyzed for each group of files");
+    groups.forEach((name, group) -> sample(text, "sonarts_group_files", label(sensorLabel, "group", name), group.files));
+    gauge(text, "sonarts_group_issues", "Issues reported for each group of files");
+    groups.forEach((name, group) -> sample(text, "sonarts_group_issues", label(sensorLabel, "group", name), group.issues));
+    gauge(text, "sonarts_group_bytes_read", "Bytes read from the processes of each group of files");
+    groups.forEach((name, group) -> sample(text, "sonarts_group_bytes_read", label(sensorLabel, "group", name), group.bytesRead));
+    return text.toString();
+  }
+
+  private static void gauge(StringBuilder text, String metric, String help) {
+    text.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+    text.append("# TYPE ").append(metric).append(" gauge\n");
+  }
+
+  private static void sample(StringBuilder text, String metric, String labels, double value) {
+    text.append(metric).append('{').append(labels).append("} ").append(Double.toString(value)).append('\n');
+  }
+
+  private static String label(String sensorLabel, String name, String value) {
+    return sensorLabel + "," + name + "=\"" + escape(value) + "\"";
+  }
+
+  private static String escape(String labelValue) {
+    return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static String seconds(long nanos) {
+    return String.format(Locale.ENGLISH, "%.3f s", nanos / NANOS_PER_SECOND);
+  }
+
+  private static double perSecond(long count, long nanos) {
+    return nanos > 0 ? (count * NANOS_PER_SECOND / nanos) : 0;
+  }
+
+  /**
+   * Returns the CPU time of the current thread, or 0 when the JVM does not measure it
+   */
+  static long currentThreadCpuNanos() {
+    try {
+      return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    } catch (UnsupportedOperationException e) {
+      return 0;
+    }
+  }
+
+
+  /**
+   * Measures a phase on the thread which started it
+   */
+  public class Timer implements AutoCloseable {
+    private final String phase;
+    private final long startWallNanos = System.nanoTime();
+    private final long startCpuNanos = currentThreadCpuNanos();
+
+    private Timer(String phase) {
+      this.phase = phase;
+    }
+
+    @Override
+    public void close() {
+      addPhase(phase, System.nanoTime() - startWallNanos, currentThreadCpuNanos() - startCpuNanos);
+    }
+  }
+
+  private static class Phase {
+    int count;
+    long wallNanos;
+    long cpuNanos;
+
+    void add(long wallNanos, long cpuNanos) {
+      count++;
+      this.wallNanos += wallNanos;
+      this.cpuNanos += cpuNanos;
+    }
+  }
+
+  private static class Group {
+    int processes;
+    long wallNanos;
+    int files;
+    int issues;
+    long bytesRead;
+  }
+}
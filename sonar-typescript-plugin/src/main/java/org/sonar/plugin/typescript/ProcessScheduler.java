@@ -0,0 +1,243 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+import org.sonar.api.utils.command.Command;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Starts node processes only while the memory they are expected to use fits in the memory budget of the analysis:
+ * memory limit of the container (see {@link CgroupLimits}) or physical memory, minus the maximum heap of the JVM.
+ * A running process is expected to use its estimated memory, or its resident set size sampled from "/proc/[pid]/status" when it is higher.
+ * A process is always started when no other one is running, long-lived processes aside, and the peak resident set size of each process is logged when it ends.
+ * Time spent waiting for memory and starting processes, and the duration and output size of each process, are added to the {@link PerformanceReport}.
+ * Can be used from several threads.
+ */
+class ProcessScheduler implements Closeable {
+
+  private static final Logger LOG = Loggers.get(ProcessScheduler.class);
+  private static final long MB = 1024L * 1024L;
+  private static final double BUDGET_RATIO = 0.9;
+  private static final long SAMPLING_PERIOD_MILLISECONDS = 500;
+  private static final Pattern VM_RSS = Pattern.compile("^VmRSS:\\s+(\\d+)\\s+kB", Pattern.MULTILINE);
+
+  private final long budgetBytes;
+  private final long timeoutSeconds;
+  private final Path procRoot;
+  private final PerformanceReport report;
+  private final ScheduledExecutorService sampler;
+  // guarded by this
+  private final Set<RunningProcess> running = new HashSet<>();
+
+  ProcessScheduler(long budgetBytes, long timeoutSeconds, Path procRoot, PerformanceReport report) {
+    this.budgetBytes = budgetBytes;
+    this.timeoutSeconds = timeoutSeconds;
+    this.procRoot = procRoot;
+    this.report = report;
+    this.sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("sonarts-memory-sampler").setDaemon(true).build());
+    sampler.scheduleWithFixedDelay(this::sampleAll, SAMPLING_PERIOD_MILLISECONDS, SAMPLING_PERIOD_MILLISECONDS, TimeUnit.MILLISECONDS);
+  }
+
+  static ProcessScheduler create(CgroupLimits limits, long timeoutSeconds, PerformanceReport report) {
+    long memory = limits.memoryBytesOrPhysical();
+    long budget = memory == CgroupLimits.UNKNOWN ? Long.MAX_VALUE : Math.max(0, (long) ((memory - Runtime.getRuntime().maxMemory()) * BUDGET_RATIO));
+    if (budget != Long.MAX_VALUE) {
+      LOG.debug(String.format("Memory budget of node processes: %d MB", budget / MB));
+    }
+    return new ProcessScheduler(budget, timeoutSeconds, Paths.get("/proc"), report);
+  }
+
+  /**
+   * Waits until the process fits in the memory budget, then starts it (see {@link ExternalProcess#start})
+   */
+  ExternalProcess start(Command command, String scope, int heapMb, long estimatedMb) throws IOException, InterruptedException {
+    return start(command, scope, heapMb, estimatedMb, false);
+  }
+
+  /**
+   * Same as {@link #start}, for a process answering several requests until it is stopped (e.g. the analysis server), which is never killed after the timeout.
+   * Its memory is taken into account until it ends, but it does not prevent other processes from being started one at a time.
+   */
+  ExternalProcess startLongLived(Command command, String scope, int heapMb, long estimatedMb) throws IOException, InterruptedException {
+    return start(command, scope, heapMb, estimatedMb, true);
+  }
+
+  private ExternalProcess start(Command command, String scope, int heapMb, long estimatedMb, boolean longLived) throws IOException, InterruptedException {
+    RunningProcess runningProcess = admit(scope, estimatedMb * MB, longLived);
+    try {
+      ExternalProcess process;
+      try (PerformanceReport.Timer timer = report.start("node process start")) {
+        process = ExternalProcess.start(command, scope, longLived ? 0 : timeoutSeconds, heapMb);
+      }
+      process.onFinish(() -> finish(runningProcess));
+      runningProcess.started(process);
+      sample(runningProcess);
+      return process;
+    } catch (IOException | RuntimeException e) {
+      finish(runningProcess);
+      throw e;
+    }
+  }
+
+  @Override
+  public void close() {
+    sampler.shutdownNow();
+  }
+
+  private synchronized RunningProcess admit(String scope, long estimatedBytes, boolean longLived) throws InterruptedException {
+    boolean waiting = false;
+    long start = System.nanoTime();
+    // a long-lived process may only end once the others are done
+    while (hasShortLivedProcess() && projectedBytes() + estimatedBytes > budgetBytes) {
+      if (!waiting) {
+        LOG.debug(String.format("Waiting for memory to start node process for `%s` (%d MB expected, %d MB used by %d running processes)",
+          scope, estimatedBytes / MB, projectedBytes() / MB, running.size()));
+        waiting = true;
+      }
+      wait();
+    }
+    if (waiting) {
+      // the thread does not use CPU while waiting
+      report.addPhase("waiting for memory", System.nanoTime() - start, 0);
+    }
+    RunningProcess runningProcess = new RunningProcess(scope, estimatedBytes, longLived);
+    running.add(runningProcess);
+    return runningProcess;
+  }
+
+  private boolean hasShortLivedProcess() {
+    return running.stream().anyMatch(runningProcess -> !runningProcess.longLived);
+  }
+
+  private long projectedBytes() {
+    long bytes = 0;
+    for (RunningProcess runningProcess : running) {
+      bytes += Math.max(runningProcess.estimatedBytes, runningProcess.rssBytes);
+    }
+    return bytes;
+  }
+
+  private void finish(RunningProcess runningProcess) {
+    long peakRssBytes;
+    synchronized (this) {
+      if (!running.remove(runningProcess)) {
+        return;
+      }
+      peakRssBytes = runningProcess.peakRssBytes;
+      notifyAll();
+    }
+    ExternalProcess process = runningProcess.process;
+    if (process != null) {
+      report.addProcess(runningProcess.scope, System.nanoTime() - runningProcess.startNanos, process.bytesRead());
+    }
+    if (peakRssBytes > 0) {
+      LOG.info(String.format("Peak memory of node process for `%s`: %d MB", runningProcess.scope, peakRssBytes / MB));
+    }
+  }
+
+  private void sampleAll() {
+    List<RunningProcess> snapshot;
+    synchronized (this) {
+      snapshot = new ArrayList<>(running);
+    }
+    for (RunningProcess runningProcess : snapshot) {
+      ExternalProcess process = runningProcess.process;
+      if (process != null && !process.isAlive()) {
+        // e.g. the process failed to start properly and nobody waits for it
+        finish(runningProcess);
+      } else {
+        sample(runningProcess);
+      }
+    }
+  }
+
+  private void sample(RunningProcess runningProcess) {
+    long rssBytes = rssBytes(procRoot, runningProcess.pid);
+    if (rssBytes > 0) {
+      synchronized (this) {
+        runningProcess.rssBytes = rssBytes;
+        runningProcess.peakRssBytes = Math.max(runningProcess.peakRssBytes, rssBytes);
+      }
+    }
+  }
+
+  /**
+   * Returns the resident set size of the process, or -1 when it is not known (e.g. not on Linux)
+   */
+  static long rssBytes(Path procRoot, long pid) {
+    if (pid <= 0) {
+      return -1;
+    }
+    try {
+      String status = new String(Files.readAllBytes(procRoot.resolve(Long.toString(pid)).resolve("status")), StandardCharsets.UTF_8);
+      Matcher matcher = VM_RSS.matcher(status);
+      return matcher.find() ? (Long.parseLong(matcher.group(1)) * 1024) : -1;
+    } catch (NoSuchFileException e) {
+      return -1;
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Failed to read memory of process " + pid, e);
+      return -1;
+    }
+  }
+
+  private static class RunningProcess {
+    final String scope;
+    final long estimatedBytes;
+    final boolean longLived;
+    @Nullable
+    volatile ExternalProcess process;
+    volatile long pid = -1;
+    volatile long startNanos;
+    // guarded by the scheduler
+    long rssBytes;
+    long peakRssBytes;
+
+    RunningProcess(String scope, long estimatedBytes, boolean longLived) {
+      this.scope = scope;
+      this.estimatedBytes = estimatedBytes;
+      this.longLived = longLived;
+    }
+
+    void started(ExternalProcess process) {
+      this.startNanos = System.nanoTime();
+      this.pid = process.pid();
+      this.process = process;
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hands over results of tasks running on other threads to the sensor thread, which is the only one saving them to the {@link org.sonar.api.batch.sensor.SensorContext}.
+ * Tasks publish "save actions", which are run by {@link #drain()} as soon as they are available.
+ * An exception thrown by a task is rethrown by {@link #drain()}.
+ * Time spent running actions, i.e. saving results, is measured for the {@link PerformanceReport}.
+ * Actions available at once are run as a batch, which is a single {@link AnalysisEvents#save} event: a task typically publishes an action per issue.
+ * Work of the sensor thread itself, e.g. saving results from the analysis cache, is {@link #defer deferred} and run by {@link #drain()}
+ * when no published action is waiting, so that tasks never wait on a full queue because of it.
+ */
+class SaveQueue {
+
+  // bounds the number of decoded results waiting to be saved
+  private static final int CAPACITY = 64;
+  private static final Runnable END_OF_TASK = () -> {
+  };
+  private static final String RESULTS = "results";
+
+  private final BlockingQueue<Runnable> actions = new LinkedBlockingQueue<>(CAPACITY);
+  private final Deque<Runnable> deferred = new ArrayDeque<>();
+  private int submittedTasks = 0;
+  private long savingWallNanos = 0;
+  private long savingCpuNanos = 0;
+
+  @FunctionalInterface
+  interface Task {
+    void run(Consumer<Runnable> publisher) throws Exception;
+  }
+
+  /**
+   * Must be called from the sensor thread, possibly from a deferred or published action
+   */
+  void submit(Executor executor, Task task) {
+    submittedTasks++;
+    executor.execute(() -> {
+      try {
+        task.run(this::put);
+      } catch (RuntimeException e) {
+        put(() -> {
+          throw e;
+        });
+      } catch (Exception e) {
+        put(() -> {
+          throw new IllegalStateException(e);
+        });
+      } finally {
+        put(END_OF_TASK);
+      }
+    });
+  }
+
+  /**
+   * Schedules an action to be run by {@link #drain()} in between published actions, in the order of deferral. Must be called from the sensor thread.
+   */
+  void defer(Runnable action) {
+    deferred.add(action);
+  }
+
+  /**
+   * Runs published and deferred actions until all submitted tasks are finished and no deferred action is left.
+   * Published actions are run first, as tasks may be waiting to publish more. Must be called from the sensor thread.
+   */
+  void drain() {
+    int finishedTasks = 0;
+    List<Runnable> batch = new ArrayList<>(CAPACITY);
+    try {
+      while (finishedTasks < submittedTasks || !deferred.isEmpty()) {
+        Runnable first = deferred.isEmpty() ? actions.take() : actions.poll();
+        if (first == null) {
+          deferred.remove().run();
+          continue;
+        }
+        batch.add(first);
+        actions.drainTo(batch);
+        int endedTasks = (int) batch.stream().filter(action -> action == END_OF_TASK).count();
+        long start = System.nanoTime();
+        long startCpuNanos = PerformanceReport.currentThreadCpuNanos();
+        try (AnalysisEvents.Span span = AnalysisEvents.save(RESULTS, null, batch.size() - endedTasks)) {
+          batch.stream().filter(action -> action != END_OF_TASK).forEach(Runnable::run);
+        }
+        finishedTasks += endedTasks;
+        savingWallNanos += System.nanoTime() - start;
+        savingCpuNanos += PerformanceReport.currentThreadCpuNanos() - startCpuNanos;
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for analysis results", e);
+    }
+  }
+
+  long savingWallNanos() {
+    return savingWallNanos;
+  }
+
+  long savingCpuNanos() {
+    return savingCpuNanos;
+  }
+
+  private void put(Runnable action) {
+    try {
+      actions.put(action);
+    } catch (InterruptedException e) {
+      // sensor thread gave up on results
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import com.google.common.base.Strings;
+import java.io.File;
+import org.sonar.api.config.Settings;
+
+/**
+ * Directory of the scanner where data is kept between analyses, unlike the working directory which is deleted at the start of each analysis:
+ * "sonar.userHome" property, then "SONAR_USER_HOME" environment variable, then ".sonar" in the home directory of the user.
+ */
+class SonarUserHome {
+
+  static final String PROPERTY = "sonar.userHome";
+  private static final String ENVIRONMENT_VARIABLE = "SONAR_USER_HOME";
+
+  private SonarUserHome() {
+  }
+
+  static File resolve(Settings settings) {
+    String configured = settings.getString(PROPERTY);
+    return Strings.isNullOrEmpty(configured) ? fromEnvironment() : new File(configured);
+  }
+
+  private static File fromEnvironment() {
+    String configured = System.getenv(ENVIRONMENT_VARIABLE);
+    return Strings.isNullOrEmpty(configured) ? new File(System.getProperty("user.home"), ".sonar") : new File(configured);
+  }
+}
@@ -0,0 +1,364 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Files of a tsconfig file, as defined by its "files", "include" and "exclude" properties, possibly inherited through "extends",
+ * so that a file is analyzed with a tsconfig file which includes it. Compiler options are left to TypeScript.
+ */
+class TsConfig {
+
+  private static final Logger LOG = Loggers.get(TsConfig.class);
+
+  private static final List<String> DEFAULT_EXCLUDE = Arrays.asList("node_modules", "bower_components", "jspm_packages");
+  private static final Pattern TRAILING_COMMA = Pattern.compile(",(\\s*[}\\]])");
+  // "include" entries without wildcard are directories, unless they name a source file (e.g. "src/v1.2" is a directory)
+  private static final Pattern SOURCE_FILE_NAME = Pattern.compile(".*\\.(ts|tsx|js|jsx)");
+
+  private final Path path;
+  private final Set<String> files;
+  private final List<Pattern> include;
+  private final List<Pattern> exclude;
+  private final Set<String> roots;
+  private final List<Path> extended;
+
+  private TsConfig(Path path, Set<String> files, List<Pattern> include, List<Pattern> exclude, Set<String> roots, List<Path> extended) {
+    this.path = path;
+    this.files = files;
+    this.include = include;
+    this.exclude = exclude;
+    this.roots = roots;
+    this.extended = extended;
+  }
+
+  Path path() {
+    return path;
+  }
+
+  /**
+   * Files extended by this tsconfig file, directly or not, nearest first
+   */
+  List<Path> extended() {
+    return extended;
+  }
+
+  /**
+   * Directories containing all included files: directories of "files", and parts of "include" patterns before their first wildcard
+   */
+  Set<String> roots() {
+    return roots;
+  }
+
+  boolean includes(Path file) {
+    String filePath = normalized(file);
+    if (files.contains(filePath)) {
+      return true;
+    }
+    return include.stream().anyMatch(pattern -> pattern.matcher(filePath).matches())
+      && exclude.stream().noneMatch(pattern -> pattern.matcher(filePath).matches());
+  }
+
+  /**
+   * Parses tsconfig files, each one at most once, including the ones they extend. Not thread-safe.
+   */
+  static class Loader {
+
+    private final Map<Path, TsConfig> tsConfigs = new HashMap<>();
+    private final Map<Path, Definition> definitions = new HashMap<>();
+
+    TsConfig load(Path tsConfigPath) {
+      return tsConfigs.computeIfAbsent(tsConfigPath, path -> create(path, definition(path, new HashSet<>())));
+    }
+
+    private static TsConfig create(Path path, Definition definition) {
+      Path directory = path.getParent();
+      Set<String> files = definition.files == null ? Collections.emptySet() : new HashSet<>(definition.files);
+      List<String> include = definition.include;
+      if (include == null) {
+        // all files of the directory, unless only "files" are given
+        include = definition.files == null ? Collections.singletonList(resolve(directory, "**/*")) : Collections.emptyList();
+      }
+      List<String> exclude = definition.exclude;
+      if (exclude == null) {
+        exclude = new ArrayList<>();
+        for (String excluded : DEFAULT_EXCLUDE) {
+          exclude.add(resolve(directory, excluded));
+        }
+        if (definition.outDir != null) {
+          exclude.add(definition.outDir);
+        }
+      }
+      Set<String> roots = new HashSet<>();
+      files.forEach(file -> roots.add(parent(file)));
+      include.forEach(glob -> roots.add(root(glob)));
+      return new TsConfig(path, files,
+        include.stream().map(Loader::includePattern).collect(Collectors.toList()),
+        exclude.stream().map(Loader::excludePattern).collect(Collectors.toList()),
+        roots, definition.extended);
+    }
+
+    private static String root(String glob) {
+      int wildcard = indexOfWildcard(glob);
+      if (wildcard >= 0) {
+        return parent(glob.substring(0, wildcard));
+      }
+      // same distinction between files and directories as includePattern
+      return isSourceFileName(glob) ? parent(glob) : glob;
+    }
+
+    private static int indexOfWildcard(String glob) {
+      for (int i = 0; i < glob.length(); i++) {
+        if (glob.charAt(i) == '*' || glob.charAt(i) == '?') {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    private static String parent(String path) {
+      int lastSlash = path.lastIndexOf('/');
+      return lastSlash <= 0 ? "/" : path.substring(0, lastSlash);
+    }
+
+    private Definition definition(Path path, Set<Path> extending) {
+      Definition known = definitions.get(path);
+      if (known != null) {
+        return known;
+      }
+      extending.add(path);
+      JsonObject json = read(path);
+      Path directory = path.getParent();
+
+      Definition definition = new Definition();
+      JsonElement extendz = json.get("extends");
+      if (extendz != null && extendz.isJsonPrimitive()) {
+        Path base = resolveExtended(directory, extendz.getAsString());
+        if (base == null) {
+          LOG.debug(String.format("Failed to find \"%s\" extended by %s", extendz.getAsString(), path));
+        } else if (!extending.contains(base)) {
+          definition = new Definition(base, definition(base, extending));
+        }
+      }
+      List<String> files = paths(json.get("files"), directory);
+      if (files != null) {
+        definition.files = files;
+      }
+      List<String> include = paths(json.get("include"), directory);
+      if (include != null) {
+        definition.include = include;
+      }
+      List<String> exclude = paths(json.get("exclude"), directory);
+      if (exclude != null) {
+        definition.exclude = exclude;
+      }
+      JsonElement compilerOptions = json.get("compilerOptions");
+      if (compilerOptions != null && compilerOptions.isJsonObject() && compilerOptions.getAsJsonObject().has("outDir")) {
+        definition.outDir = resolve(directory, compilerOptions.getAsJsonObject().get("outDir").getAsString());
+      }
+      definitions.put(path, definition);
+      return definition;
+    }
+
+    @CheckForNull
+    private static Path resolveExtended(Path directory, String extended) {
+      if (extended.startsWith(".") || directory.getFileSystem().getPath(extended).isAbsolute()) {
+        return withJsonExtension(directory.resolve(extended).normalize());
+      }
+      // package from node_modules
+      for (Path dir = directory; dir != null; dir = dir.getParent()) {
+        Path candidate = withJsonExtension(dir.resolve("node_modules").resolve(extended));
+        if (candidate != null) {
+          return candidate;
+        }
+        Path packageTsConfig = dir.resolve("node_modules").resolve(extended).resolve(TsConfigResolver.TSCONFIG);
+        if (Files.isRegularFile(packageTsConfig)) {
+          return packageTsConfig;
+        }
+      }
+      return null;
+    }
+
+    @CheckForNull
+    private static Path withJsonExtension(Path path) {
+      if (Files.isRegularFile(path)) {
+        return path;
+      }
+      Path withExtension = path.resolveSibling(path.getFileName() + ".json");
+      return Files.isRegularFile(withExtension) ? withExtension : null;
+    }
+
+    /**
+     * tsconfig files are JSON with comments and trailing commas, unsupported content is considered as empty configuration
+     */
+    private static JsonObject read(Path path) {
+      try {
+        String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        if (content.startsWith("\uFEFF")) {
+          content = content.substring(1);
+        }
+        if (content.trim().isEmpty()) {
+          return new JsonObject();
+        }
+        JsonReader reader = new JsonReader(new StringReader(TRAILING_COMMA.matcher(content).replaceAll("$1")));
+        reader.setLenient(true);
+        JsonElement json = new JsonParser().parse(reader);
+        if (json.isJsonObject()) {
+          return json.getAsJsonObject();
+        }
+      } catch (IOException | RuntimeException e) {
+        LOG.debug("Failed to parse " + path, e);
+      }
+      LOG.warn(String.format("Failed to parse %s, all files of its directory are considered to be included", path));
+      return new JsonObject();
+    }
+
+    @CheckForNull
+    private static List<String> paths(@Nullable JsonElement json, Path directory) {
+      if (json == null || !json.isJsonArray()) {
+        return null;
+      }
+      List<String> paths = new ArrayList<>();
+      for (JsonElement element : (JsonArray) json) {
+        if (element != null && element.isJsonPrimitive()) {
+          paths.add(resolve(directory, element.getAsString()));
+        }
+      }
+      return paths;
+    }
+
+    private static Pattern includePattern(String glob) {
+      if (indexOfWildcard(glob) < 0 && !isSourceFileName(glob)) {
+        // directory
+        return Pattern.compile(globToRegex(glob) + "/.*");
+      }
+      return Pattern.compile(globToRegex(glob));
+    }
+
+    private static boolean isSourceFileName(String path) {
+      return SOURCE_FILE_NAME.matcher(path.substring(path.lastIndexOf('/') + 1)).matches();
+    }
+
+    private static Pattern excludePattern(String glob) {
+      // excluding a directory excludes all its files
+      return Pattern.compile(globToRegex(glob) + "(/.*)?");
+    }
+  }
+
+  /**
+   * "**" followed by "/" matches any number of directories, "*" any characters but "/", "?" one character but "/"
+   */
+  static String globToRegex(String glob) {
+    StringBuilder regex = new StringBuilder();
+    int i = 0;
+    while (i < glob.length()) {
+      char c = glob.charAt(i);
+      if (glob.startsWith("**/", i)) {
+        regex.append("(?:[^/]*/)*");
+        i += 3;
+        continue;
+      }
+      if (glob.startsWith("**", i) && i + 2 == glob.length()) {
+        regex.append(".*");
+        i += 2;
+        continue;
+      }
+      if (c == '*') {
+        regex.append("[^/]*");
+      } else if (c == '?') {
+        regex.append("[^/]");
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+      i++;
+    }
+    return regex.toString();
+  }
+
+  /**
+   * Resolves a path or pattern of a tsconfig file against its directory, patterns not being valid paths on all platforms
+   */
+  static String resolve(Path directory, String pathOrPattern) {
+    String path = pathOrPattern.replace('\\', '/');
+    boolean absolute = path.startsWith("/") || (path.length() > 1 && path.charAt(1) == ':');
+    if (!absolute) {
+      path = normalized(directory) + "/" + path;
+    }
+    Deque<String> segments = new ArrayDeque<>();
+    for (String segment : path.split("/", -1)) {
+      if ("..".equals(segment) && !segments.isEmpty() && !segments.peekLast().isEmpty()) {
+        segments.removeLast();
+      } else if (!".".equals(segment) && !(segment.isEmpty() && !segments.isEmpty())) {
+        segments.addLast(segment);
+      }
+    }
+    return String.join("/", segments);
+  }
+
+  private static String normalized(Path path) {
+    return path.toAbsolutePath().normalize().toString().replace('\\', '/');
+  }
+
+  private static class Definition {
+    List<String> files;
+    List<String> include;
+    List<String> exclude;
+    String outDir;
+    List<Path> extended = new ArrayList<>();
+
+    Definition() {
+    }
+
+    Definition(Path basePath, Definition base) {
+      this.files = base.files;
+      this.include = base.include;
+      this.exclude = base.exclude;
+      this.outDir = base.outDir;
+      this.extended.add(basePath);
+      this.extended.addAll(base.extended);
+    }
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.CheckForNull;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Finds the tsconfig file of files: the nearest one looking up the directories tree which includes the file according to its
+ * "files", "include" and "exclude" properties, then any other tsconfig file of the project including it.
+ * A file included by none of them is still part of the program of a tsconfig file when it is imported by an included file:
+ * as resolving imports is left to TypeScript, such a file is assigned to the nearest tsconfig file.
+ * Besides "tsconfig.json", files named like "tsconfig.app.json" are considered, "tsconfig.json" being preferred in a same directory.
+ * Project base directory is scanned once for tsconfig files, each one is parsed at most once, and the candidates of each directory are remembered.
+ * Other tsconfig files of the project are only matched against files below their roots (see {@link TsConfig#roots()}), which are indexed once.
+ * Directories which are not scanned ("node_modules" and directories outside of project base directory) are listed on the file system, once.
+ */
+class TsConfigResolver {
+
+  private static final Logger LOG = Loggers.get(TsConfigResolver.class);
+
+  static final String TSCONFIG = "tsconfig.json";
+  private static final String NODE_MODULES = "node_modules";
+  private static final Comparator<Path> TSCONFIG_FIRST = Comparator.<Path, Boolean>comparing(path -> !TSCONFIG.equals(path.getFileName().toString()))
+    .thenComparing(path -> path.getFileName().toString());
+
+  private final Path projectBaseDir;
+  // sorted, so that the same tsconfig file is preferred from one analysis to the other
+  private final Map<Path, List<Path>> tsConfigsByDirectory = new TreeMap<>();
+  private final Map<Path, List<Path>> candidatesByDirectory = new HashMap<>();
+  // lazily built from tsConfigsByDirectory
+  private Map<Path, List<Path>> scannedTsConfigsByRoot;
+  private final Map<Path, List<Path>> reachingTsConfigsByDirectory = new HashMap<>();
+  private final TsConfig.Loader loader = new TsConfig.Loader();
+
+  TsConfigResolver(File projectBaseDir) {
+    this.projectBaseDir = projectBaseDir.getAbsoluteFile().toPath().normalize();
+    scan();
+  }
+
+  private void scan() {
+    try {
+      Files.walkFileTree(projectBaseDir, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+          return isNodeModules(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          if (attrs.isRegularFile() && isTsConfig(file)) {
+            tsConfigsByDirectory.computeIfAbsent(file.getParent(), dir -> new ArrayList<>()).add(file);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+          LOG.debug("Failed to scan " + file, e);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to look for tsconfig.json files in " + projectBaseDir, e);
+    }
+    tsConfigsByDirectory.values().forEach(tsConfigs -> tsConfigs.sort(TSCONFIG_FIRST));
+  }
+
+  /**
+   * Returns the tsconfig file including the file, or null if there is none
+   */
+  @CheckForNull
+  File tsConfigOf(File file) {
+    List<File> tsConfigs = tsConfigsOf(file);
+    return tsConfigs.isEmpty() ? null : tsConfigs.get(0);
+  }
+
+  /**
+   * Returns all tsconfig files including the file, preferred one first
+   */
+  List<File> tsConfigsOf(File file) {
+    Path path = file.getAbsoluteFile().toPath().normalize();
+    Path directory = path.getParent();
+    List<Path> candidates = directory == null ? Collections.emptyList() : candidates(directory);
+    List<File> tsConfigs = new ArrayList<>();
+    for (Path candidate : candidates) {
+      if (loader.load(candidate).includes(path)) {
+        tsConfigs.add(candidate.toFile());
+      }
+    }
+    // e.g. "include": ["../shared/**/*"]
+    List<Path> reaching = directory == null ? Collections.emptyList() : reachingTsConfigs(directory);
+    for (Path tsConfig : reaching) {
+      if (!candidates.contains(tsConfig) && loader.load(tsConfig).includes(path)) {
+        tsConfigs.add(tsConfig.toFile());
+      }
+    }
+    if (tsConfigs.isEmpty() && !candidates.isEmpty()) {
+      // e.g. imported by a file listed in "files"
+      tsConfigs.add(candidates.get(0).toFile());
+    }
+    return tsConfigs;
+  }
+
+  /**
+   * Scanned tsconfig files with a root containing the directory, in scanning order
+   */
+  private List<Path> reachingTsConfigs(Path directory) {
+    List<Path> known = reachingTsConfigsByDirectory.get(directory);
+    if (known != null) {
+      return known;
+    }
+    Path parent = directory.getParent();
+    List<Path> reaching = parent == null ? Collections.emptyList() : reachingTsConfigs(parent);
+    List<Path> rootedHere = scannedTsConfigsByRoot().get(directory);
+    if (rootedHere != null) {
+      Set<Path> merged = new HashSet<>(reaching);
+      merged.addAll(rootedHere);
+      reaching = new ArrayList<>();
+      for (List<Path> scannedTsConfigs : tsConfigsByDirectory.values()) {
+        for (Path tsConfig : scannedTsConfigs) {
+          if (merged.contains(tsConfig)) {
+            reaching.add(tsConfig);
+          }
+        }
+      }
+    }
+    reachingTsConfigsByDirectory.put(directory, reaching);
+    return reaching;
+  }
+
+  private Map<Path, List<Path>> scannedTsConfigsByRoot() {
+    if (scannedTsConfigsByRoot == null) {
+      scannedTsConfigsByRoot = new HashMap<>();
+      for (List<Path> scannedTsConfigs : tsConfigsByDirectory.values()) {
+        for (Path tsConfig : scannedTsConfigs) {
+          for (String root : loader.load(tsConfig).roots()) {
+            Path rootPath = projectBaseDir.getFileSystem().getPath(root).normalize();
+            scannedTsConfigsByRoot.computeIfAbsent(rootPath, dir -> new ArrayList<>()).add(tsConfig);
+          }
+        }
+      }
+    }
+    return scannedTsConfigsByRoot;
+  }
+
+  /**
+   * tsconfig files of the directory and of its parents, nearest first, stopping at project base directory for directories inside it
+   */
+  private List<Path> candidates(Path directory) {
+    List<Path> known = candidatesByDirectory.get(directory);
+    if (known != null) {
+      return known;
+    }
+    List<Path> candidates = new ArrayList<>(tsConfigsOf(directory));
+    Path parent = directory.getParent();
+    if (parent != null && !directory.equals(projectBaseDir)) {
+      candidates.addAll(candidates(parent));
+    }
+    candidatesByDirectory.put(directory, candidates);
+    return candidates;
+  }
+
+  private List<Path> tsConfigsOf(Path directory) {
+    if (directory.startsWith(projectBaseDir) && !isInNodeModules(directory)) {
+      return tsConfigsByDirectory.getOrDefault(directory, Collections.emptyList());
+    }
+    List<Path> tsConfigs = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "tsconfig*.json")) {
+      stream.forEach(file -> {
+        if (Files.isRegularFile(file)) {
+          tsConfigs.add(file);
+        }
+      });
+    } catch (IOException e) {
+      LOG.debug("Failed to list " + directory, e);
+    }
+    tsConfigs.sort(TSCONFIG_FIRST);
+    return tsConfigs;
+  }
+
+  private static boolean isTsConfig(Path file) {
+    String name = file.getFileName().toString();
+    return name.startsWith("tsconfig") && name.endsWith(".json");
+  }
+
+  private boolean isInNodeModules(Path directory) {
+    for (Path name : projectBaseDir.relativize(directory)) {
+      if (NODE_MODULES.equals(name.toString())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isNodeModules(Path directory) {
+    Path name = directory.getFileName();
+    return name != null && NODE_MODULES.equals(name.toString());
+  }
+}
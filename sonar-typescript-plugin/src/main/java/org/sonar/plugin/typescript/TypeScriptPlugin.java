@@ -20,6 +20,7 @@
 package org.sonar.plugin.typescript;
 
 import org.sonar.api.Plugin;
+import org.sonar.api.PropertyType;
 import org.sonar.api.config.PropertyDefinition;
 import org.sonar.api.resources.Qualifiers;
 import org.sonar.plugin.typescript.executable.SonarTSCoreBundleFactory;
@@ -36,6 +37,27 @@ public class TypeScriptPlugin implements Plugin {
   public static final String LCOV_REPORT_PATHS = "sonar.typescript.lcov.reportPaths";
   public static final String LCOV_REPORT_PATHS_DEFAULT_VALUE = "";
 
+  public static final String DAEMON_KEY = "sonar.typescript.daemon";
+  private static final boolean DAEMON_DEFAULT_VALUE = false;
+
+  public static final String WORKERS_KEY = "sonar.typescript.workers";
+
+  public static final String MAX_FILES_PER_PROCESS_KEY = "sonar.typescript.maxFilesPerProcess";
+  public static final int MAX_FILES_PER_PROCESS_DEFAULT_VALUE = 1000;
+
+  public static final String CACHE_DIRECTORY_KEY = "sonar.typescript.cacheDirectory";
+
+  public static final String BINARY_METRICS_KEY = "sonar.typescript.metrics.binary";
+  private static final boolean BINARY_METRICS_DEFAULT_VALUE = false;
+
+  public static final String COMBINED_ANALYSIS_KEY = "sonar.typescript.combinedAnalysis";
+  private static final boolean COMBINED_ANALYSIS_DEFAULT_VALUE = false;
+
+  public static final String PROCESS_TIMEOUT_KEY = "sonar.typescript.processTimeout";
+  public static final long PROCESS_TIMEOUT_DEFAULT_VALUE = 1200;
+
+  public static final String NODE_MAX_HEAP_KEY = "sonar.typescript.node.maxHeapSize";
+
   @Override
   public void define(Context context) {
     context.addExtensions(
@@ -63,6 +85,80 @@ public class TypeScriptPlugin implements Plugin {
         .subCategory(TESTS_AND_COVERAGE_SUBCATEGORY)
         .category(TYPESCRIPT_CATEGORY)
         .multiValues(true)
+        .build(),
+      PropertyDefinition.builder(DAEMON_KEY)
+        .defaultValue(Boolean.toString(DAEMON_DEFAULT_VALUE))
+        .name("Analysis Server")
+        .description("Calculate metrics and run rules which need type information for all tsconfig.json files in a single long-lived node process "
+          + "instead of one process per tsconfig.json. Other rules are still run by separate processes.")
+        .subCategory(GENERAL_SUBCATEGORY)
+        .category(TYPESCRIPT_CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .type(PropertyType.BOOLEAN)
+        .build(),
+      PropertyDefinition.builder(WORKERS_KEY)
+        .name("Workers")
+        .description("Maximum number of tsconfig.json files analyzed concurrently. Defaults to the number of available processors.")
+        .subCategory(GENERAL_SUBCATEGORY)
+        .category(TYPESCRIPT_CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .type(PropertyType.INTEGER)
+        .build(),
+      PropertyDefinition.builder(MAX_FILES_PER_PROCESS_KEY)
+        .defaultValue(Integer.toString(MAX_FILES_PER_PROCESS_DEFAULT_VALUE))
+        .name("Max Files Per Process")
+        .description("Maximum number of files analyzed by a single node process, running rules or calculating metrics. More files, e.g. of a bigger tsconfig.json, are split in several batches.")
+        .subCategory(GENERAL_SUBCATEGORY)
+        .category(TYPESCRIPT_CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .type(PropertyType.INTEGER)
+        .build(),
+      PropertyDefinition.builder(CACHE_DIRECTORY_KEY)
+        .name("Analysis Cache Directory")
+        .description("Directory (absolute or relative to the project base directory) where results are kept between analyses, so that unchanged files are not analyzed again. "
+          + "Defaults to a directory of the module in \"sonarts-cache\" of the Sonar user home (\"sonar.userHome\"), where results not used by the last analysis are deleted. "
+          + "In a configured directory, which may be shared by several analyses, results are deleted when they were not used for 7 days.")
+        .subCategory(GENERAL_SUBCATEGORY)
+        .category(TYPESCRIPT_CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .build(),
+      PropertyDefinition.builder(BINARY_METRICS_KEY)
+        .defaultValue(Boolean.toString(BINARY_METRICS_DEFAULT_VALUE))
+        .name("Binary Metrics Protocol")
+        .description("Receive metrics, highlighting and duplication tokens from node in a compact binary encoding instead of JSON.")
+        .subCategory(GENERAL_SUBCATEGORY)
+        .category(TYPESCRIPT_CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .type(PropertyType.BOOLEAN)
+        .build(),
+      PropertyDefinition.builder(COMBINED_ANALYSIS_KEY)
+        .defaultValue(Boolean.toString(COMBINED_ANALYSIS_DEFAULT_VALUE))
+        .name("Combined Analysis")
+        .description("Calculate metrics and run rules of files included in a tsconfig.json with a single node process and program, instead of parsing these files in two processes.")
+        .subCategory(GENERAL_SUBCATEGORY)
+        .category(TYPESCRIPT_CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .type(PropertyType.BOOLEAN)
+        .build(),
+      PropertyDefinition.builder(PROCESS_TIMEOUT_KEY)
+        .defaultValue(Long.toString(PROCESS_TIMEOUT_DEFAULT_VALUE))
+        .name("Process Timeout")
+        .description("Maximum duration in seconds of a node process calculating metrics or running rules, or of a request to the analysis server. "
+          + "A process running longer is killed, results it reported before are kept.")
+        .subCategory(GENERAL_SUBCATEGORY)
+        .category(TYPESCRIPT_CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .type(PropertyType.INTEGER)
+        .build(),
+      PropertyDefinition.builder(NODE_MAX_HEAP_KEY)
+        .name("Node Max Heap Size")
+        .description("Maximum heap size in MB of a node process. The heap size of each process is estimated from the number and the size of its files, "
+          + "and raised when node runs out of memory, up to this value. "
+          + "Defaults to half of the memory of the container or of the host.")
+        .subCategory(GENERAL_SUBCATEGORY)
+        .category(TYPESCRIPT_CATEGORY)
+        .onQualifiers(Qualifiers.PROJECT)
+        .type(PropertyType.INTEGER)
         .build()
     );
   }
@@ -26,10 +26,44 @@ import org.sonar.plugin.typescript.rules.TypeScriptRules;
 
 public interface ExecutableBundle {
 
+  /**
+   * Command running rules which need type information, with a type-checked program of the tsconfig.json
+   */
   Command getTslintCommand(String tsconfigPath, Collection<InputFile> inputFiles);
 
+  /**
+   * Command running rules which do not need type information, on each file on its own
+   */
+  Command getSyntacticTslintCommand(Collection<InputFile> inputFiles);
+
   Command getTsMetricsCommand();
 
+  /**
+   * Command calculating metrics, answering with the binary encoding of "sonarts-core/bin/metrics.js" when {@code binary} is true and this encoding is supported,
+   * with JSON otherwise
+   */
+  default Command getTsMetricsCommand(boolean binary) {
+    return getTsMetricsCommand();
+  }
+
+  /**
+   * Command running rules which need type information on {@code inputFiles} of a tsconfig.json and calculating metrics of {@code filesToMeasure} with a single node process,
+   * answering with one JSON record per line, either {@code {"metrics": ...}} or {@code {"failure": ...}}
+   */
+  Command getAnalyzeCommand(String tsconfigPath, Collection<InputFile> inputFiles, Collection<InputFile> filesToMeasure);
+
+  /**
+   * Command starting the long-lived node process driven by {@link SonarTSServer}, running rules which need type information
+   */
+  Command getTsServerCommand();
+
   void activateRules(TypeScriptRules typeScriptRules);
 
+  /**
+   * Deletes temporary files written to build {@code command}, once the process running it exited
+   */
+  default void cleanUp(Command command) {
+    // nothing to delete by default
+  }
+
 }
@@ -23,4 +23,12 @@ import java.io.File;
 
 public interface ExecutableBundleFactory {
   ExecutableBundle createAndDeploy(File deployDestination);
+
+  /**
+   * Same as {@link #createAndDeploy(File)}, with the Sonar user home of the analysis, where data is kept between analyses,
+   * and the base directory of the analyzed project, from which node modules of the project (e.g. "typescript") are resolved
+   */
+  default ExecutableBundle createAndDeploy(File deployDestination, File userHome, File baseDir) {
+    return createAndDeploy(deployDestination);
+  }
 }
@@ -19,23 +19,47 @@
  */
 package org.sonar.plugin.typescript.executable;
 
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 import org.apache.commons.io.FileUtils;
+import javax.annotation.Nullable;
 import org.apache.commons.io.IOUtils;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.utils.command.Command;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
+import org.sonar.api.utils.log.Profiler;
+import org.sonar.plugin.typescript.AnalysisEvents;
+import org.sonar.plugin.typescript.rules.TypeScriptRule;
 import org.sonar.plugin.typescript.rules.TypeScriptRules;
 
 public class SonarTSCoreBundle implements ExecutableBundle {
@@ -43,59 +67,144 @@ public class SonarTSCoreBundle implements ExecutableBundle {
   private static final Logger LOG = Loggers.get(SonarTSCoreBundle.class);
 
   // relative location inside sonarts-core bundle
-  private static final String TSLINT_LOCATION = "node_modules/tslint/bin/tslint";
+  private static final String TSLINT_LOCATION = "bin/tslint-files.js";
   private static final String SONAR_LOCATION = "node_modules/tslint-sonarts/bin/tsmetrics";
+  private static final String SERVER_LOCATION = "bin/sonarts-server.js";
+  private static final String BINARY_METRICS_LOCATION = "bin/tsmetrics-binary.js";
+  private static final String ANALYZE_LOCATION = "bin/sonarts-analyze.js";
+  private static final String FORMATTERS_LOCATION = "formatters";
+  private static final List<String> FILE_LIST_OPTIONS = Arrays.asList("--files-from", "--metrics-from");
+
+  private static final String MARKER = ".deployed";
+  private static final String NODE_PATH = "NODE_PATH";
+
+  // only rules needing type information, only other rules
+  private static final String TYPE_AWARE_CONFIG = "tslint-type-aware.json";
+  private static final String SYNTACTIC_CONFIG = "tslint-syntactic.json";
+  private static final int EXTRACTION_THREADS = 4;
+  private static final int MAX_PENDING_WRITES = 256;
+  // same JVM can't hold twice the lock of a file
+  private static final Object DEPLOY_LOCK = new Object();
+  private static final Map<String, String> BUNDLE_HASHES = new ConcurrentHashMap<>();
 
   private File deployDestination;
   private String bundleLocation;
   private File tslintExecutable;
   private File tsMetricsExecutable;
+  private File tsServerExecutable;
+  private File sonartsCoreDir;
+  @Nullable
+  private String nodePath;
 
 
-  private SonarTSCoreBundle(String bundleLocation, File deployDestination) {
+  private SonarTSCoreBundle(String bundleLocation, File deployDestination, File bundleDir, @Nullable File baseDir) {
     this.bundleLocation = bundleLocation;
     this.deployDestination = deployDestination;
+    this.nodePath = baseDir == null ? null : nodePath(baseDir);
 
-    File sonartsCoreDir = new File(deployDestination, "sonarts-core");
+    this.sonartsCoreDir = new File(bundleDir, "sonarts-core");
 
     this.tslintExecutable = new File(sonartsCoreDir, TSLINT_LOCATION);
     this.tsMetricsExecutable = new File(sonartsCoreDir, SONAR_LOCATION);
+    this.tsServerExecutable = new File(sonartsCoreDir, SERVER_LOCATION);
   }
 
-  static SonarTSCoreBundle createAndDeploy(String bundleLocation, File deployDestination) {
-    LOG.debug(String.format("Deploying bundle from `%s` to `%s`", bundleLocation, deployDestination.getAbsolutePath()));
-    SonarTSCoreBundle sonarTSCoreBundle = new SonarTSCoreBundle(bundleLocation, deployDestination);
-    sonarTSCoreBundle.deploy();
+  /**
+   * Bundle is extracted once to a sub-directory of {@code bundlesRoot} named after its checksum, and shared by all analyses using the same bundle.
+   * Rules configuration of the analysis is written to {@code deployDestination}, as well as lists of files until {@link #cleanUp} is called.
+   * The bundle does not contain "typescript", which node finds by walking up from the bundle only when it is extracted inside the project:
+   * when {@code baseDir} is given, node also looks for modules in "node_modules" of the project and of its parent directories.
+   */
+  static SonarTSCoreBundle createAndDeploy(String bundleLocation, File deployDestination, File bundlesRoot, @Nullable File baseDir) {
+    try (AnalysisEvents.Span span = AnalysisEvents.bundleDeploy(bundleLocation)) {
+      File bundleDir = new File(bundlesRoot, bundleHash(bundleLocation));
+      LOG.debug(String.format("Deploying bundle from `%s` to `%s`", bundleLocation, bundleDir.getAbsolutePath()));
+      deploy(bundleLocation, bundleDir);
+      return new SonarTSCoreBundle(bundleLocation, deployDestination, bundleDir, baseDir);
 
-    return sonarTSCoreBundle;
+    } catch (Exception e) {
+      throw new IllegalStateException("Failed to deploy SonarTS bundle (with classpath '" + bundleLocation + "')", e);
+    }
+  }
+
+  private static String bundleHash(String bundleLocation) throws IOException {
+    String hash = BUNDLE_HASHES.get(bundleLocation);
+    if (hash == null) {
+      try (HashingInputStream bundle = new HashingInputStream(Hashing.sha256(), getResource(bundleLocation))) {
+        ByteStreams.copy(bundle, ByteStreams.nullOutputStream());
+        hash = bundle.hash().toString();
+      }
+      BUNDLE_HASHES.put(bundleLocation, hash);
+    }
+    return hash;
   }
 
   /**
-   * Extracting "sonarts-core.zip" (containing typescript, tslint and tslint-sonarts)
-   * to deployDestination (".sonar" directory of the analyzed project).
+   * Same directories as node resolution walking up from {@code baseDir}, nearest first
    */
-  private void deploy() {
-    try {
-      File copiedFile = copyTo(deployDestination);
-      extract(copiedFile);
-      Files.delete(copiedFile.toPath());
+  private static String nodePath(File baseDir) {
+    List<String> directories = new ArrayList<>();
+    for (File directory = baseDir.getAbsoluteFile(); directory != null; directory = directory.getParentFile()) {
+      if (!"node_modules".equals(directory.getName())) {
+        directories.add(new File(directory, "node_modules").getPath());
+      }
+    }
+    return String.join(File.pathSeparator, directories);
+  }
 
-    } catch (Exception e) {
-      throw new IllegalStateException("Failed to deploy SonarTS bundle (with classpath '" + bundleLocation + "')", e);
+  /**
+   * Extracting "sonarts-core.zip" (containing tslint and tslint-sonarts, while typescript is the one of the analyzed project) to {@code bundleDir}, unless it was already done.
+   * Bundle is extracted to a temporary directory, which is renamed to {@code bundleDir} once complete, under a file lock,
+   * so that concurrent analyses on the same machine never see a partially extracted bundle.
+   */
+  private static void deploy(String bundleLocation, File bundleDir) throws IOException {
+    String hash = bundleDir.getName();
+    if (isDeployed(bundleDir, hash)) {
+      LOG.debug("SonarTS bundle already deployed");
+      return;
+    }
+    File bundlesRoot = bundleDir.getParentFile();
+    Files.createDirectories(bundlesRoot.toPath());
+    synchronized (DEPLOY_LOCK) {
+      try (FileChannel lockChannel = FileChannel.open(new File(bundlesRoot, hash + ".lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = lockChannel.lock()) {
+        if (isDeployed(bundleDir, hash)) {
+          return;
+        }
+        if (bundleDir.exists()) {
+          // left by an interrupted deployment
+          FileUtils.deleteDirectory(bundleDir);
+        }
+        Path tmpDir = Files.createTempDirectory(bundlesRoot.toPath(), hash + ".tmp");
+        try {
+          Profiler profiler = Profiler.create(LOG).startInfo("Extracting SonarTS bundle");
+          extract(bundleLocation, tmpDir);
+          profiler.stopInfo();
+          Files.write(tmpDir.resolve(MARKER), hash.getBytes(StandardCharsets.UTF_8));
+          Files.move(tmpDir, bundleDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+          FileUtils.deleteQuietly(tmpDir.toFile());
+        }
+      }
     }
   }
 
+  private static boolean isDeployed(File bundleDir, String hash) throws IOException {
+    File marker = new File(bundleDir, MARKER);
+    return marker.isFile() && hash.equals(new String(Files.readAllBytes(marker.toPath()), StandardCharsets.UTF_8));
+  }
+
   /**
    * Builds command to run tslint
    */
   @Override
   public Command getTslintCommand(String tsconfigPath, Collection<InputFile> inputFiles) {
-    File sonartsCoreDir = new File(deployDestination, "sonarts-core");
-
-    Command command = Command.create("node");
+    Command command = nodeCommand();
     command.addArgument(tslintExecutable.getAbsolutePath());
-    command.addArgument("--config").addArgument(new File(sonartsCoreDir, "tslint.json").getAbsolutePath());
-    command.addArgument("--format").addArgument("json");
+    command.addArgument("--config").addArgument(getTsLintConfigPath(TYPE_AWARE_CONFIG).toString());
+    // one failure per line, so that failures can be processed while reading the output
+    command.addArgument("--formatters-dir").addArgument(new File(sonartsCoreDir, FORMATTERS_LOCATION).getAbsolutePath());
+    command.addArgument("--format").addArgument("ndjson");
     // "--force" parameter will force execution of the rules even in case of compilation error
     command.addArgument("--force");
 
@@ -103,60 +212,200 @@ public class SonarTSCoreBundle implements ExecutableBundle {
       .addArgument("--project")
       .addArgument(tsconfigPath);
 
-    for (InputFile inputFile : inputFiles) {
-      command.addArgument(inputFile.absolutePath());
+    // files are not passed as arguments to not exceed maximum command line length
+    command.addArgument("--files-from").addArgument(writeFileList(inputFiles).getAbsolutePath());
+
+    return command;
+  }
+
+  /**
+   * Builds command to run tslint with rules which do not need type information: no program is created, each file is parsed on its own
+   */
+  @Override
+  public Command getSyntacticTslintCommand(Collection<InputFile> inputFiles) {
+    Command command = nodeCommand();
+    command.addArgument(tslintExecutable.getAbsolutePath());
+    command.addArgument("--config").addArgument(getTsLintConfigPath(SYNTACTIC_CONFIG).toString());
+    command.addArgument("--formatters-dir").addArgument(new File(sonartsCoreDir, FORMATTERS_LOCATION).getAbsolutePath());
+    command.addArgument("--format").addArgument("ndjson");
+    command.addArgument("--force");
+    command.addArgument("--files-from").addArgument(writeFileList(inputFiles).getAbsolutePath());
+    return command;
+  }
+
+  /**
+   * Builds command to run "sonarts-analyze", which calculates metrics and runs rules with the same program
+   */
+  @Override
+  public Command getAnalyzeCommand(String tsconfigPath, Collection<InputFile> inputFiles, Collection<InputFile> filesToMeasure) {
+    Command command = nodeCommand();
+    command.addArgument(new File(sonartsCoreDir, ANALYZE_LOCATION).getAbsolutePath());
+    command.addArgument("--config").addArgument(getTsLintConfigPath(TYPE_AWARE_CONFIG).toString());
+    command.addArgument("--project").addArgument(tsconfigPath);
+    command.addArgument("--files-from").addArgument(writeFileList(inputFiles).getAbsolutePath());
+    if (!filesToMeasure.isEmpty()) {
+      command.addArgument("--metrics-from").addArgument(writeFileList(filesToMeasure).getAbsolutePath());
     }
+    return command;
+  }
 
+  private Command nodeCommand() {
+    Command command = Command.create("node");
+    if (nodePath != null) {
+      // environment of the command is initialized with the one of the scanner
+      String inherited = command.getEnvironmentVariables().get(NODE_PATH);
+      command.setEnvironmentVariable(NODE_PATH, inherited == null || inherited.isEmpty() ? nodePath : (nodePath + File.pathSeparator + inherited));
+    }
     return command;
   }
 
+  private File writeFileList(Collection<InputFile> inputFiles) {
+    List<String> paths = inputFiles.stream().map(InputFile::absolutePath).collect(Collectors.toList());
+    try {
+      // left to the scanner, which cleans the work directory, when the analysis does not end normally
+      Path fileList = Files.createTempFile(deployDestination.toPath(), "sonarts-files-", ".txt");
+      Files.write(fileList, paths, StandardCharsets.UTF_8);
+      return fileList.toFile();
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to write list of files to analyze", e);
+    }
+  }
+
+  /**
+   * Deletes the lists of files written for {@code command}
+   */
+  @Override
+  public void cleanUp(Command command) {
+    List<String> arguments = command.getArguments();
+    for (int i = 0; i < arguments.size() - 1; i++) {
+      if (FILE_LIST_OPTIONS.contains(arguments.get(i))) {
+        Path fileList = new File(arguments.get(i + 1)).toPath();
+        try {
+          Files.deleteIfExists(fileList);
+        } catch (IOException e) {
+          LOG.debug("Failed to delete " + fileList, e);
+        }
+      }
+    }
+  }
+
   /**
    * Builds command to run "sonar", which is making side information calculation (metrics, highlighting etc.)
    */
   @Override
   public Command getTsMetricsCommand() {
-    Command command = Command.create("node");
+    Command command = nodeCommand();
     command.addArgument(this.tsMetricsExecutable.getAbsolutePath());
     return command;
   }
 
-  private File copyTo(File targetPath) throws IOException {
-    File destination = new File(targetPath, bundleLocation);
-    FileUtils.copyInputStreamToFile(getClass().getResourceAsStream(bundleLocation), destination);
-    return destination;
+  @Override
+  public Command getTsMetricsCommand(boolean binary) {
+    if (!binary) {
+      return getTsMetricsCommand();
+    }
+    Command command = nodeCommand();
+    command.addArgument(new File(sonartsCoreDir, BINARY_METRICS_LOCATION).getAbsolutePath());
+    return command;
   }
 
-  /*
-   * A minor variant of code found here : https://stackoverflow.com/a/13912353/7672957
+  /**
+   * Builds command to start the analysis server, answering both metrics requests and requests running rules which need type information
+   * from a single node process
+   */
+  @Override
+  public Command getTsServerCommand() {
+    Command command = nodeCommand();
+    command.addArgument(this.tsServerExecutable.getAbsolutePath());
+    command.addArgument(getTsLintConfigPath(TYPE_AWARE_CONFIG).toString());
+    return command;
+  }
+
+  private static InputStream getResource(String bundleLocation) throws IOException {
+    InputStream resource = SonarTSCoreBundle.class.getResourceAsStream(bundleLocation);
+    if (resource == null) {
+      throw new IOException("Resource not found: " + bundleLocation);
+    }
+    return resource;
+  }
+
+  /**
+   * Entries are read from the classpath resource as a stream, while files are written by a few threads:
+   * the bundle contains tens of thousands of small files, for which file creation costs more than reading the zip.
    */
-  private static void extract(File copiedFile) throws IOException {
-    try (ZipFile zipFile = new ZipFile(copiedFile)) {
-      Enumeration<? extends ZipEntry> entries = zipFile.entries();
-      while (entries.hasMoreElements()) {
-        ZipEntry entry = entries.nextElement();
-        File entryDestination = new File(copiedFile.getParent(), entry.getName());
+  private static void extract(String bundleLocation, Path destination) throws IOException {
+    ExecutorService writers = Executors.newFixedThreadPool(EXTRACTION_THREADS, new ThreadFactoryBuilder().setNameFormat("sonarts-extract-%d").setDaemon(true).build());
+    // bounds the number of extracted files waiting to be written
+    Semaphore pendingWrites = new Semaphore(MAX_PENDING_WRITES);
+    List<Future<?>> writes = new ArrayList<>();
+    Set<Path> createdDirectories = new HashSet<>();
+    try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(getResource(bundleLocation)))) {
+      ZipEntry entry = zip.getNextEntry();
+      if (entry == null) {
+        // unlike ZipFile, ZipInputStream does not complain about content which is not a zip
+        throw new IOException(bundleLocation + " is not a valid zip file");
+      }
+      for (; entry != null; entry = zip.getNextEntry()) {
+        Path entryDestination = destination.resolve(entry.getName()).normalize();
+        if (!entryDestination.startsWith(destination)) {
+          throw new IOException("Invalid zip entry " + entry.getName());
+        }
         if (entry.isDirectory()) {
-          entryDestination.mkdirs();
+          createDirectories(entryDestination, createdDirectories);
         } else {
-          entryDestination.getParentFile().mkdirs();
-          InputStream in = zipFile.getInputStream(entry);
-          OutputStream out = new FileOutputStream(entryDestination);
-          IOUtils.copy(in, out);
-          IOUtils.closeQuietly(in);
-          out.close();
+          createDirectories(entryDestination.getParent(), createdDirectories);
+          byte[] content = IOUtils.toByteArray(zip);
+          pendingWrites.acquireUninterruptibly();
+          writes.add(writers.submit(() -> {
+            try {
+              Files.write(entryDestination, content);
+            } finally {
+              pendingWrites.release();
+            }
+            return null;
+          }));
         }
       }
+      for (Future<?> write : writes) {
+        write.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while extracting " + bundleLocation, e);
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to extract " + bundleLocation, e.getCause());
+    } finally {
+      writers.shutdownNow();
+    }
+  }
+
+  private static void createDirectories(Path directory, Set<Path> createdDirectories) throws IOException {
+    if (createdDirectories.add(directory)) {
+      Files.createDirectories(directory);
     }
   }
 
   @Override
   public void activateRules(TypeScriptRules typeScriptRules) {
-    TsLintConfig config = new TsLintConfig();
-    typeScriptRules.forEach(config::addRule);
-    config.save(getTsLintConfigPath());
+    TsLintConfig syntacticConfig = new TsLintConfig();
+    TsLintConfig typeAwareConfig = new TsLintConfig();
+    for (TypeScriptRule rule : typeScriptRules) {
+      if (rule.requiresTypeCheck()) {
+        typeAwareConfig.addRule(rule);
+        syntacticConfig.disableRule(rule);
+      } else {
+        syntacticConfig.addRule(rule);
+        typeAwareConfig.disableRule(rule);
+      }
+    }
+    syntacticConfig.save(getTsLintConfigPath(SYNTACTIC_CONFIG));
+    typeAwareConfig.save(getTsLintConfigPath(TYPE_AWARE_CONFIG));
   }
 
-  private Path getTsLintConfigPath() {
-    return deployDestination.toPath().resolve("sonarts-core/tslint.json");
+  /**
+   * Configuration extends "tslint-sonarts", which tslint resolves from its own location when not found from the configuration location
+   */
+  private Path getTsLintConfigPath(String fileName) {
+    return deployDestination.toPath().resolve(fileName);
   }
 }
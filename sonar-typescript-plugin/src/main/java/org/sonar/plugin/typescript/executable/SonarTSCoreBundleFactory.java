@@ -20,6 +20,7 @@
 package org.sonar.plugin.typescript.executable;
 
 import java.io.File;
+import javax.annotation.Nullable;
 import org.sonar.api.batch.BatchSide;
 import org.sonar.api.batch.ScannerSide;
 import org.sonarsource.api.sonarlint.SonarLintSide;
@@ -29,14 +30,34 @@ import org.sonarsource.api.sonarlint.SonarLintSide;
 @SonarLintSide
 public class SonarTSCoreBundleFactory implements ExecutableBundleFactory{
 
+  private static final String BUNDLES_DIRECTORY = "sonarts-core";
+
   private String bundleLocation;
+  @Nullable
+  private File bundlesRoot;
 
+  /**
+   * Bundles are extracted to the Sonar user home of the analysis, or to the deploy destination when it is not known
+   */
   public SonarTSCoreBundleFactory(String bundleLocation) {
+    this(bundleLocation, null);
+  }
+
+  /**
+   * @param bundlesRoot directory where bundles are extracted, shared between analyses
+   */
+  public SonarTSCoreBundleFactory(String bundleLocation, @Nullable File bundlesRoot) {
     this.bundleLocation = bundleLocation;
+    this.bundlesRoot = bundlesRoot;
   }
 
   @Override
   public SonarTSCoreBundle createAndDeploy(File deployDestination) {
-    return SonarTSCoreBundle.createAndDeploy(bundleLocation, deployDestination);
+    return SonarTSCoreBundle.createAndDeploy(bundleLocation, deployDestination, bundlesRoot == null ? deployDestination : bundlesRoot, null);
+  }
+
+  @Override
+  public SonarTSCoreBundle createAndDeploy(File deployDestination, File userHome, File baseDir) {
+    return SonarTSCoreBundle.createAndDeploy(bundleLocation, deployDestination, bundlesRoot == null ? new File(userHome, BUNDLES_DIRECTORY) : bundlesRoot, baseDir);
   }
 }
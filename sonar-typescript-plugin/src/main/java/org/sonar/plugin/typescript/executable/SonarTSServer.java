@@ -0,0 +1,271 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript.executable;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Client of the long-lived node process started with {@link ExecutableBundle#getTsServerCommand()}, which is started by the sensor like other node processes
+ * (see {@link ServerProcess}).
+ * Each request is a JSON document sent as a length-prefixed frame on the process stdin, the response is read from stdout
+ * as a sequence of length-prefixed chunks ended by an empty chunk, so that the server writes records as soon as they are available.
+ * Requests are sequential: the response of a request must be consumed before sending the next one.
+ * A watchdog kills the server when a response is not completely read within the timeout, after which every request fails.
+ */
+public class SonarTSServer implements Closeable {
+
+  private static final Logger LOG = Loggers.get(SonarTSServer.class);
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+  private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(
+    new ThreadFactoryBuilder().setNameFormat("sonarts-server-watchdog").setDaemon(true).build());
+
+  private final String commandLine;
+  private final ServerProcess process;
+  private final long timeoutSeconds;
+  private final AtomicBoolean killed = new AtomicBoolean();
+  private final DataOutputStream toServer;
+  private final DataInputStream fromServer;
+
+  /**
+   * {@code timeoutSeconds} bounds the time of each request, from its sending to the end of its response
+   */
+  public SonarTSServer(String commandLine, ServerProcess process, long timeoutSeconds) {
+    this.commandLine = commandLine;
+    this.process = process;
+    this.timeoutSeconds = timeoutSeconds;
+    this.toServer = new DataOutputStream(process.getOutputStream());
+    this.fromServer = new DataInputStream(process.getInputStream());
+  }
+
+  /**
+   * Returns the stream of the response to "metrics" request, i.e. the same JSON array as produced by "tsmetrics"
+   */
+  public Reader metrics(Collection<String> filepaths) throws IOException {
+    JsonObject request = new JsonObject();
+    request.addProperty("type", "metrics");
+    request.add("filepaths", new Gson().toJsonTree(filepaths));
+    return request(request);
+  }
+
+  /**
+   * Returns the stream of the response to "lint" request, i.e. the same JSON array as produced by "tslint --format json"
+   */
+  public Reader lint(String tsconfigPath, Collection<InputFile> inputFiles) throws IOException {
+    JsonObject request = new JsonObject();
+    request.addProperty("type", "lint");
+    request.addProperty("tsconfig", tsconfigPath);
+    JsonArray files = new JsonArray();
+    inputFiles.forEach(inputFile -> files.add(inputFile.absolutePath()));
+    request.add("files", files);
+    return request(request);
+  }
+
+  /**
+   * Fails when the server stopped, e.g. killed by the watchdog, before the end of the response frame is read
+   */
+  private Reader request(JsonObject request) throws IOException {
+    if (killed.get()) {
+      throw new IOException(String.format("SonarTS server `%s` was killed", commandLine));
+    }
+    ScheduledFuture<?> watchdog = WATCHDOG.schedule(this::kill, timeoutSeconds, TimeUnit.SECONDS);
+    try {
+      byte[] payload = request.toString().getBytes(StandardCharsets.UTF_8);
+      toServer.writeInt(payload.length);
+      toServer.write(payload);
+      toServer.flush();
+
+      return new InputStreamReader(new FrameInputStream(fromServer, () -> watchdog.cancel(false)), StandardCharsets.UTF_8);
+
+    } catch (IOException e) {
+      watchdog.cancel(false);
+      throw new IOException(String.format("SonarTS server `%s` stopped unexpectedly", commandLine), e);
+    }
+  }
+
+  /**
+   * False once the server was killed by the watchdog or stopped by itself
+   */
+  public boolean isAlive() {
+    return !killed.get() && process.isAlive();
+  }
+
+  private void kill() {
+    if (process.isAlive() && killed.compareAndSet(false, true)) {
+      LOG.error(String.format("SonarTS server did not answer in %d seconds, killing it: `%s`", timeoutSeconds, commandLine));
+      process.destroy();
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      if (process.isAlive()) {
+        stop();
+      }
+    } finally {
+      process.destroy();
+    }
+    String errors = process.errors();
+    if (!errors.isEmpty()) {
+      LOG.debug(errors);
+    }
+  }
+
+  private void stop() {
+    JsonObject close = new JsonObject();
+    close.addProperty("type", "close");
+    try {
+      byte[] payload = close.toString().getBytes(StandardCharsets.UTF_8);
+      toServer.writeInt(payload.length);
+      toServer.write(payload);
+      toServer.close();
+      if (!process.waitFor(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        LOG.warn(String.format("SonarTS server `%s` did not stop in %d seconds, killing it", commandLine, SHUTDOWN_TIMEOUT_SECONDS));
+      }
+    } catch (IOException e) {
+      LOG.debug("Failed to send close request to SonarTS server", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Node process of the server, whose error output is read from the start
+   */
+  public interface ServerProcess {
+
+    InputStream getInputStream();
+
+    OutputStream getOutputStream();
+
+    boolean isAlive();
+
+    /**
+     * Returns false when the process is still running after {@code timeout}
+     */
+    boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Kills the process, without waiting for its end
+     */
+    void destroy();
+
+    /**
+     * Returns the error output of the process, to be called once the process is finished
+     */
+    String errors();
+  }
+
+  /**
+   * Exposes the payload of a single response, i.e. its chunks up to the empty one, leaving the underlying stream positioned on the next
+   * response once consumed or closed. {@code onEnd} is run once the empty chunk is read.
+   */
+  private static class FrameInputStream extends InputStream {
+
+    private final DataInputStream in;
+    private final Runnable onEnd;
+    private int remaining;
+    private boolean ended;
+
+    FrameInputStream(DataInputStream in, Runnable onEnd) throws IOException {
+      this.in = in;
+      this.onEnd = onEnd;
+      nextChunk();
+    }
+
+    /**
+     * Returns false once the empty chunk is read
+     */
+    private boolean nextChunk() throws IOException {
+      while (!ended && remaining == 0) {
+        remaining = in.readInt();
+        if (remaining == 0) {
+          ended = true;
+          onEnd.run();
+        }
+      }
+      return !ended;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!nextChunk()) {
+        return -1;
+      }
+      int b = in.read();
+      if (b < 0) {
+        throw new IOException("Unexpected end of response frame");
+      }
+      remaining--;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!nextChunk()) {
+        return -1;
+      }
+      int read = in.read(buffer, offset, Math.min(length, remaining));
+      if (read < 0) {
+        throw new IOException("Unexpected end of response frame");
+      }
+      remaining -= read;
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      while (nextChunk()) {
+        long skipped = in.skip(remaining);
+        if (skipped <= 0) {
+          if (in.read() < 0) {
+            return;
+          }
+          skipped = 1;
+        }
+        remaining -= skipped;
+      }
+    }
+  }
+}
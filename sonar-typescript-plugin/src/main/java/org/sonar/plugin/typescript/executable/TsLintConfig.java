@@ -46,6 +46,11 @@ class TsLintConfig {
     rules.add(rule.tsLintKey(), rule.configuration());
   }
 
+  void disableRule(TypeScriptRule rule) {
+    JsonObject rules = config.getAsJsonObject("rules");
+    rules.addProperty(rule.tsLintKey(), false);
+  }
+
   void save(Path configPath) {
     Gson gson = new GsonBuilder().setPrettyPrinting().create();
     try {
@@ -29,6 +29,7 @@ import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.batch.sensor.SensorDescriptor;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
+import org.sonar.plugin.typescript.PerformanceReport;
 import org.sonar.plugin.typescript.TypeScriptLanguage;
 import org.sonar.plugin.typescript.TypeScriptPlugin;
 
@@ -66,8 +67,13 @@ public class LCOVCoverageSensor implements Sensor {
 
     LOG.info("Analysing {}", lcovReportFiles);
 
+    PerformanceReport report = new PerformanceReport("lcov");
     LCOVParser parser = new LCOVParser(context);
-    parser.parseReportsAndSaveCoverage(lcovReportFiles);
+    try (PerformanceReport.Timer timer = report.start("parsing and saving coverage")) {
+      parser.parseReportsAndSaveCoverage(lcovReportFiles);
+    }
+    lcovReportFiles.forEach(lcovReportFile -> report.addBytesRead(lcovReportFile.length()));
+    report.setFiles(parser.coveredFiles());
 
     List<String> unresolvedPaths = parser.unresolvedPaths();
     if (!unresolvedPaths.isEmpty()) {
@@ -76,6 +82,7 @@ public class LCOVCoverageSensor implements Sensor {
           "Could not resolve %d file paths in %s, first unresolved path: %s",
           unresolvedPaths.size(), lcovReportFiles, unresolvedPaths.get(0)));
     }
+    report.write(context.fileSystem().workDir());
   }
 
   /**
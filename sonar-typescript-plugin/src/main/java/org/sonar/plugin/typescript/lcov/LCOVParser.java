@@ -49,6 +49,7 @@ public final class LCOVParser {
 
   private final SensorContext context;
   private final List<String> unresolvedPaths = Lists.newArrayList();
+  private int coveredFiles = 0;
 
   private static final Logger LOG = Loggers.get(LCOVParser.class);
 
@@ -74,6 +75,10 @@ public final class LCOVParser {
     return unresolvedPaths;
   }
 
+  int coveredFiles() {
+    return coveredFiles;
+  }
+
   private void parse(List<String> lines) {
     final Map<InputFile, FileData> files = Maps.newHashMap();
     FileData fileData = null;
@@ -99,6 +104,7 @@ public final class LCOVParser {
       NewCoverage newCoverage = context.newCoverage().onFile(e.getKey());
       e.getValue().save(newCoverage);
     }
+    coveredFiles += files.size();
   }
 
   private static void parseBranchCoverage(FileData fileData, int reportLineNum, String line) {
@@ -28,4 +28,9 @@ public class AwaitPromise extends TypeScriptRule {
   public String tsLintKey() {
     return "await-promise";
   }
+
+  @Override
+  public boolean requiresTypeCheck() {
+    return true;
+  }
 }
@@ -28,4 +28,9 @@ public class Deprecation extends TypeScriptRule {
   public String tsLintKey() {
     return "deprecation";
   }
+
+  @Override
+  public boolean requiresTypeCheck() {
+    return true;
+  }
 }
@@ -29,4 +29,9 @@ public class NoArrayDelete extends TypeScriptRule {
   public String tsLintKey() {
     return "no-array-delete";
   }
+
+  @Override
+  public boolean requiresTypeCheck() {
+    return true;
+  }
 }
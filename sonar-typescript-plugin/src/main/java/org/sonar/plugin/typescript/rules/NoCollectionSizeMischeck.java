@@ -28,4 +28,9 @@ public class NoCollectionSizeMischeck extends TypeScriptRule {
   public String tsLintKey() {
     return "no-collection-size-mischeck";
   }
+
+  @Override
+  public boolean requiresTypeCheck() {
+    return true;
+  }
 }
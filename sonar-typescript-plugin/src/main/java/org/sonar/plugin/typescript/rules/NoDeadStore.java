@@ -28,4 +28,9 @@ public class NoDeadStore extends TypeScriptRule {
   public String tsLintKey() {
     return "no-dead-store";
   }
+
+  @Override
+  public boolean requiresTypeCheck() {
+    return true;
+  }
 }
@@ -28,4 +28,9 @@ public class NoForInArray extends TypeScriptRule {
   public String tsLintKey() {
     return "no-for-in-array";
   }
+
+  @Override
+  public boolean requiresTypeCheck() {
+    return true;
+  }
 }
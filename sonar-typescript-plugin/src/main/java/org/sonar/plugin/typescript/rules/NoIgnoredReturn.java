@@ -28,4 +28,9 @@ public class NoIgnoredReturn extends TypeScriptRule {
   public String tsLintKey() {
     return "no-ignored-return";
   }
+
+  @Override
+  public boolean requiresTypeCheck() {
+    return true;
+  }
 }
@@ -28,4 +28,9 @@ public class NoMisleadingArrayReverse extends TypeScriptRule {
   public String tsLintKey() {
     return "no-misleading-array-reverse";
   }
+
+  @Override
+  public boolean requiresTypeCheck() {
+    return true;
+  }
 }
@@ -27,4 +27,9 @@ public class NoUseOfEmptyReturnValue extends TypeScriptRule {
   public String tsLintKey() {
     return "no-use-of-empty-return-value";
   }
+
+  @Override
+  public boolean requiresTypeCheck() {
+    return true;
+  }
 }
@@ -28,4 +28,9 @@ public class NoVariableUsageBeforeDeclaration extends TypeScriptRule {
   public String tsLintKey() {
     return "no-variable-usage-before-declaration";
   }
+
+  @Override
+  public boolean requiresTypeCheck() {
+    return true;
+  }
 }
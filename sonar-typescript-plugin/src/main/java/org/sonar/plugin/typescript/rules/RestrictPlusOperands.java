@@ -28,4 +28,9 @@ public class RestrictPlusOperands extends TypeScriptRule {
   public String tsLintKey() {
     return "restrict-plus-operands";
   }
+
+  @Override
+  public boolean requiresTypeCheck() {
+    return true;
+  }
 }
@@ -43,6 +43,14 @@ public abstract class TypeScriptRule {
 
   public abstract String tsLintKey();
 
+  /**
+   * Rules which need type information are run with a type-checked program of the tsconfig.json of analyzed files,
+   * other rules are run on each file on its own, which is much cheaper
+   */
+  public boolean requiresTypeCheck() {
+    return false;
+  }
+
   JsonArray ruleConfiguration(Object... params) {
     JsonArray configuration = new JsonArray();
     // enable rule
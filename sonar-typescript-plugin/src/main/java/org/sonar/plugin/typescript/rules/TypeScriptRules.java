@@ -101,6 +101,14 @@ public class TypeScriptRules implements Iterable<TypeScriptRule> {
     return ruleKey;
   }
 
+  public boolean hasEnabledTypeAwareRules() {
+    return allRules.stream().anyMatch(rule -> rule.isEnabled() && rule.requiresTypeCheck());
+  }
+
+  public boolean hasEnabledSyntacticRules() {
+    return allRules.stream().anyMatch(rule -> rule.isEnabled() && !rule.requiresTypeCheck());
+  }
+
   @Override
   public Iterator<TypeScriptRule> iterator() {
     return allRules.iterator();
@@ -28,4 +28,9 @@ public class UseDefaultTypeParameter extends TypeScriptRule {
   public String tsLintKey() {
     return "use-default-type-parameter";
   }
+
+  @Override
+  public boolean requiresTypeCheck() {
+    return true;
+  }
 }
@@ -0,0 +1,178 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.utils.command.Command;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Uses "jdk.jfr" API by reflection, like {@link FlightRecorderEvents}, so that tests compile without it
+ */
+public class AnalysisEventsTest {
+
+  private static String node;
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @BeforeClass
+  public static void setUp() {
+    File embeddedNode = new File("target/node/node");
+    node = embeddedNode.exists() ? embeddedNode.getAbsolutePath() : "node";
+  }
+
+  @Before
+  public void requireFlightRecorder() {
+    assumeTrue(AnalysisEvents.isAvailable());
+  }
+
+  @Test
+  public void should_record_spans() throws Exception {
+    List<RecordedEvent> events = record(() -> {
+      try (AnalysisEvents.Span span = AnalysisEvents.save("highlighting", "/some/file.ts", 42)) {
+        // saved
+      }
+      try (AnalysisEvents.Span span = AnalysisEvents.tsconfigResolution(3)) {
+        // resolved
+      }
+    });
+
+    RecordedEvent save = event(events, "org.sonarts.Save");
+    assertThat(save.get("kind")).isEqualTo("highlighting");
+    assertThat(save.get("file")).isEqualTo("/some/file.ts");
+    assertThat(save.get("count")).isEqualTo(42);
+    assertThat(event(events, "org.sonarts.TsconfigResolution").get("files")).isEqualTo(3);
+  }
+
+  @Test
+  public void should_record_saved_results_by_batch() throws Exception {
+    List<RecordedEvent> events = record(() -> {
+      SaveQueue saveQueue = new SaveQueue();
+      // the task publishes all its actions before they are drained
+      saveQueue.submit(Runnable::run, publisher -> {
+        for (int i = 0; i < 50; i++) {
+          publisher.accept(() -> {
+          });
+        }
+      });
+      saveQueue.drain();
+    });
+
+    RecordedEvent save = event(events, "org.sonarts.Save");
+    assertThat(save.get("kind")).isEqualTo("results");
+    assertThat(save.get("file")).isNull();
+    assertThat(save.get("count")).isEqualTo(50);
+  }
+
+  @Test
+  public void should_record_spawn_and_exit_of_process() throws Exception {
+    List<RecordedEvent> events = record(() -> {
+      ExternalProcess process = ExternalProcess.start(Command.create(node).addArgument("-e").addArgument("process.exit(3)"), "some/tsconfig.json", 30, 0);
+      process.getOutputStream().close();
+      process.waitFor();
+    });
+
+    assertThat(event(events, "org.sonarts.ProcessSpawn").get("tsconfig")).isEqualTo("some/tsconfig.json");
+    RecordedEvent process = event(events, "org.sonarts.Process");
+    assertThat(process.get("tsconfig")).isEqualTo("some/tsconfig.json");
+    assertThat(process.get("exitCode")).isEqualTo(3);
+    assertThat(process.get("killed")).isEqualTo(false);
+  }
+
+  private List<RecordedEvent> record(RecordedAction action) throws Exception {
+    Path dump = tmpDir.getRoot().toPath().resolve("recording.jfr");
+    Class<?> recordingType = Class.forName("jdk.jfr.Recording");
+    Object recording = recordingType.newInstance();
+    try {
+      for (String name : new String[] {"org.sonarts.Save", "org.sonarts.TsconfigResolution", "org.sonarts.ProcessSpawn", "org.sonarts.Process"}) {
+        recordingType.getMethod("enable", String.class).invoke(recording, name);
+      }
+      recordingType.getMethod("start").invoke(recording);
+      action.run();
+      recordingType.getMethod("stop").invoke(recording);
+      recordingType.getMethod("dump", Path.class).invoke(recording, dump);
+    } finally {
+      recordingType.getMethod("close").invoke(recording);
+    }
+
+    Class<?> recordedEventType = Class.forName("jdk.jfr.consumer.RecordedEvent");
+    Method getEventType = recordedEventType.getMethod("getEventType");
+    Method getName = Class.forName("jdk.jfr.EventType").getMethod("getName");
+    Method getFields = recordedEventType.getMethod("getFields");
+    Method getFieldName = Class.forName("jdk.jfr.ValueDescriptor").getMethod("getName");
+    Method getValue = recordedEventType.getMethod("getValue", String.class);
+    List<RecordedEvent> events = new ArrayList<>();
+    for (Object recordedEvent : (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", Path.class).invoke(null, dump)) {
+      String name = (String) getName.invoke(getEventType.invoke(recordedEvent));
+      if (name.startsWith("org.sonarts.")) {
+        Map<String, Object> values = new HashMap<>();
+        for (Object field : (List<?>) getFields.invoke(recordedEvent)) {
+          String fieldName = (String) getFieldName.invoke(field);
+          values.put(fieldName, getValue.invoke(recordedEvent, fieldName));
+        }
+        events.add(new RecordedEvent(name, values));
+      }
+    }
+    return events;
+  }
+
+  private static RecordedEvent event(List<RecordedEvent> events, String name) {
+    return events.stream().filter(event -> event.name.equals(name)).findFirst()
+      .orElseThrow(() -> new AssertionError("No event " + name + " in " + events));
+  }
+
+  private static class RecordedEvent {
+    private final String name;
+    private final Map<String, Object> values;
+
+    RecordedEvent(String name, Map<String, Object> values) {
+      this.name = name;
+      this.values = values;
+    }
+
+    Object get(String field) {
+      return values.get(field);
+    }
+
+    @Override
+    public String toString() {
+      return name + values;
+    }
+  }
+
+  @FunctionalInterface
+  private interface RecordedAction {
+    void run() throws Exception;
+  }
+}
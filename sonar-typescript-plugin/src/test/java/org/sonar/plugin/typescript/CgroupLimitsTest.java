@@ -0,0 +1,81 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CgroupLimitsTest {
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @Test
+  public void should_read_cgroup_v2_limits() throws Exception {
+    Path root = tmpDir.getRoot().toPath();
+    write(root.resolve("memory.max"), "4294967296\n");
+    write(root.resolve("cpu.max"), "150000 100000\n");
+
+    CgroupLimits limits = CgroupLimits.read(root);
+    assertThat(limits.memoryBytes()).isEqualTo(4294967296L);
+    assertThat(limits.memoryBytesOrPhysical()).isEqualTo(4294967296L);
+    assertThat(limits.cpus()).isEqualTo(2);
+  }
+
+  @Test
+  public void should_read_cgroup_v1_limits() throws Exception {
+    Path root = tmpDir.getRoot().toPath();
+    write(root.resolve("memory/memory.limit_in_bytes"), "2147483648\n");
+    write(root.resolve("cpu,cpuacct/cpu.cfs_quota_us"), "300000\n");
+    write(root.resolve("cpu,cpuacct/cpu.cfs_period_us"), "100000\n");
+
+    CgroupLimits limits = CgroupLimits.read(root);
+    assertThat(limits.memoryBytes()).isEqualTo(2147483648L);
+    assertThat(limits.cpus()).isEqualTo(3);
+  }
+
+  @Test
+  public void should_not_know_limits_when_unlimited() throws Exception {
+    Path v2 = tmpDir.newFolder("v2").toPath();
+    write(v2.resolve("memory.max"), "max\n");
+    write(v2.resolve("cpu.max"), "max 100000\n");
+    Path v1 = tmpDir.newFolder("v1").toPath();
+    write(v1.resolve("memory/memory.limit_in_bytes"), "9223372036854771712\n");
+    write(v1.resolve("cpu/cpu.cfs_quota_us"), "-1\n");
+    write(v1.resolve("cpu/cpu.cfs_period_us"), "100000\n");
+
+    for (Path root : new Path[] {v2, v1, tmpDir.newFolder("none").toPath()}) {
+      CgroupLimits limits = CgroupLimits.read(root);
+      assertThat(limits.memoryBytes()).isEqualTo(CgroupLimits.UNKNOWN);
+      assertThat(limits.cpus()).isEqualTo((int) CgroupLimits.UNKNOWN);
+    }
+  }
+
+  private static void write(Path file, String content) throws Exception {
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.utils.log.LogTester;
+import org.sonar.api.utils.log.LoggerLevel;
+import org.sonar.plugin.typescript.CostModel.Cost;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CostModelTest {
+
+  private static final int MB = 1024 * 1024;
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @Rule
+  public final LogTester logTester = new LogTester();
+
+  @Test
+  public void should_scale_previous_duration_with_size_of_files() throws Exception {
+    Map<String, Cost> history = new HashMap<>();
+    history.put("a/tsconfig.json", new Cost(10_000, 10, 2 * MB));
+    history.put("b/tsconfig.json", new Cost(4_000, 4, 0));
+    CostModel costModel = new CostModel(tmpDir.getRoot().toPath().resolve(CostModel.FILE_NAME), history);
+
+    assertThat(costModel.predictMilliseconds("a/tsconfig.json", Collections.singletonList(inputFile("a.ts", 3 * MB)))).isEqualTo(15_000);
+    assertThat(costModel.predictMilliseconds("b/tsconfig.json", Arrays.asList(inputFile("b1.ts", 0), inputFile("b2.ts", 0)))).isEqualTo(2_000);
+    // 3 seconds to start, then 7 seconds per MB observed on "a/tsconfig.json"
+    assertThat(costModel.predictMilliseconds("c/tsconfig.json", Collections.singletonList(inputFile("c.ts", MB)))).isEqualTo(6_500);
+  }
+
+  @Test
+  public void should_estimate_from_size_without_history() throws Exception {
+    CostModel costModel = CostModel.load(tmpDir.getRoot().toPath().resolve(CostModel.FILE_NAME));
+
+    assertThat(costModel.predictMilliseconds("a/tsconfig.json", Collections.singletonList(inputFile("a.ts", 2 * MB)))).isEqualTo(5_000);
+  }
+
+  @Test
+  public void should_order_longest_first_and_log_predicted_duration() throws Exception {
+    CostModel costModel = new CostModel(tmpDir.getRoot().toPath().resolve(CostModel.FILE_NAME), ImmutableMap.of(
+      "small/tsconfig.json", new Cost(1_000, 1, 0),
+      "medium/tsconfig.json", new Cost(2_000, 1, 0),
+      "big/tsconfig.json", new Cost(4_000, 1, 0)));
+    Map<String, Collection<InputFile>> inputFiles = ImmutableMap.of(
+      "small/tsconfig.json", Collections.singletonList(inputFile("small.ts", 0)),
+      "medium/tsconfig.json", Collections.singletonList(inputFile("medium.ts", 0)),
+      "big/tsconfig.json", Collections.singletonList(inputFile("big.ts", 0)));
+
+    assertThat(costModel.longestFirst(inputFiles, 2)).containsExactly("big/tsconfig.json", "medium/tsconfig.json", "small/tsconfig.json");
+    assertThat(logTester.logs(LoggerLevel.INFO)).containsExactly("Predicted duration of rules execution with 2 workers: 4.0 s");
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).contains("Order of tsconfig.json files: big/tsconfig.json (4.0 s), medium/tsconfig.json (2.0 s), small/tsconfig.json (1.0 s)");
+  }
+
+  @Test
+  public void should_save_observed_costs() throws Exception {
+    Path file = tmpDir.getRoot().toPath().resolve("dir").resolve(CostModel.FILE_NAME);
+    CostModel costModel = new CostModel(file, ImmutableMap.of("a/tsconfig.json", new Cost(1_000, 1, 10), "b/tsconfig.json", new Cost(2_000, 2, 20)));
+    costModel.record("a/tsconfig.json", 3_000, Collections.singletonList(inputFile("a1.ts", 100)));
+    costModel.record("a/tsconfig.json", 4_000, Collections.singletonList(inputFile("a2.ts", 200)));
+    costModel.save();
+
+    CostModel loaded = CostModel.load(file);
+    assertThat(loaded.predictMilliseconds("a/tsconfig.json", Arrays.asList(inputFile("a1.ts", 100), inputFile("a2.ts", 200)))).isEqualTo(7_000);
+    assertThat(loaded.predictMilliseconds("b/tsconfig.json", Collections.singletonList(inputFile("b.ts", 20)))).isEqualTo(2_000);
+  }
+
+  @Test
+  public void should_ignore_invalid_file() throws Exception {
+    Path file = tmpDir.newFile(CostModel.FILE_NAME).toPath();
+    Files.write(file, "{\"groups\": [".getBytes(StandardCharsets.UTF_8));
+
+    assertThat(CostModel.load(file).predictMilliseconds("a/tsconfig.json", Collections.emptyList())).isEqualTo(3_000);
+  }
+
+  private InputFile inputFile(String name, int size) throws Exception {
+    File file = new File(tmpDir.getRoot(), name);
+    Files.write(file.toPath(), new byte[size]);
+    return new TestInputFileBuilder("moduleKey", name).setModuleBaseDir(tmpDir.getRoot().toPath()).build();
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CpdTokensTest {
+
+  private final Gson gson = new Gson();
+
+  @Test
+  public void should_decode_and_encode_cpd_tokens() throws Exception {
+    String json = "[{\"startLine\":1,\"startCol\":2,\"endLine\":3,\"endCol\":4,\"image\":\"foo\"},{\"startLine\":5,\"startCol\":6,\"endLine\":7,\"endCol\":8,\"image\":\"bar\"}]";
+    CpdTokens cpdTokens = gson.fromJson(json, CpdTokens.class);
+
+    assertThat(cpdTokens.size()).isEqualTo(2);
+    assertThat(cpdTokens.startLine(1)).isEqualTo(5);
+    assertThat(cpdTokens.startCol(1)).isEqualTo(6);
+    assertThat(cpdTokens.endLine(1)).isEqualTo(7);
+    assertThat(cpdTokens.endCol(1)).isEqualTo(8);
+    assertThat(cpdTokens.image(1)).isEqualTo("bar");
+    assertThat(gson.toJson(cpdTokens)).isEqualTo(json);
+  }
+
+  @Test
+  public void should_decode_null() throws Exception {
+    assertThat(gson.fromJson("null", CpdTokens.class)).isNull();
+  }
+}
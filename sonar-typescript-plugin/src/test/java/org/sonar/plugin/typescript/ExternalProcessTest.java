@@ -0,0 +1,99 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.sonar.api.utils.command.Command;
+import org.sonar.api.utils.log.LogTester;
+import org.sonar.api.utils.log.LoggerLevel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExternalProcessTest {
+
+  private static String node;
+
+  @Rule
+  public final LogTester logTester = new LogTester();
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    try {
+      String nodeFromMavenPlugin = "target/node/node";
+      Runtime.getRuntime().exec(nodeFromMavenPlugin);
+      node = nodeFromMavenPlugin;
+
+    } catch (IOException e) {
+      node = "node";
+    }
+  }
+
+  @Test
+  public void should_read_error_output_while_process_is_running() throws Exception {
+    // more than the pipe buffer is written to stderr before anything is written to stdout
+    ExternalProcess process = ExternalProcess.start(command("process.stderr.write('x'.repeat(2 * 1024 * 1024)); console.log('done');"), "scope", 30, 0);
+
+    assertThat(IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8)).isEqualTo("done\n");
+    assertThat(process.waitFor()).isEqualTo(0);
+    assertThat(process.isKilled()).isFalse();
+    assertThat(process.errors()).hasSize(1024 * 1024);
+  }
+
+  @Test
+  public void should_kill_process_after_timeout() throws Exception {
+    ExternalProcess process = ExternalProcess.start(command("console.log('partial'); setTimeout(function () {}, 60000);"), "some/tsconfig.json", 1, 0);
+
+    assertThat(IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8)).isEqualTo("partial\n");
+    assertThat(process.waitFor()).isNotEqualTo(0);
+    assertThat(process.isKilled()).isTrue();
+    assertThat(logTester.logs(LoggerLevel.ERROR)).hasSize(1);
+    assertThat(logTester.logs(LoggerLevel.ERROR).get(0)).startsWith("External process for `some/tsconfig.json` did not finish in 1 seconds, killing it");
+  }
+
+  @Test
+  public void should_set_heap_size() throws Exception {
+    Command command = command("console.log(process.execArgv[0], process.env.NODE_OPTIONS);").setEnvironmentVariable("NODE_OPTIONS", "--trace-warnings");
+    ExternalProcess process = ExternalProcess.start(command, "scope", 30, 4096);
+
+    assertThat(IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8)).isEqualTo("--max-old-space-size=4096 --trace-warnings\n");
+    assertThat(process.waitFor()).isEqualTo(0);
+  }
+
+  @Test
+  public void should_measure_running_time_until_end_of_process() throws Exception {
+    ExternalProcess process = ExternalProcess.start(command("setTimeout(function () {}, 300);"), "scope", 30, 0);
+
+    assertThat(process.waitFor()).isEqualTo(0);
+    long runningNanos = process.runningNanos();
+    assertThat(runningNanos).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(300));
+    Thread.sleep(50);
+    assertThat(process.runningNanos()).isEqualTo(runningNanos);
+  }
+
+  private static Command command(String script) {
+    return Command.create(node).addArgument("-e").addArgument(script);
+  }
+}
@@ -20,13 +20,25 @@
 package org.sonar.plugin.typescript;
 
 import com.google.common.collect.Sets;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
@@ -41,12 +53,14 @@ import org.sonar.api.batch.sensor.highlighting.TypeOfText;
 import org.sonar.api.batch.sensor.internal.DefaultSensorDescriptor;
 import org.sonar.api.batch.sensor.internal.SensorContextTester;
 import org.sonar.api.batch.sensor.issue.Issue;
+import org.sonar.api.config.MapSettings;
 import org.sonar.api.issue.NoSonarFilter;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.measures.FileLinesContext;
 import org.sonar.api.measures.FileLinesContextFactory;
 import org.sonar.api.utils.command.Command;
 import org.sonar.api.utils.log.LogTester;
+import org.sonar.api.utils.log.LoggerLevel;
 import org.sonar.duplications.internal.pmd.TokensLine;
 import org.sonar.plugin.typescript.executable.ExecutableBundle;
 import org.sonar.plugin.typescript.executable.ExecutableBundleFactory;
@@ -62,7 +76,8 @@ import static org.mockito.Mockito.when;
 
 public class ExternalTypescriptSensorTest {
 
-  private static final File BASE_DIR = new File("src/test/resources");
+  private static final File BASE_DIR_TEMPLATE = new File("src/test/resources");
+  private File baseDir;
   private static String node;
 
   private FileLinesContext fileLinesContext;
@@ -94,6 +109,17 @@ public class ExternalTypescriptSensorTest {
     }
   }
 
+  /**
+   * Files are analyzed from a copy of the tsconfig.json files of test resources, as their contents are written to disk
+   */
+  @Before
+  public void setUpBaseDir() throws Exception {
+    baseDir = tmpDir.newFolder("baseDir");
+    for (String directory : new String[] {"foo", "other"}) {
+      FileUtils.copyDirectory(new File(BASE_DIR_TEMPLATE, directory), new File(baseDir, directory));
+    }
+  }
+
   @Test
   public void should_have_description() throws Exception {
     ExternalTypescriptSensor sensor = createSensor();
@@ -143,6 +169,101 @@ public class ExternalTypescriptSensorTest {
     assertThat(cpd.get(0).getValue()).isEqualTo("foobar");
   }
 
+  @Test
+  public void should_read_one_failure_per_line() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    DefaultInputFile testInputFile = createTestInputFile(sensorContext, "foo/file.ts", "\nfunction foo(){}\nfunction foo(){}\nfunction foo(){}");
+
+    ExternalTypescriptSensor sensor = createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), testInputFile.absolutePath())
+      .tslint(node, resourceScript("/mockTsLintNdjson.js"), testInputFile.absolutePath()));
+
+    sensor.execute(sensorContext);
+
+    assertThat(sensorContext.allIssues()).extracting(issue -> issue.primaryLocation().textRange().start().line()).containsOnly(2, 3, 4);
+  }
+
+  @Test
+  public void should_save_issue_reported_twice_once() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    DefaultInputFile testInputFile = createTestInputFile(sensorContext, "foo/file.ts", "\nfunction foo(){}\nfunction foo(){}");
+    String failure = "{failure: 'some message', startPosition: {line: 1, character: 5}, endPosition: {line: 1, character: 6}, "
+      + "name: '" + testInputFile.absolutePath().replace("\\", "\\\\") + "', ruleName: 'no-unconditional-jump'}";
+    String otherFailure = failure.replace("message', startPosition: {line: 1", "message', startPosition: {line: 2").replace("endPosition: {line: 1", "endPosition: {line: 2");
+
+    ExternalTypescriptSensor sensor = createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), testInputFile.absolutePath())
+      .tslint(node, "-e", "console.log(JSON.stringify([" + failure + ", " + otherFailure + ", " + failure + "]));"));
+    sensor.execute(sensorContext);
+
+    assertThat(sensorContext.allIssues()).extracting(issue -> issue.primaryLocation().textRange().start().line()).containsExactlyInAnyOrder(2, 3);
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).contains("1 duplicated issues were ignored");
+  }
+
+  @Test
+  public void should_keep_results_of_process_killed_after_timeout() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    sensorContext.setSettings(settings().setProperty(TypeScriptPlugin.PROCESS_TIMEOUT_KEY, "1"));
+    DefaultInputFile testInputFile = createTestInputFile(sensorContext, "foo/file.ts", "\nfunction foo(){}\nfunction foo(){}");
+    String failure = "{failure: 'some message', startPosition: {line: 1, character: 5}, endPosition: {line: 1, character: 6}, "
+      + "name: '" + testInputFile.absolutePath().replace("\\", "\\\\") + "', ruleName: 'no-unconditional-jump'}";
+
+    ExternalTypescriptSensor sensor = createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), testInputFile.absolutePath())
+      .tslint(node, "-e", "console.log(JSON.stringify(" + failure + ")); setTimeout(function () {}, 60000);"));
+    sensor.execute(sensorContext);
+
+    assertThat(sensorContext.allIssues()).hasSize(1);
+    String tsconfig = new File(baseDir, "foo/tsconfig.json").getAbsolutePath();
+    assertThat(logTester.logs(LoggerLevel.ERROR).stream().anyMatch(log -> log.startsWith("External process for `" + tsconfig + "` did not finish in 1 seconds, killing it")))
+      .isTrue();
+    assertThat(logTester.logs(LoggerLevel.ERROR)).contains("Results for `" + tsconfig + "` may be incomplete, 1 files were not completely analyzed");
+  }
+
+  @Test
+  public void should_analyze_again_in_smaller_batches_when_out_of_memory() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    sensorContext.setSettings(settings().setProperty(TypeScriptPlugin.NODE_MAX_HEAP_KEY, "8192"));
+    DefaultInputFile fooFile = createTestInputFile(sensorContext, "foo/file.ts");
+    DefaultInputFile fooBarFile = createTestInputFile(sensorContext, "foo/bar/file.ts");
+
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), fooFile.absolutePath())
+      .tslintOnFiles(node, resourceScript("/mockTsLintOutOfMemory.js"))).execute(sensorContext);
+
+    assertThat(sensorContext.allIssues()).extracting(issue -> issue.primaryLocation().inputComponent().key()).containsExactlyInAnyOrder(fooFile.key(), fooBarFile.key());
+    assertThat(sensorContext.allIssues()).extracting(issue -> issue.primaryLocation().message()).containsOnly("analyzed with 1 files and a heap of 2800 MB");
+    assertThat(logTester.logs(LoggerLevel.WARN)).containsExactly("Node ran out of memory with a heap of 1400 MB, analyzing again 2 files of `"
+      + new File(baseDir, "foo/tsconfig.json").getAbsolutePath() + "` in smaller batches with a heap of 2800 MB");
+  }
+
+  @Test
+  public void should_measure_again_in_smaller_batches_when_out_of_memory() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    sensorContext.setSettings(settings().setProperty(TypeScriptPlugin.NODE_MAX_HEAP_KEY, "8192"));
+    DefaultInputFile fooFile = createTestInputFile(sensorContext, "foo/file.ts");
+    DefaultInputFile fooBarFile = createTestInputFile(sensorContext, "foo/bar/file.ts");
+
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetricsPerFile.js"), "--out-of-memory")
+      .tslint(node, "-e", "console.log('[]');")).execute(sensorContext);
+
+    assertThat(sensorContext.measure(fooFile.key(), CoreMetrics.FUNCTIONS).value()).isEqualTo(1);
+    assertThat(sensorContext.measure(fooBarFile.key(), CoreMetrics.FUNCTIONS).value()).isEqualTo(1);
+    assertThat(logTester.logs(LoggerLevel.WARN))
+      .contains("Node ran out of memory with a heap of 1400 MB, analyzing again 2 files of `metrics calculation` in smaller batches with a heap of 2800 MB");
+  }
+
+  @Test
+  public void should_log_when_out_of_memory_with_max_heap() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    sensorContext.setSettings(settings().setProperty(TypeScriptPlugin.NODE_MAX_HEAP_KEY, "2048"));
+    DefaultInputFile testInputFile = createTestInputFile(sensorContext, "foo/file.ts");
+
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), testInputFile.absolutePath())
+      .tslintOnFiles(node, resourceScript("/mockTsLintOutOfMemory.js"), "--always")).execute(sensorContext);
+
+    assertThat(sensorContext.allIssues()).isEmpty();
+    assertThat(logTester.logs(LoggerLevel.ERROR)).contains("Node ran out of memory with a heap of 2048 MB analyzing `"
+      + new File(baseDir, "foo/tsconfig.json").getAbsolutePath() + "`, consider increasing sonar.typescript.node.maxHeapSize",
+      "Not analyzed due to a previous error : " + testInputFile.absolutePath());
+  }
+
   @Test
   public void should_create_file_level_issues() throws Exception {
     SensorContextTester sensorContext = createSensorContext();
@@ -169,8 +290,9 @@ public class ExternalTypescriptSensorTest {
     sensor.execute(sensorContext);
 
     assertThat(sensorContext.allIssues()).hasSize(0);
-    assertThat(logTester.logs().get(4)).contains("empty output");
-    assertThat(logTester.logs().get(logTester.logs().size() - 1)).contains("foo/file.ts");
+    // metrics are calculated concurrently, so the order of logs is not deterministic
+    assertThat(logTester.logs()).filteredOn(log -> log.contains("empty output")).hasSize(1);
+    assertThat(logTester.logs()).contains("Not analyzed due to a previous error : " + testInputFile.absolutePath());
   }
 
   @Test
@@ -202,10 +324,33 @@ public class ExternalTypescriptSensorTest {
     createSensor(testBundle).execute(sensorContext);
   }
 
+  @Test
+  public void should_read_binary_metrics() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    DefaultInputFile testInputFile = createTestInputFile(sensorContext, "foo/file.ts", "\nfunction foo(){}\nfunction bar(){}");
+    String response = "{\"filepath\": " + new Gson().toJson(testInputFile.absolutePath()) + ", "
+      + "\"highlights\": [{\"startLine\": 2, \"startCol\": 0, \"endLine\": 2, \"endCol\": 8, \"textType\": \"keyword\"},"
+      + " {\"startLine\": 3, \"startCol\": 0, \"endLine\": 3, \"endCol\": 8, \"textType\": \"keyword\"}],"
+      + "\"cpdTokens\": [{\"startLine\": 2, \"startCol\": 9, \"endLine\": 2, \"endCol\": 12, \"image\": \"foo\"},"
+      + " {\"startLine\": 3, \"startCol\": 9, \"endLine\": 3, \"endCol\": 12, \"image\": \"bar\"}],"
+      + "\"ncloc\": [2, 3], \"commentLines\": [], \"nosonarLines\": [3], \"executableLines\": [], \"functions\": 2, \"statements\": 0, \"classes\": 0}";
+    String metricsScript = "require(" + new Gson().toJson(new File("sonarts-core/bin/metrics.js").getAbsolutePath()) + ").writeBinary([" + response + "], process.stdout)";
+
+    ExternalTypescriptSensor sensor = createSensor(new TestBundleFactory().tsMetrics(node, "-e", metricsScript).tslint(node, "-e", "console.log('[]');"));
+    sensor.execute(sensorContext);
+
+    assertThat(sensorContext.highlightingTypeAt(testInputFile.key(), 3, 3)).containsExactly(TypeOfText.KEYWORD);
+    assertThat(sensorContext.cpdTokens(testInputFile.key())).extracting(TokensLine::getValue).containsExactly("foo", "bar");
+    assertThat(sensorContext.measure(testInputFile.key(), CoreMetrics.NCLOC).value()).isEqualTo(2);
+    assertThat(sensorContext.measure(testInputFile.key(), CoreMetrics.FUNCTIONS).value()).isEqualTo(2);
+    verify(noSonarFilter).noSonarInFile(testInputFile, Sets.newHashSet(3));
+  }
+
   @Test
   public void should_log_when_failed_ts_metrics_process() throws Exception {
     TestBundleFactory testBundle = new TestBundleFactory().tsMetrics("non_existent_command", "arg1").tslint(node, "-e", "console.log('[]');");
     SensorContextTester sensorContext = createSensorContext();
+    createTestInputFile(sensorContext);
     createSensor(testBundle).execute(sensorContext);
 
     assertThat(logTester.logs()).contains("Failed to run external process `non_existent_command arg1`. As a result, NO METRICS WERE GENERATED, run with -X for more information");
@@ -216,6 +361,7 @@ public class ExternalTypescriptSensorTest {
   public void should_log_when_empty_metrics_process_output() throws Exception {
     TestBundleFactory testBundle = new TestBundleFactory().tsMetrics(node, "-e", "console.log('');").tslint(node, "-e", "console.log('[]');");
     SensorContextTester sensorContext = createSensorContext();
+    createTestInputFile(sensorContext);
     createSensor(testBundle).execute(sensorContext);
 
     assertThat(logTester.logs()).contains("External process `" + node
@@ -229,14 +375,33 @@ public class ExternalTypescriptSensorTest {
     DefaultInputFile inputFile = createTestInputFile(sensorContext, "file.ts");
     TestBundleFactory testBundle = new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), inputFile.absolutePath()).tslint(node, "-e", "console.log('[]');");
 
-    createSensor(testBundle).execute(sensorContext);
+    createSensor(testBundle, "S1874").execute(sensorContext);
 
     assertThat(logTester.logs()).contains("No tsconfig.json file found for " + inputFile.absolutePath() + " (looking up the directories tree). This file will not be analyzed.");
   }
 
+  @Test
+  public void should_run_rules_without_type_information_on_files_without_tsconfig() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    // "file.ts" is in resources directory, where there is no tsconfig.json
+    DefaultInputFile inputFile = createTestInputFile(sensorContext, "file.ts");
+    DefaultInputFile fooFile = createTestInputFile(sensorContext, "foo/file.ts");
+    TestBundleFactory testBundle = new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), inputFile.absolutePath())
+      .tslintOnFiles(node, resourceScript("/mockTsLintPerFile.js"), "--rule=deprecation")
+      .syntacticTslintOnFiles(node, resourceScript("/mockTsLintPerFile.js"));
+
+    createSensor(testBundle, "S1751", "S1874").execute(sensorContext);
+
+    assertThat(logTester.logs(LoggerLevel.WARN)).containsExactly("No tsconfig.json file found for " + inputFile.absolutePath()
+      + " (looking up the directories tree). Only rules which do not need type information are run on this file.");
+    // one issue from rules with type information, one from other rules
+    assertThat(sensorContext.allIssues()).extracting(issue -> issue.primaryLocation().inputComponent().key())
+      .containsExactlyInAnyOrder(inputFile.key(), fooFile.key(), fooFile.key());
+  }
+
   @Test
   public void should_do_nothing_when_tslint_report_with_not_existing_file() throws Exception {
-    String testFile = new File(BASE_DIR, "not_exists.ts").getAbsolutePath();
+    String testFile = new File(baseDir, "not_exists.ts").getAbsolutePath();
     ExternalTypescriptSensor sensor = createSensor(new TestBundleFactory()
       .tsMetrics(node, resourceScript("/mockTsMetrics.js"), "some/path/file.ts")
       .tslint(node, resourceScript("/mockTsLint.js"), testFile));
@@ -255,56 +420,499 @@ public class ExternalTypescriptSensorTest {
     assertThat(sensorContext.allIssues()).hasSize(0);
   }
 
+  @Test
+  public void should_run_rules_for_each_tsconfig_concurrently() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    sensorContext.setSettings(settings().setProperty(TypeScriptPlugin.WORKERS_KEY, "2"));
+    DefaultInputFile fooFile = createTestInputFile(sensorContext, "foo/file.ts");
+    DefaultInputFile fooBarFile = createTestInputFile(sensorContext, "foo/bar/file.ts");
+    DefaultInputFile otherFile = createTestInputFile(sensorContext, "other/file.ts");
+
+    ExternalTypescriptSensor sensor = createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), fooFile.absolutePath())
+      .tslintOnFiles(node, resourceScript("/mockTsLintPerFile.js")));
+    sensor.execute(sensorContext);
+
+    assertThat(sensorContext.allIssues()).extracting(issue -> issue.primaryLocation().inputComponent().key())
+      .containsOnly(fooFile.key(), fooBarFile.key(), otherFile.key());
+    assertThat(logTester.logs()).contains("Running rule analysis for `" + new File(baseDir, "foo/tsconfig.json").getAbsolutePath() + "` with 2 files");
+    assertThat(logTester.logs()).contains("Running rule analysis for `" + new File(baseDir, "other/tsconfig.json").getAbsolutePath() + "` with 1 files");
+    assertThat(tmpDir.getRoot().list((dir, name) -> name.endsWith(".out"))).isEmpty();
+  }
+
+  @Test
+  public void should_start_longest_tsconfig_first() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    sensorContext.setSettings(settings().setProperty(TypeScriptPlugin.WORKERS_KEY, "1"));
+    createTestInputFile(sensorContext, "foo/file.ts");
+    createTestInputFile(sensorContext, "foo/bar/file.ts");
+    createTestInputFile(sensorContext, "other/file.ts");
+    String fooTsconfig = new File(baseDir, "foo/tsconfig.json").getAbsolutePath();
+    String otherTsconfig = new File(baseDir, "other/tsconfig.json").getAbsolutePath();
+    Path costsFile = AnalysisCache.moduleDirectory(sensorContext).resolve(CostModel.FILE_NAME);
+    Files.createDirectories(costsFile.getParent());
+    Files.write(costsFile, ("{\"groups\": {"
+      + new Gson().toJson(fooTsconfig) + ": {\"milliseconds\": 1000, \"files\": 2, \"bytes\": 0}, "
+      + new Gson().toJson(otherTsconfig) + ": {\"milliseconds\": 5000, \"files\": 1, \"bytes\": 0}}}").getBytes(StandardCharsets.UTF_8));
+
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), "some/path/file.ts")
+      .tslintOnFiles(node, resourceScript("/mockTsLintPerFile.js"))).execute(sensorContext);
+
+    assertThat(logTester.logs(LoggerLevel.INFO)).contains("Predicted duration of rules execution with 1 workers: 6.0 s");
+    assertThat(logTester.logs(LoggerLevel.INFO).stream().filter(log -> log.startsWith("Running rule analysis for `")))
+      .containsSubsequence("Running rule analysis for `" + otherTsconfig + "` with 1 files", "Running rule analysis for `" + fooTsconfig + "` with 2 files");
+    String costs = new String(Files.readAllBytes(costsFile), StandardCharsets.UTF_8);
+    assertThat(costs).contains(new Gson().toJson(fooTsconfig), new Gson().toJson(otherTsconfig)).doesNotContain("\"milliseconds\":5000");
+  }
+
+  @Test
+  public void should_write_performance_report() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    createTestInputFile(sensorContext, "foo/file.ts");
+    createTestInputFile(sensorContext, "foo/bar/file.ts");
+    String fooTsconfig = new File(baseDir, "foo/tsconfig.json").getAbsolutePath();
+
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), "some/path/file.ts")
+      .tslintOnFiles(node, resourceScript("/mockTsLintPerFile.js"))).execute(sensorContext);
+
+    JsonObject report = new JsonParser().parse(new String(Files.readAllBytes(new File(tmpDir.getRoot(), "sonarts-typescript-performance.json").toPath()),
+      StandardCharsets.UTF_8)).getAsJsonObject();
+    assertThat(report.get("files").getAsInt()).isEqualTo(2);
+    assertThat(report.get("issues").getAsInt()).isEqualTo(sensorContext.allIssues().size());
+    assertThat(report.get("bytesRead").getAsLong()).isPositive();
+    assertThat(report.getAsJsonArray("phases")).extracting(phase -> phase.getAsJsonObject().get("name").getAsString())
+      .contains("deploy", "tsconfig resolution", "node process start", "reading process output", "saving results");
+    JsonObject group = StreamSupport.stream(report.getAsJsonArray("groups").spliterator(), false).map(JsonElement::getAsJsonObject)
+      .filter(groupJson -> groupJson.get("name").getAsString().equals(fooTsconfig)).findFirst().get();
+    assertThat(group.get("processes").getAsInt()).isEqualTo(1);
+    assertThat(group.get("files").getAsInt()).isEqualTo(2);
+    assertThat(group.get("bytesRead").getAsLong()).isPositive();
+
+    String prometheus = new String(Files.readAllBytes(new File(tmpDir.getRoot(), "sonarts-typescript-performance.prom").toPath()), StandardCharsets.UTF_8);
+    assertThat(prometheus).contains("sonarts_group_files{sensor=\"typescript\",group=" + new Gson().toJson(fooTsconfig) + "} 2.0");
+    assertThat(logTester.logs(LoggerLevel.INFO).stream().anyMatch(log -> log.startsWith("Performance of typescript analysis: 2 files in "))).isTrue();
+  }
+
+  @Test
+  public void should_split_tsconfig_files_in_batches() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    sensorContext.setSettings(settings().setProperty(TypeScriptPlugin.MAX_FILES_PER_PROCESS_KEY, "1"));
+    DefaultInputFile fooFile = createTestInputFile(sensorContext, "foo/file.ts");
+    DefaultInputFile fooBarFile = createTestInputFile(sensorContext, "foo/bar/file.ts");
+
+    ExternalTypescriptSensor sensor = createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetricsPerFile.js"))
+      .tslintOnFiles(node, resourceScript("/mockTsLintPerFile.js")));
+    sensor.execute(sensorContext);
+
+    assertThat(sensorContext.allIssues()).extracting(issue -> issue.primaryLocation().inputComponent().key())
+      .containsOnly(fooFile.key(), fooBarFile.key());
+    assertThat(logTester.logs()).filteredOn(log -> log.equals("Running rule analysis for `" + new File(baseDir, "foo/tsconfig.json").getAbsolutePath() + "` with 1 files"))
+      .hasSize(2);
+    // each file measured by its own process
+    assertThat(sensorContext.measure(fooFile.key(), CoreMetrics.FUNCTIONS).value()).isEqualTo(1);
+    assertThat(sensorContext.measure(fooBarFile.key(), CoreMetrics.FUNCTIONS).value()).isEqualTo(1);
+  }
+
+  @Test
+  public void should_run_rules_without_type_information_on_each_file() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    sensorContext.setSettings(settings().setProperty(TypeScriptPlugin.WORKERS_KEY, "2"));
+    DefaultInputFile fooFile = createTestInputFile(sensorContext, "foo/file.ts");
+    DefaultInputFile fooBarFile = createTestInputFile(sensorContext, "foo/bar/file.ts");
+
+    // no program is needed when no enabled rule needs type information
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), fooFile.absolutePath()).tslint("non_existent_command")
+      .syntacticTslintOnFiles(node, resourceScript("/mockTsLintPerFile.js")), "S1751").execute(sensorContext);
+
+    assertThat(sensorContext.allIssues()).extracting(issue -> issue.primaryLocation().inputComponent().key())
+      .containsOnly(fooFile.key(), fooBarFile.key());
+    // files of the same tsconfig.json are spread over workers
+    assertThat(logTester.logs()).filteredOn(log -> log.equals("Running rule analysis for `rules without type information` with 1 files")).hasSize(2);
+  }
+
+  @Test
+  public void should_analyze_again_without_file_reported_as_invalid() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    DefaultInputFile fooFile = createTestInputFile(sensorContext, "foo/file.ts");
+    DefaultInputFile fooBarFile = createTestInputFile(sensorContext, "foo/bar/file.ts");
+    DefaultInputFile invalidFile = createTestInputFile(sensorContext, "foo/bar/invalid.ts");
+
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), fooFile.absolutePath())
+      .tslintOnFiles(node, resourceScript("/mockTsLintInvalidFile.js"), "report", invalidFile.absolutePath()), "S1874").execute(sensorContext);
+
+    assertThat(sensorContext.allIssues()).extracting(issue -> issue.primaryLocation().inputComponent().key()).containsOnly(fooFile.key(), fooBarFile.key());
+    assertThat(logTester.logs(LoggerLevel.ERROR)).contains("Not analyzed due to a previous error : " + invalidFile.absolutePath())
+      .doesNotContain("Not analyzed due to a previous error : " + fooFile.absolutePath());
+    assertThat(logTester.logs()).filteredOn(log -> log.startsWith("Running rule analysis for")).hasSize(2);
+  }
+
+  @Test
+  public void should_isolate_file_failing_analysis() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    List<DefaultInputFile> files = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      files.add(createTestInputFile(sensorContext, "foo/file" + i + ".ts"));
+    }
+    DefaultInputFile failingFile = files.get(4);
+
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), failingFile.absolutePath())
+      .tslintOnFiles(node, resourceScript("/mockTsLintInvalidFile.js"), "crash", failingFile.absolutePath()), "S1874").execute(sensorContext);
+
+    assertThat(sensorContext.allIssues()).hasSize(5);
+    assertThat(sensorContext.allIssues()).extracting(issue -> issue.primaryLocation().inputComponent().key()).doesNotContain(failingFile.key());
+    assertThat(logTester.logs(LoggerLevel.ERROR)).filteredOn(log -> log.startsWith("Not analyzed due to a previous error"))
+      .containsExactly("Not analyzed due to a previous error : " + failingFile.absolutePath());
+  }
+
+  @Test
+  public void should_analyze_again_files_without_results_after_partial_output() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    List<DefaultInputFile> files = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      files.add(createTestInputFile(sensorContext, "foo/file" + i + ".ts"));
+    }
+    DefaultInputFile failingFile = files.get(2);
+
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), failingFile.absolutePath())
+      .tslintOnFiles(node, resourceScript("/mockTsLintInvalidFile.js"), "partial", failingFile.absolutePath()), "S1874").execute(sensorContext);
+
+    assertThat(sensorContext.allIssues()).hasSize(5);
+    assertThat(sensorContext.allIssues()).extracting(issue -> issue.primaryLocation().inputComponent().key()).doesNotContain(failingFile.key());
+    String tsconfig = new File(baseDir, "foo/tsconfig.json").getAbsolutePath();
+    assertThat(logTester.logs()).filteredOn(log -> log.startsWith("Analyzing again ") && log.endsWith(" files of `" + tsconfig + "` without results")).isNotEmpty();
+    assertThat(logTester.logs(LoggerLevel.ERROR)).filteredOn(log -> log.startsWith("Not analyzed due to a previous error"))
+      .containsExactly("Not analyzed due to a previous error : " + failingFile.absolutePath());
+  }
+
+  @Test
+  public void should_reuse_results_of_unchanged_files() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    DefaultInputFile testInputFile = createTestInputFile(sensorContext);
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), testInputFile.absolutePath())
+      .tslint(node, resourceScript("/mockTsLint.js"), testInputFile.absolutePath())).execute(sensorContext);
+    assertThat(logTester.logs()).contains("Analysis cache: metrics of 0 files reused, 1 files measured; rule failures of 0 files reused, 1 files analyzed; "
+      + "syntactic rule failures of 0 files reused, 1 files analyzed");
+
+    // no process is started when all results are cached
+    logTester.clear();
+    SensorContextTester secondSensorContext = createSensorContext();
+    DefaultInputFile secondInputFile = createTestInputFile(secondSensorContext);
+    createSensor(new TestBundleFactory().tsMetrics("non_existent_command").tslint("non_existent_command")).execute(secondSensorContext);
+
+    assertThat(logTester.logs()).contains("Analysis cache: metrics of 1 files reused, 0 files measured; rule failures of 1 files reused, 0 files analyzed; "
+      + "syntactic rule failures of 1 files reused, 0 files analyzed");
+    assertThat(secondSensorContext.allIssues()).hasSameSizeAs(sensorContext.allIssues()).isNotEmpty();
+    assertThat(secondSensorContext.highlightingTypeAt(secondInputFile.key(), 2, 3)).containsExactly(TypeOfText.KEYWORD);
+    assertThat(secondSensorContext.measure(secondInputFile.key(), CoreMetrics.NCLOC).value()).isEqualTo(sensorContext.measure(testInputFile.key(), CoreMetrics.NCLOC).value());
+    assertThat(secondSensorContext.cpdTokens(secondInputFile.key())).hasSameSizeAs(sensorContext.cpdTokens(testInputFile.key()));
+  }
+
+  @Test
+  public void should_analyze_files_which_cannot_be_hashed() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    DefaultInputFile testInputFile = createTestInputFile(sensorContext);
+    // e.g. deleted or not readable by the scanner
+    Files.delete(testInputFile.path());
+
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), testInputFile.absolutePath())
+      .tslint(node, resourceScript("/mockTsLint.js"), testInputFile.absolutePath())).execute(sensorContext);
+
+    assertThat(sensorContext.allIssues()).hasSize(1);
+    assertThat(sensorContext.measure(testInputFile.key(), CoreMetrics.NCLOC).value()).isEqualTo(3);
+    assertThat(logTester.logs()).contains("Analysis cache: metrics of 0 files reused, 1 files measured; rule failures of 0 files reused, 1 files analyzed; "
+      + "syntactic rule failures of 0 files reused, 1 files analyzed");
+  }
+
+  @Test
+  public void should_analyze_again_files_of_changed_tsconfig() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    DefaultInputFile testInputFile = createTestInputFile(sensorContext);
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), testInputFile.absolutePath())
+      .tslint(node, resourceScript("/mockTsLint.js"), testInputFile.absolutePath())).execute(sensorContext);
+
+    logTester.clear();
+    SensorContextTester secondSensorContext = createSensorContext();
+    DefaultInputFile secondInputFile = createTestInputFile(secondSensorContext);
+    DefaultInputFile changedInputFile = createTestInputFile(secondSensorContext, "foo/bar/file.ts", FILE_CONTENT + "\n// changed");
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), changedInputFile.absolutePath())
+      .tslint(node, resourceScript("/mockTsLint.js"), secondInputFile.absolutePath())).execute(secondSensorContext);
+
+    assertThat(logTester.logs()).contains("Analysis cache: metrics of 1 files reused, 1 files measured; rule failures of 0 files reused, 2 files analyzed; "
+      + "syntactic rule failures of 1 files reused, 1 files analyzed");
+    assertThat(secondSensorContext.allIssues()).hasSameSizeAs(sensorContext.allIssues());
+  }
+
+  @Test
+  public void should_delete_unused_cache_entries() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    DefaultInputFile testInputFile = createTestInputFile(sensorContext);
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), testInputFile.absolutePath())
+      .tslint(node, resourceScript("/mockTsLint.js"), testInputFile.absolutePath())).execute(sensorContext);
+    Path cacheDirectory = AnalysisCache.moduleDirectory(sensorContext);
+    assertThat(cacheDirectory).startsWith(tmpDir.getRoot().toPath().resolve("sonarts-cache"));
+    assertThat(cacheEntries(cacheDirectory, "failures")).hasSize(1);
+
+    // failures of foo/file.ts are stored with a new key, the previous entry is not used anymore
+    SensorContextTester secondSensorContext = createSensorContext();
+    createTestInputFile(secondSensorContext);
+    DefaultInputFile changedInputFile = createTestInputFile(secondSensorContext, "foo/bar/file.ts", FILE_CONTENT + "\n// changed");
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), changedInputFile.absolutePath())
+      .tslint(node, resourceScript("/mockTsLint.js"), testInputFile.absolutePath())).execute(secondSensorContext);
+
+    assertThat(cacheEntries(cacheDirectory, "failures")).hasSize(2);
+    assertThat(cacheEntries(cacheDirectory, "metrics")).hasSize(2);
+    assertThat(cacheEntries(cacheDirectory, "syntactic-failures")).hasSize(2);
+  }
+
+  private static List<Path> cacheEntries(Path cacheDirectory, String kind) throws IOException {
+    try (Stream<Path> paths = Files.walk(cacheDirectory.resolve(kind))) {
+      return paths.filter(Files::isRegularFile).collect(Collectors.toList());
+    }
+  }
+
+  @Test
+  public void should_analyze_again_files_whose_program_may_have_changed() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    DefaultInputFile testInputFile = createTestInputFile(sensorContext);
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), testInputFile.absolutePath())
+      .tslint(node, resourceScript("/mockTsLint.js"), testInputFile.absolutePath())).execute(sensorContext);
+
+    // a file of another tsconfig.json may be imported by foo/file.ts
+    logTester.clear();
+    SensorContextTester secondSensorContext = createSensorContext();
+    createTestInputFile(secondSensorContext);
+    DefaultInputFile otherInputFile = createTestInputFile(secondSensorContext, "other/file.ts");
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), otherInputFile.absolutePath())
+      .tslint(node, resourceScript("/mockTsLint.js"), testInputFile.absolutePath())).execute(secondSensorContext);
+
+    // metrics only depend on content, which is the same
+    assertThat(logTester.logs()).contains("Analysis cache: metrics of 2 files reused, 0 files measured; rule failures of 0 files reused, 2 files analyzed; "
+      + "syntactic rule failures of 1 files reused, 1 files analyzed");
+  }
+
+  @Test
+  public void should_calculate_metrics_and_run_rules_in_single_process() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    sensorContext.setSettings(settings().setProperty(TypeScriptPlugin.COMBINED_ANALYSIS_KEY, "true"));
+    DefaultInputFile testInputFile = createTestInputFile(sensorContext);
+    createSensor(new TestBundleFactory().tsMetrics("non_existent_command").tslint("non_existent_command").analyze(node, resourceScript("/mockAnalyze.js")))
+      .execute(sensorContext);
+
+    assertThat(logTester.logs(LoggerLevel.ERROR)).isEmpty();
+    assertThat(sensorContext.allIssues()).hasSize(1);
+    assertThat(sensorContext.highlightingTypeAt(testInputFile.key(), 2, 3)).containsExactly(TypeOfText.KEYWORD);
+    assertThat(sensorContext.measure(testInputFile.key(), CoreMetrics.NCLOC).value()).isEqualTo(3);
+    assertThat(sensorContext.measure(testInputFile.key(), CoreMetrics.FUNCTIONS).value()).isEqualTo(10);
+  }
+
+  @Test
+  public void should_measure_files_missing_from_single_process_output() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    sensorContext.setSettings(settings().setProperty(TypeScriptPlugin.COMBINED_ANALYSIS_KEY, "true"));
+    DefaultInputFile testInputFile = createTestInputFile(sensorContext);
+    createSensor(new TestBundleFactory().tsMetrics(node, resourceScript("/mockTsMetrics.js"), testInputFile.absolutePath()).tslint("non_existent_command")
+      .analyze(node, "-e", "console.log('');")).execute(sensorContext);
+
+    assertThat(sensorContext.allIssues()).isEmpty();
+    assertThat(sensorContext.measure(testInputFile.key(), CoreMetrics.NCLOC).value()).isEqualTo(3);
+  }
+
+  @Test
+  public void should_run_analysis_with_server() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    sensorContext.setSettings(settings().setProperty(TypeScriptPlugin.DAEMON_KEY, "true"));
+    DefaultInputFile testInputFile = createTestInputFile(sensorContext);
+    DefaultInputFile otherInputFile = createTestInputFile(sensorContext, "foo/other.ts");
+    // "file.ts" is in resources directory, where there is no tsconfig.json
+    DefaultInputFile fileWithoutTsconfig = createTestInputFile(sensorContext, "file.ts");
+
+    ExternalTypescriptSensor sensor = createSensor(new TestBundleFactory().tsServer(node, resourceScript("/mockTsServer.js"))
+      .syntacticTslintOnFiles(node, resourceScript("/mockTsLintPerFile.js"), "--rule=deprecation"));
+    sensor.execute(sensorContext);
+
+    // rules with type information are run by the server, other rules by separate processes, on all files
+    assertThat(sensorContext.allIssues()).extracting(issue -> issue.primaryLocation().inputComponent().key())
+      .containsExactlyInAnyOrder(testInputFile.key(), testInputFile.key(), otherInputFile.key(), otherInputFile.key(), fileWithoutTsconfig.key());
+    assertThat(sensorContext.highlightingTypeAt(testInputFile.key(), 2, 3)).containsExactly(TypeOfText.KEYWORD);
+    assertThat(sensorContext.measure(otherInputFile.key(), CoreMetrics.NCLOC).value()).isEqualTo(3);
+    assertThat(sensorContext.cpdTokens(otherInputFile.key())).hasSize(1);
+  }
+
+  @Test
+  public void should_analyze_with_processes_when_server_fails_to_analyze_tsconfig() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    sensorContext.setSettings(settings().setProperty(TypeScriptPlugin.DAEMON_KEY, "true"));
+    DefaultInputFile testInputFile = createTestInputFile(sensorContext, "foo/bar/file.ts");
+    DefaultInputFile otherInputFile = createTestInputFile(sensorContext, "foo/bar/other.ts");
+
+    // the process fails on "file.ts" only, which is isolated by splitting the batch
+    ExternalTypescriptSensor sensor = createSensor(new TestBundleFactory().tsServer(node, resourceScript("/mockTsServer.js"))
+      .tslintOnFiles(node, "-e", "var files = process.argv.slice(1); if (files.some(function (file) { return /file\\.ts$/.test(file); })) { process.exit(1); } "
+        + "console.log(JSON.stringify(files.map(function (file) { return {failure: 'some message', startPosition: {line: 1, character: 5}, "
+        + "endPosition: {line: 1, character: 6}, name: file, ruleName: 'no-unconditional-jump'}; })));"));
+    sensor.execute(sensorContext);
+
+    assertThat(sensorContext.allIssues()).extracting(issue -> issue.primaryLocation().inputComponent().key()).containsExactly(otherInputFile.key());
+    assertThat(sensorContext.measure(testInputFile.key(), CoreMetrics.NCLOC).value()).isEqualTo(3);
+    assertThat(logTester.logs()).contains("Not analyzed due to a previous error : " + testInputFile.absolutePath());
+  }
+
+  @Test
+  public void should_keep_results_of_files_analyzed_by_server_when_others_fail() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    sensorContext.setSettings(settings().setProperty(TypeScriptPlugin.DAEMON_KEY, "true"));
+    DefaultInputFile testInputFile = createTestInputFile(sensorContext);
+    DefaultInputFile invalidInputFile = createTestInputFile(sensorContext, "foo/invalid/file.ts");
+
+    createSensor(new TestBundleFactory().tsServer(node, resourceScript("/mockTsServer.js"))).execute(sensorContext);
+
+    assertThat(sensorContext.allIssues()).extracting(issue -> issue.primaryLocation().inputComponent().key()).containsExactly(testInputFile.key());
+    assertThat(logTester.logs(LoggerLevel.ERROR)).contains("Not analyzed due to a previous error : " + invalidInputFile.absolutePath());
+  }
+
+  @Test
+  public void should_analyze_with_processes_when_server_killed_after_timeout() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    sensorContext.setSettings(settings().setProperty(TypeScriptPlugin.DAEMON_KEY, "true").setProperty(TypeScriptPlugin.PROCESS_TIMEOUT_KEY, "1"));
+    DefaultInputFile testInputFile = createTestInputFile(sensorContext, "foo/slow/file.ts");
+    String failure = "{failure: 'some message', startPosition: {line: 1, character: 5}, endPosition: {line: 1, character: 6}, "
+      + "name: '" + testInputFile.absolutePath().replace("\\", "\\\\") + "', ruleName: 'no-unconditional-jump'}";
+
+    ExternalTypescriptSensor sensor = createSensor(new TestBundleFactory().tsServer(node, resourceScript("/mockTsServer.js"))
+      .tslint(node, "-e", "console.log(JSON.stringify([" + failure + "]));"));
+    sensor.execute(sensorContext);
+
+    assertThat(sensorContext.measure(testInputFile.key(), CoreMetrics.NCLOC).value()).isEqualTo(3);
+    assertThat(sensorContext.allIssues()).hasSize(1);
+    assertThat(logTester.logs(LoggerLevel.ERROR).stream().anyMatch(log -> log.startsWith("SonarTS server did not answer in 1 seconds, killing it"))).isTrue();
+    assertThat(logTester.logs(LoggerLevel.ERROR)).contains("SonarTS server stopped while analyzing `" + new File(baseDir, "foo/tsconfig.json").getAbsolutePath()
+      + "`, remaining files are analyzed by separate processes");
+  }
+
+  @Test
+  public void should_send_metrics_to_server_in_batches() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    sensorContext.setSettings(settings().setProperty(TypeScriptPlugin.DAEMON_KEY, "true").setProperty(TypeScriptPlugin.MAX_FILES_PER_PROCESS_KEY, "1"));
+    DefaultInputFile fooFile = createTestInputFile(sensorContext, "foo/file.ts");
+    DefaultInputFile otherFile = createTestInputFile(sensorContext, "foo/other.ts");
+
+    createSensor(new TestBundleFactory().tsServer(node, resourceScript("/mockTsServer.js"))).execute(sensorContext);
+
+    assertThat(sensorContext.measure(fooFile.key(), CoreMetrics.FUNCTIONS).value()).isEqualTo(1);
+    assertThat(sensorContext.measure(otherFile.key(), CoreMetrics.FUNCTIONS).value()).isEqualTo(1);
+  }
+
+  @Test
+  public void should_measure_with_processes_when_server_killed_while_calculating_metrics() throws Exception {
+    SensorContextTester sensorContext = createSensorContext();
+    sensorContext.setSettings(settings().setProperty(TypeScriptPlugin.DAEMON_KEY, "true").setProperty(TypeScriptPlugin.MAX_FILES_PER_PROCESS_KEY, "1")
+      .setProperty(TypeScriptPlugin.PROCESS_TIMEOUT_KEY, "1"));
+    DefaultInputFile slowFile = createTestInputFile(sensorContext, "foo/slow-metrics/file.ts");
+    DefaultInputFile otherFile = createTestInputFile(sensorContext, "foo/other.ts");
+
+    createSensor(new TestBundleFactory().tsServer(node, resourceScript("/mockTsServer.js"))
+      .tsMetrics(node, resourceScript("/mockTsMetricsPerFile.js"))
+      .tslint(node, "-e", "console.log('[]');")).execute(sensorContext);
+
+    // measured by a separate process, as well as files of the batches following it
+    assertThat(sensorContext.measure(slowFile.key(), CoreMetrics.NCLOC).value()).isEqualTo(1);
+    assertThat(sensorContext.measure(otherFile.key(), CoreMetrics.NCLOC)).isNotNull();
+    assertThat(logTester.logs(LoggerLevel.ERROR)).contains("SonarTS server stopped while calculating metrics, remaining files are measured by separate processes");
+  }
+
+  @Test
+  public void should_fail_when_failed_server_process() throws Exception {
+    TestBundleFactory testBundle = new TestBundleFactory().tsServer("non_existent_command", "arg1");
+    SensorContextTester sensorContext = createSensorContext();
+    sensorContext.setSettings(settings().setProperty(TypeScriptPlugin.DAEMON_KEY, "true"));
+    createTestInputFile(sensorContext);
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Failed to start SonarTS server `non_existent_command arg1`");
+    createSensor(testBundle).execute(sensorContext);
+  }
+
   private SensorContextTester createSensorContext() {
-    SensorContextTester sensorContext = SensorContextTester.create(BASE_DIR);
+    SensorContextTester sensorContext = SensorContextTester.create(baseDir);
     sensorContext.fileSystem().setWorkDir(tmpDir.getRoot());
+    sensorContext.setSettings(settings());
     return sensorContext;
   }
 
+  /**
+   * Data kept between analyses is written to the temporary folder rather than to the Sonar user home
+   */
+  private MapSettings settings() {
+    return new MapSettings().setProperty(SonarUserHome.PROPERTY, tmpDir.getRoot().getAbsolutePath());
+  }
+
   private ExternalTypescriptSensor createSensor() {
     return createSensor(new TestBundleFactory());
   }
 
   private ExternalTypescriptSensor createSensor(ExecutableBundleFactory executableBundleFactory) {
+    // "S1874" needs type information, other rules do not
+    return createSensor(executableBundleFactory, "S1751", "S113", "S1874");
+  }
+
+  private ExternalTypescriptSensor createSensor(ExecutableBundleFactory executableBundleFactory, String... activeRules) {
     FileLinesContextFactory fileLinesContextFactory = mock(FileLinesContextFactory.class);
     fileLinesContext = mock(FileLinesContext.class);
     when(fileLinesContextFactory.createFor(any(InputFile.class))).thenReturn(fileLinesContext);
 
     noSonarFilter = mock(NoSonarFilter.class);
-    CheckFactory checkFactory = new CheckFactory(new TestActiveRules("S1751", "S113"));
+    CheckFactory checkFactory = new CheckFactory(new TestActiveRules(activeRules));
     return new ExternalTypescriptSensor(executableBundleFactory, noSonarFilter, fileLinesContextFactory, checkFactory);
   }
 
   private DefaultInputFile createTestInputFile(SensorContextTester sensorContext) {
     DefaultInputFile testInputFile = new TestInputFileBuilder("moduleKey", "foo/file.ts")
-      .setModuleBaseDir(BASE_DIR.toPath())
+      .setModuleBaseDir(baseDir.toPath())
       .setType(Type.MAIN)
       .setLanguage(TypeScriptLanguage.KEY)
       .setCharset(StandardCharsets.UTF_8)
       .setContents(FILE_CONTENT)
       .build();
 
+    writeContents(testInputFile, FILE_CONTENT);
     sensorContext.fileSystem().add(testInputFile);
     return testInputFile;
   }
 
   private DefaultInputFile createTestInputFile(SensorContextTester sensorContext, String relativePath) {
+    return createTestInputFile(sensorContext, relativePath, FILE_CONTENT);
+  }
+
+  private DefaultInputFile createTestInputFile(SensorContextTester sensorContext, String relativePath, String contents) {
     DefaultInputFile testInputFile = new TestInputFileBuilder("moduleKey", relativePath)
-      .setModuleBaseDir(BASE_DIR.toPath())
+      .setModuleBaseDir(baseDir.toPath())
       .setType(Type.MAIN)
       .setLanguage(TypeScriptLanguage.KEY)
       .setCharset(StandardCharsets.UTF_8)
-      .setContents(FILE_CONTENT)
+      .setContents(contents)
       .build();
 
+    writeContents(testInputFile, contents);
     sensorContext.fileSystem().add(testInputFile);
     return testInputFile;
   }
 
+  private static void writeContents(DefaultInputFile inputFile, String contents) {
+    try {
+      Files.createDirectories(inputFile.path().getParent());
+      Files.write(inputFile.path(), contents.getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   private static class TestBundleFactory implements ExecutableBundleFactory {
 
     private String[] ruleCheckCommand;
     private String[] sonarCommand;
+    private String[] serverCommand;
+    private String[] analyzeCommand;
+    private String[] syntacticCommand;
+    private boolean appendFilesToTslint = false;
 
     public TestBundleFactory tslint(String... ruleCheckCommmand) {
       this.ruleCheckCommand = ruleCheckCommmand;
@@ -316,6 +924,27 @@ public class ExternalTypescriptSensorTest {
       return this;
     }
 
+    public TestBundleFactory tslintOnFiles(String... ruleCheckCommmand) {
+      this.ruleCheckCommand = ruleCheckCommmand;
+      this.appendFilesToTslint = true;
+      return this;
+    }
+
+    public TestBundleFactory tsServer(String... serverCommand) {
+      this.serverCommand = serverCommand;
+      return this;
+    }
+
+    public TestBundleFactory syntacticTslintOnFiles(String... syntacticCommand) {
+      this.syntacticCommand = syntacticCommand;
+      return this;
+    }
+
+    public TestBundleFactory analyze(String... analyzeCommand) {
+      this.analyzeCommand = analyzeCommand;
+      return this;
+    }
+
     @Override
     public ExecutableBundle createAndDeploy(File deployDestination) {
       return new TestBundle();
@@ -330,6 +959,35 @@ public class ExternalTypescriptSensorTest {
         return command;
       }
 
+      @Override
+      public Command getTsServerCommand() {
+        Command command = Command.create(serverCommand[0]);
+        command.addArguments(Arrays.copyOfRange(serverCommand, 1, serverCommand.length));
+        return command;
+      }
+
+      @Override
+      public Command getSyntacticTslintCommand(Collection<InputFile> inputFiles) {
+        if (syntacticCommand == null) {
+          // no failure
+          return Command.create(node).addArguments(Arrays.asList("-e", "console.log('')"));
+        }
+        Command command = Command.create(syntacticCommand[0]);
+        command.addArguments(Arrays.copyOfRange(syntacticCommand, 1, syntacticCommand.length));
+        inputFiles.forEach(inputFile -> command.addArgument(inputFile.absolutePath()));
+        return command;
+      }
+
+      @Override
+      public Command getAnalyzeCommand(String tsconfigPath, Collection<InputFile> inputFiles, Collection<InputFile> filesToMeasure) {
+        Command command = Command.create(analyzeCommand[0]);
+        command.addArguments(Arrays.copyOfRange(analyzeCommand, 1, analyzeCommand.length));
+        inputFiles.forEach(inputFile -> command.addArgument(inputFile.absolutePath()));
+        command.addArgument("--metrics");
+        filesToMeasure.forEach(inputFile -> command.addArgument(inputFile.absolutePath()));
+        return command;
+      }
+
       @Override
       public void activateRules(TypeScriptRules typeScriptRules) {
       }
@@ -338,6 +996,9 @@ public class ExternalTypescriptSensorTest {
       public Command getTslintCommand(String tsconfigPath, Collection<InputFile> inputFiles) {
         Command command = Command.create(ruleCheckCommand[0]);
         command.addArguments(Arrays.copyOfRange(ruleCheckCommand, 1, ruleCheckCommand.length));
+        if (appendFilesToTslint) {
+          inputFiles.forEach(inputFile -> command.addArgument(inputFile.absolutePath()));
+        }
         return command;
       }
     }
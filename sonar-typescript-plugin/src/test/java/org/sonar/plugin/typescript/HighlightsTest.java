@@ -0,0 +1,68 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+import org.sonar.api.batch.sensor.highlighting.TypeOfText;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HighlightsTest {
+
+  private final Gson gson = new Gson();
+
+  @Test
+  public void should_decode_highlights_in_columns() throws Exception {
+    String json = "[{\"startLine\":1,\"startCol\":2,\"endLine\":3,\"endCol\":4,\"textType\":\"keyword\",\"unknown\":{}},"
+      + "{\"textType\":\"structured_comment\",\"endCol\":8,\"endLine\":7,\"startCol\":6,\"startLine\":5}]";
+    Highlights highlights = gson.fromJson(json, Highlights.class);
+
+    assertThat(highlights.size()).isEqualTo(2);
+    assertThat(highlights.startLine(0)).isEqualTo(1);
+    assertThat(highlights.startCol(0)).isEqualTo(2);
+    assertThat(highlights.endLine(0)).isEqualTo(3);
+    assertThat(highlights.endCol(0)).isEqualTo(4);
+    assertThat(highlights.type(0)).isEqualTo(TypeOfText.KEYWORD);
+    assertThat(highlights.startLine(1)).isEqualTo(5);
+    assertThat(highlights.endCol(1)).isEqualTo(8);
+    assertThat(highlights.type(1)).isEqualTo(TypeOfText.STRUCTURED_COMMENT);
+  }
+
+  @Test
+  public void should_grow_and_encode_back() throws Exception {
+    Highlights highlights = new Highlights(0);
+    for (int i = 0; i < 100; i++) {
+      highlights.add(i, i + 1, i + 2, i + 3, TypeOfText.STRING);
+    }
+
+    Highlights decoded = gson.fromJson(gson.toJson(highlights), Highlights.class);
+
+    assertThat(decoded.size()).isEqualTo(100);
+    assertThat(decoded.startLine(99)).isEqualTo(99);
+    assertThat(decoded.endCol(99)).isEqualTo(102);
+    assertThat(decoded.type(99)).isEqualTo(TypeOfText.STRING);
+  }
+
+  @Test
+  public void should_accept_text_type_in_any_case() throws Exception {
+    assertThat(Highlights.typeOfText("Constant")).isEqualTo(TypeOfText.CONSTANT);
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.config.MapSettings;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NodeHeapTest {
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @Test
+  public void should_estimate_heap_from_files() throws Exception {
+    NodeHeap nodeHeap = new NodeHeap(8192);
+
+    assertThat(nodeHeap.sizeFor(Collections.singletonList(inputFile("small.ts", 1024)))).isEqualTo(NodeHeap.DEFAULT_MB);
+    // 512 MB + 50 times 40 MB
+    assertThat(nodeHeap.sizeFor(Arrays.asList(inputFile("big.ts", 20 * 1024 * 1024), inputFile("other.ts", 20 * 1024 * 1024)))).isEqualTo(2512);
+    assertThat(nodeHeap.sizeFor(Collections.singletonList(inputFile("huge.ts", 200 * 1024 * 1024)))).isEqualTo(8192);
+    assertThat(NodeHeap.expectedMb(2512)).isEqualTo(2512 + NodeHeap.OVERHEAD_MB);
+  }
+
+  @Test
+  public void should_stay_below_memory_of_small_container() throws Exception {
+    NodeHeap nodeHeap = NodeHeap.create(new MapSettings(), new CgroupLimits(1024L * 1024 * 1024, 1));
+
+    assertThat(nodeHeap.maxMb()).isEqualTo(512);
+    assertThat(nodeHeap.sizeFor(Collections.singletonList(inputFile("small.ts", 1024)))).isEqualTo(512);
+  }
+
+  @Test
+  public void should_raise_heap_up_to_max() throws Exception {
+    NodeHeap nodeHeap = new NodeHeap(6000);
+
+    assertThat(nodeHeap.raise(2048)).isEqualTo(4096);
+    assertThat(nodeHeap.raise(4096)).isEqualTo(6000);
+    assertThat(nodeHeap.raise(6000)).isEqualTo(6000);
+  }
+
+  @Test
+  public void should_read_max_heap_from_settings() throws Exception {
+    CgroupLimits limits = new CgroupLimits(16L * 1024 * 1024 * 1024, 4);
+    assertThat(NodeHeap.create(new MapSettings().setProperty(TypeScriptPlugin.NODE_MAX_HEAP_KEY, "3000"), limits).maxMb()).isEqualTo(3000);
+    assertThat(NodeHeap.create(new MapSettings(), limits).maxMb()).isEqualTo(8192);
+    assertThat(NodeHeap.create(new MapSettings(), new CgroupLimits(CgroupLimits.UNKNOWN, 4)).maxMb()).isGreaterThanOrEqualTo(NodeHeap.DEFAULT_MB);
+  }
+
+  @Test
+  public void should_recognize_out_of_memory() throws Exception {
+    assertThat(NodeHeap.isOutOfMemory("<--- Last few GCs --->\nFATAL ERROR: Ineffective mark-compacts near heap limit Allocation failed - JavaScript heap out of memory")).isTrue();
+    assertThat(NodeHeap.isOutOfMemory("Error: Invalid source file: file.ts")).isFalse();
+  }
+
+  private InputFile inputFile(String name, int size) throws Exception {
+    File file = tmpDir.newFile(name);
+    Files.write(file.toPath(), new byte[size]);
+    return new TestInputFileBuilder("moduleKey", name).setModuleBaseDir(tmpDir.getRoot().toPath()).build();
+  }
+}
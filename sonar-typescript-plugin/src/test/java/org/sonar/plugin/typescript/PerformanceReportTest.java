@@ -0,0 +1,102 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.utils.log.LogTester;
+import org.sonar.api.utils.log.LoggerLevel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PerformanceReportTest {
+
+  private static final long SECOND = 1_000_000_000L;
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @Rule
+  public final LogTester logTester = new LogTester();
+
+  @Test
+  public void should_sum_phases_and_groups() throws Exception {
+    PerformanceReport report = new PerformanceReport("test");
+    report.addPhase("deploy", 2 * SECOND, SECOND);
+    report.addPhase("deploy", SECOND, SECOND);
+    report.addProcess("a/tsconfig.json", 4 * SECOND, 1000);
+    report.addProcess("a/tsconfig.json", 4 * SECOND, 500);
+    report.addResults("a/tsconfig.json", 16, 8);
+    report.addBytesRead(24);
+    report.setFiles(16);
+    report.setIssues(7);
+    report.write(tmpDir.getRoot());
+
+    JsonObject json = readJson("sonarts-test-performance.json");
+    assertThat(json.get("files").getAsInt()).isEqualTo(16);
+    assertThat(json.get("issues").getAsInt()).isEqualTo(7);
+    assertThat(json.get("bytesRead").getAsLong()).isEqualTo(1524);
+    JsonObject phase = json.getAsJsonArray("phases").get(0).getAsJsonObject();
+    assertThat(phase.get("name").getAsString()).isEqualTo("deploy");
+    assertThat(phase.get("count").getAsInt()).isEqualTo(2);
+    assertThat(phase.get("wallSeconds").getAsDouble()).isEqualTo(3.0);
+    assertThat(phase.get("cpuSeconds").getAsDouble()).isEqualTo(2.0);
+    JsonArray groups = json.getAsJsonArray("groups");
+    assertThat(groups).hasSize(1);
+    JsonObject group = groups.get(0).getAsJsonObject();
+    assertThat(group.get("processes").getAsInt()).isEqualTo(2);
+    assertThat(group.get("wallSeconds").getAsDouble()).isEqualTo(8.0);
+    assertThat(group.get("bytesRead").getAsLong()).isEqualTo(1500);
+    assertThat(group.get("filesPerSecond").getAsDouble()).isEqualTo(2.0);
+    assertThat(group.get("issuesPerSecond").getAsDouble()).isEqualTo(1.0);
+
+    assertThat(logTester.logs(LoggerLevel.INFO).get(0)).startsWith("Performance of test analysis: 16 files in ").contains("7 issues", "1 KB read");
+    assertThat(logTester.logs(LoggerLevel.INFO).get(1)).contains("deploy", "3.000 s wall", "2.000 s CPU");
+  }
+
+  @Test
+  public void should_write_prometheus_text_format() throws Exception {
+    PerformanceReport report = new PerformanceReport("test");
+    report.addProcess("C:\\project\\\"quoted\"\\tsconfig.json", SECOND, 10);
+    try (PerformanceReport.Timer timer = report.start("deploy")) {
+      // measured
+    }
+    report.write(tmpDir.getRoot());
+
+    String text = new String(Files.readAllBytes(new File(tmpDir.getRoot(), "sonarts-test-performance.prom").toPath()), StandardCharsets.UTF_8);
+    assertThat(text).contains(
+      "# TYPE sonarts_phase_wall_seconds gauge\n",
+      "sonarts_group_bytes_read{sensor=\"test\",group=\"C:\\\\project\\\\\\\"quoted\\\"\\\\tsconfig.json\"} 10.0\n",
+      "sonarts_group_wall_seconds{sensor=\"test\",group=\"C:\\\\project\\\\\\\"quoted\\\"\\\\tsconfig.json\"} 1.0\n");
+    assertThat(text).containsPattern("sonarts_phase_wall_seconds\\{sensor=\"test\",phase=\"deploy\"} \\d");
+    assertThat(tmpDir.getRoot().list()).containsOnly("sonarts-test-performance.json", "sonarts-test-performance.prom");
+  }
+
+  private JsonObject readJson(String fileName) throws Exception {
+    return new JsonParser().parse(new String(Files.readAllBytes(new File(tmpDir.getRoot(), fileName).toPath()), StandardCharsets.UTF_8)).getAsJsonObject();
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.utils.command.Command;
+import org.sonar.api.utils.log.LogTester;
+import org.sonar.api.utils.log.LoggerLevel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProcessSchedulerTest {
+
+  private static final long MB = 1024L * 1024L;
+  private static String node;
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @Rule
+  public final LogTester logTester = new LogTester();
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    try {
+      String nodeFromMavenPlugin = "target/node/node";
+      Runtime.getRuntime().exec(nodeFromMavenPlugin);
+      node = nodeFromMavenPlugin;
+
+    } catch (IOException e) {
+      node = "node";
+    }
+  }
+
+  @Test
+  public void should_start_process_when_memory_is_available() throws Exception {
+    try (ProcessScheduler scheduler = new ProcessScheduler(1000 * MB, 30, Paths.get("/proc"), new PerformanceReport("test"))) {
+      ExternalProcess first = scheduler.start(command("setTimeout(function () {}, 1500);"), "first", 0, 600);
+      long start = System.nanoTime();
+      // does not fit next to the first one
+      ExternalProcess second = scheduler.start(command(""), "second", 0, 600);
+      long waitedMilliseconds = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      assertThat(first.isAlive()).isFalse();
+      assertThat(waitedMilliseconds).isGreaterThan(500);
+      assertThat(second.waitFor()).isEqualTo(0);
+      // fits next to the second one
+      assertThat(scheduler.start(command(""), "third", 0, 300).waitFor()).isEqualTo(0);
+    }
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).contains("Waiting for memory to start node process for `second` (600 MB expected, 600 MB used by 1 running processes)");
+  }
+
+  @Test
+  public void should_always_start_process_when_none_is_running() throws Exception {
+    try (ProcessScheduler scheduler = new ProcessScheduler(0, 30, Paths.get("/proc"), new PerformanceReport("test"))) {
+      ExternalProcess process = scheduler.start(command("console.log('done');"), "scope", 0, 600);
+      assertThat(IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8)).isEqualTo("done\n");
+      assertThat(process.waitFor()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void should_start_processes_one_at_a_time_next_to_long_lived_process() throws Exception {
+    try (ProcessScheduler scheduler = new ProcessScheduler(1000 * MB, 1, Paths.get("/proc"), new PerformanceReport("test"))) {
+      ExternalProcess server = scheduler.startLongLived(command("setTimeout(function () {}, 60000);"), "server", 0, 1000);
+      // does not fit next to the server, which runs until the end of the analysis
+      assertThat(scheduler.start(command(""), "first", 0, 600).waitFor()).isEqualTo(0);
+      Thread.sleep(1500);
+      // not killed after the timeout
+      assertThat(server.isAlive()).isTrue();
+      server.destroy();
+      assertThat(server.waitFor(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(server.isKilled()).isFalse();
+    }
+  }
+
+  @Test
+  public void should_log_peak_memory() throws Exception {
+    // resident set size is only available on Linux
+    ExternalProcess process;
+    try (ProcessScheduler scheduler = new ProcessScheduler(1000 * MB, 30, Paths.get("/proc"), new PerformanceReport("test"))) {
+      process = scheduler.start(command("var a = new Array(1e6).fill(1); setTimeout(function () {}, 1200);"), "some/tsconfig.json", 0, 100);
+      process.waitFor();
+    }
+    if (process.pid() > 0 && Files.isDirectory(Paths.get("/proc/self"))) {
+      assertThat(logTester.logs(LoggerLevel.INFO)).hasSize(1);
+      assertThat(logTester.logs(LoggerLevel.INFO).get(0)).matches("Peak memory of node process for `some/tsconfig.json`: \\d+ MB");
+    }
+  }
+
+  @Test
+  public void should_read_resident_set_size() throws Exception {
+    Path procRoot = tmpDir.getRoot().toPath();
+    Files.createDirectories(procRoot.resolve("42"));
+    Files.write(procRoot.resolve("42/status"), "Name:\tnode\nVmPeak:\t  900000 kB\nVmRSS:\t  123456 kB\nThreads:\t11\n".getBytes(StandardCharsets.UTF_8));
+
+    assertThat(ProcessScheduler.rssBytes(procRoot, 42)).isEqualTo(123456 * 1024L);
+    assertThat(ProcessScheduler.rssBytes(procRoot, 43)).isEqualTo(-1);
+    assertThat(ProcessScheduler.rssBytes(procRoot, -1)).isEqualTo(-1);
+  }
+
+  private static Command command(String script) {
+    return Command.create(node).addArgument("-e").addArgument(script);
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SaveQueueTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void should_run_published_actions_on_draining_thread() throws Exception {
+    SaveQueue saveQueue = new SaveQueue();
+    List<Thread> threads = new ArrayList<>();
+    List<String> saved = new ArrayList<>();
+
+    saveQueue.submit(executor, publisher -> {
+      publisher.accept(() -> saved.add("metrics1"));
+      publisher.accept(() -> saved.add("metrics2"));
+    });
+    saveQueue.submit(executor, publisher -> publisher.accept(() -> {
+      threads.add(Thread.currentThread());
+      saved.add("rules");
+    }));
+    saveQueue.drain();
+
+    assertThat(saved).containsOnly("metrics1", "metrics2", "rules");
+    assertThat(saved.indexOf("metrics1")).isLessThan(saved.indexOf("metrics2"));
+    assertThat(threads).containsExactly(Thread.currentThread());
+  }
+
+  @Test
+  public void should_rethrow_task_exception() throws Exception {
+    SaveQueue saveQueue = new SaveQueue();
+    saveQueue.submit(executor, publisher -> {
+      throw new IllegalStateException("Failed to run external process");
+    });
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Failed to run external process");
+    saveQueue.drain();
+  }
+
+  @Test(timeout = 10_000)
+  public void should_run_published_actions_in_between_deferred_actions() throws Exception {
+    SaveQueue saveQueue = new SaveQueue();
+    AtomicBoolean published = new AtomicBoolean();
+    List<Integer> saved = new ArrayList<>();
+
+    saveQueue.submit(executor, publisher -> {
+      // more than the queue holds
+      for (int i = 0; i < 1000; i++) {
+        int action = i;
+        publisher.accept(() -> saved.add(action));
+      }
+      published.set(true);
+    });
+    // sensor work lasting until the task published everything, which never happens unless the queue is drained meanwhile
+    saveQueue.defer(new Runnable() {
+      @Override
+      public void run() {
+        if (!published.get()) {
+          saveQueue.defer(this);
+        }
+      }
+    });
+    saveQueue.drain();
+
+    assertThat(saved).hasSize(1000);
+  }
+
+  @Test
+  public void should_run_tasks_submitted_by_deferred_actions() throws Exception {
+    SaveQueue saveQueue = new SaveQueue();
+    List<String> saved = new ArrayList<>();
+
+    saveQueue.defer(() -> saved.add("replay1"));
+    saveQueue.defer(() -> {
+      saved.add("replay2");
+      saveQueue.submit(executor, publisher -> publisher.accept(() -> saved.add("metrics")));
+    });
+    saveQueue.drain();
+
+    assertThat(saved).containsExactly("replay1", "replay2", "metrics");
+  }
+
+  @Test
+  public void should_return_when_nothing_submitted() throws Exception {
+    new SaveQueue().drain();
+  }
+}
@@ -21,11 +21,17 @@ package org.sonar.plugin.typescript;
 
 import com.google.common.io.Files;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.io.IOUtils;
 import org.assertj.core.util.Lists;
 import org.junit.Before;
+import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -35,6 +41,8 @@ import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
 import org.sonar.api.batch.rule.CheckFactory;
 import org.sonar.api.internal.apachecommons.lang.StringUtils;
 import org.sonar.api.utils.command.Command;
+import org.sonar.api.utils.log.LogTester;
+import org.sonar.api.utils.log.LoggerLevel;
 import org.sonar.plugin.typescript.executable.ExecutableBundle;
 import org.sonar.plugin.typescript.executable.SonarTSCoreBundleFactory;
 import org.sonar.plugin.typescript.rules.TypeScriptRules;
@@ -49,16 +57,46 @@ public class SonarTSCoreBundleTest {
   @Rule
   public ExpectedException expectedException = ExpectedException.none();
 
+  @Rule
+  public final LogTester logTester = new LogTester();
+
   private File DEPLOY_DESTINATION;
+  private File BUNDLES_ROOT;
+
+  /**
+   * Minimal bundle deployed by these tests, generated next to the other test resources
+   */
+  @BeforeClass
+  public static void createTestBundle() throws Exception {
+    File testResources = new File(SonarTSCoreBundleTest.class.getResource("/badZip.zip").toURI()).getParentFile();
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(new File(testResources, "testBundle.zip")))) {
+      for (String directory : new String[] {"sonarts-core/", "sonarts-core/bin/", "sonarts-core/node_modules/", "sonarts-core/node_modules/tslint/",
+        "sonarts-core/node_modules/tslint/bin/"}) {
+        zip.putNextEntry(new ZipEntry(directory));
+        zip.closeEntry();
+      }
+      addZipEntry(zip, "sonarts-core/package.json", "{\"name\": \"sonarts-core-test-bundle\"}\n");
+      addZipEntry(zip, "sonarts-core/node_modules/tslint/bin/tslint", "#!/usr/bin/env node\n");
+      addZipEntry(zip, "sonarts-core/bin/sonarts-server.js", "#!/usr/bin/env node\n");
+      addZipEntry(zip, "sonarts-core/bin/tsmetrics-binary.js", "#!/usr/bin/env node\nprocess.stdout.write(require(\"typescript\").version);\n");
+    }
+  }
+
+  private static void addZipEntry(ZipOutputStream zip, String name, String content) throws Exception {
+    zip.putNextEntry(new ZipEntry(name));
+    zip.write(content.getBytes(StandardCharsets.UTF_8));
+    zip.closeEntry();
+  }
 
   @Before
   public void setUp() throws Exception {
     DEPLOY_DESTINATION =  temporaryFolder.newFolder("deployDestination");
+    BUNDLES_ROOT = temporaryFolder.newFolder("bundles");
   }
 
   @Test
   public void should_create_command() throws Exception {
-    ExecutableBundle bundle = new SonarTSCoreBundleFactory("/testBundle.zip").createAndDeploy(DEPLOY_DESTINATION);
+    ExecutableBundle bundle = new SonarTSCoreBundleFactory("/testBundle.zip", BUNDLES_ROOT).createAndDeploy(DEPLOY_DESTINATION);
     File projectBaseDir = new File("/myProject");
     File tsconfig = new File(projectBaseDir, "tsconfig.json");
     DefaultInputFile file1 = new TestInputFileBuilder("moduleKey", "file1.ts").build();
@@ -66,35 +104,164 @@ public class SonarTSCoreBundleTest {
     Command ruleCommand = bundle.getTslintCommand(tsconfig.getAbsolutePath(), Lists.newArrayList(file1, file2));
 
 
-    String tslint = new File(DEPLOY_DESTINATION, "sonarts-core/node_modules/tslint/bin/tslint").getAbsolutePath();
-    String config = new File(DEPLOY_DESTINATION, "sonarts-core/tslint.json").getAbsolutePath();
+    File bundleDir = deployedBundleDir();
+    String tslint = new File(bundleDir, "sonarts-core/bin/tslint-files.js").getAbsolutePath();
+    String typeAwareConfig = new File(DEPLOY_DESTINATION, "tslint-type-aware.json").getAbsolutePath();
 
-    assertThat(ruleCommand.toCommandLine()).isEqualTo("node " + tslint + " --config " + config + " --format json --force --type-check --project "
-      + tsconfig.getAbsolutePath() + " " + file1.absolutePath() + " " + file2.absolutePath());
+    String formatters = new File(bundleDir, "sonarts-core/formatters").getAbsolutePath();
+
+    assertThat(ruleCommand.toCommandLine()).startsWith("node " + tslint + " --config " + typeAwareConfig + " --formatters-dir " + formatters + " --format ndjson --force --type-check --project "
+      + tsconfig.getAbsolutePath() + " --files-from ");
+    File fileList = new File(ruleCommand.getArguments().get(ruleCommand.getArguments().size() - 1));
+    assertThat(Files.readLines(fileList, StandardCharsets.UTF_8)).containsExactly(file1.absolutePath(), file2.absolutePath());
+
+    Command syntacticCommand = bundle.getSyntacticTslintCommand(Lists.newArrayList(file1));
+    assertThat(syntacticCommand.toCommandLine()).startsWith("node " + tslint + " --config " + new File(DEPLOY_DESTINATION, "tslint-syntactic.json").getAbsolutePath()
+      + " --formatters-dir " + formatters + " --format ndjson --force --files-from ");
+    assertThat(syntacticCommand.getArguments()).doesNotContain("--project");
 
     Command sonarCommand = bundle.getTsMetricsCommand();
-    assertThat(sonarCommand.toCommandLine()).isEqualTo("node " + new File(DEPLOY_DESTINATION, "sonarts-core/node_modules/tslint-sonarts/bin/tsmetrics").getAbsolutePath());
+    assertThat(sonarCommand.toCommandLine()).isEqualTo("node " + new File(bundleDir, "sonarts-core/node_modules/tslint-sonarts/bin/tsmetrics").getAbsolutePath());
+    assertThat(bundle.getTsMetricsCommand(false).toCommandLine()).isEqualTo(sonarCommand.toCommandLine());
+    assertThat(bundle.getTsMetricsCommand(true).toCommandLine()).isEqualTo("node " + new File(bundleDir, "sonarts-core/bin/tsmetrics-binary.js").getAbsolutePath());
+
+    Command serverCommand = bundle.getTsServerCommand();
+    assertThat(serverCommand.toCommandLine()).isEqualTo("node " + new File(bundleDir, "sonarts-core/bin/sonarts-server.js").getAbsolutePath() + " " + typeAwareConfig);
+
+    Command analyzeCommand = bundle.getAnalyzeCommand(tsconfig.getAbsolutePath(), Lists.newArrayList(file1, file2), Lists.newArrayList(file2));
+    List<String> arguments = analyzeCommand.getArguments();
+    assertThat(analyzeCommand.toCommandLine()).startsWith("node " + new File(bundleDir, "sonarts-core/bin/sonarts-analyze.js").getAbsolutePath() + " --config " + typeAwareConfig
+      + " --project " + tsconfig.getAbsolutePath() + " --files-from ");
+    assertThat(arguments.get(arguments.size() - 2)).isEqualTo("--metrics-from");
+    assertThat(Files.readLines(new File(arguments.get(arguments.size() - 3)), StandardCharsets.UTF_8)).containsExactly(file1.absolutePath(), file2.absolutePath());
+    assertThat(Files.readLines(new File(arguments.get(arguments.size() - 1)), StandardCharsets.UTF_8)).containsExactly(file2.absolutePath());
+    assertThat(bundle.getAnalyzeCommand(tsconfig.getAbsolutePath(), Lists.newArrayList(file1), Collections.emptyList()).getArguments()).doesNotContain("--metrics-from");
   }
 
 
+  @Test
+  public void should_delete_file_lists() throws Exception {
+    ExecutableBundle bundle = new SonarTSCoreBundleFactory("/testBundle.zip", BUNDLES_ROOT).createAndDeploy(DEPLOY_DESTINATION);
+    DefaultInputFile file1 = new TestInputFileBuilder("moduleKey", "file1.ts").build();
+    Command analyzeCommand = bundle.getAnalyzeCommand("tsconfig.json", Lists.newArrayList(file1), Lists.newArrayList(file1));
+    List<String> arguments = analyzeCommand.getArguments();
+    File filesList = new File(arguments.get(arguments.indexOf("--files-from") + 1));
+    File metricsList = new File(arguments.get(arguments.indexOf("--metrics-from") + 1));
+    assertThat(filesList).exists().hasParent(DEPLOY_DESTINATION);
+    assertThat(metricsList).exists().hasParent(DEPLOY_DESTINATION);
+
+    bundle.cleanUp(analyzeCommand);
+    assertThat(filesList).doesNotExist();
+    assertThat(metricsList).doesNotExist();
+    assertThat(DEPLOY_DESTINATION.list((dir, name) -> name.startsWith("sonarts-files-"))).isEmpty();
+  }
+
   @Test
   public void should_fail_when_bad_zip() throws Exception {
     expectedException.expect(IllegalStateException.class);
     expectedException.expectMessage("Failed to deploy SonarTS bundle (with classpath '/badZip.zip')");
-    new SonarTSCoreBundleFactory("/badZip.zip").createAndDeploy(DEPLOY_DESTINATION);
+    new SonarTSCoreBundleFactory("/badZip.zip", BUNDLES_ROOT).createAndDeploy(DEPLOY_DESTINATION);
   }
 
   @Test
   public void should_activate_rules() throws Exception {
-    ExecutableBundle bundle = new SonarTSCoreBundleFactory("/testBundle.zip").createAndDeploy(DEPLOY_DESTINATION);
+    ExecutableBundle bundle = new SonarTSCoreBundleFactory("/testBundle.zip", BUNDLES_ROOT).createAndDeploy(DEPLOY_DESTINATION);
     TypeScriptRules typeScriptRules = new TypeScriptRules(new CheckFactory(new TestActiveRules("S1751")));
     bundle.activateRules(typeScriptRules);
-    List<String> strings = Files.readLines(new File(DEPLOY_DESTINATION, "sonarts-core/tslint.json"), StandardCharsets.UTF_8);
+    assertThat(new File(DEPLOY_DESTINATION, "tslint.json")).doesNotExist();
+    List<String> strings = Files.readLines(new File(DEPLOY_DESTINATION, "tslint-syntactic.json"), StandardCharsets.UTF_8);
     String json = strings.stream().collect(Collectors.joining()).replaceAll("\\s+","");
     assertThat(json).contains("\"extends\":[\"tslint-sonarts\"]");
     assertThat(json).contains("\"no-unconditional-jump\":true");
     // only one occurrence of true
     assertThat(StringUtils.countMatches(json, "true")).isEqualTo(1);
+
+    String typeAware = Files.toString(new File(DEPLOY_DESTINATION, "tslint-type-aware.json"), StandardCharsets.UTF_8).replaceAll("\\s+", "");
+    assertThat(typeAware).contains("\"extends\":[\"tslint-sonarts\"]");
+    assertThat(typeAware).doesNotContain("true");
+  }
+
+  @Test
+  public void should_split_rules_depending_on_type_information() throws Exception {
+    ExecutableBundle bundle = new SonarTSCoreBundleFactory("/testBundle.zip", BUNDLES_ROOT).createAndDeploy(DEPLOY_DESTINATION);
+    TypeScriptRules typeScriptRules = new TypeScriptRules(new CheckFactory(new TestActiveRules("S1751", "S1874")));
+    bundle.activateRules(typeScriptRules);
+
+    String syntactic = Files.toString(new File(DEPLOY_DESTINATION, "tslint-syntactic.json"), StandardCharsets.UTF_8).replaceAll("\\s+", "");
+    assertThat(syntactic).contains("\"no-unconditional-jump\":true").contains("\"deprecation\":false");
+    assertThat(StringUtils.countMatches(syntactic, "true")).isEqualTo(1);
+
+    String typeAware = Files.toString(new File(DEPLOY_DESTINATION, "tslint-type-aware.json"), StandardCharsets.UTF_8).replaceAll("\\s+", "");
+    assertThat(typeAware).contains("\"no-unconditional-jump\":false").contains("\"deprecation\":true");
+    assertThat(StringUtils.countMatches(typeAware, "true")).isEqualTo(1);
+  }
+
+  @Test
+  public void should_reuse_deployed_bundle() throws Exception {
+    new SonarTSCoreBundleFactory("/testBundle.zip", BUNDLES_ROOT).createAndDeploy(DEPLOY_DESTINATION);
+    File bundleDir = deployedBundleDir();
+    File packageJson = new File(bundleDir, "sonarts-core/package.json");
+    Files.write("modified", packageJson, StandardCharsets.UTF_8);
+
+    new SonarTSCoreBundleFactory("/testBundle.zip", BUNDLES_ROOT).createAndDeploy(temporaryFolder.newFolder());
+
+    assertThat(logTester.logs(LoggerLevel.INFO)).filteredOn(log -> log.startsWith("Extracting SonarTS bundle (done) | time=")).hasSize(1);
+    assertThat(deployedBundleDir()).isEqualTo(bundleDir);
+    assertThat(Files.toString(packageJson, StandardCharsets.UTF_8)).isEqualTo("modified");
+  }
+
+  @Test
+  public void should_replace_incomplete_deployment() throws Exception {
+    new SonarTSCoreBundleFactory("/testBundle.zip", BUNDLES_ROOT).createAndDeploy(DEPLOY_DESTINATION);
+    File bundleDir = deployedBundleDir();
+    File packageJson = new File(bundleDir, "sonarts-core/package.json");
+    Files.write("modified", packageJson, StandardCharsets.UTF_8);
+    // as if deployment was interrupted
+    new File(bundleDir, ".deployed").delete();
+
+    new SonarTSCoreBundleFactory("/testBundle.zip", BUNDLES_ROOT).createAndDeploy(DEPLOY_DESTINATION);
+
+    assertThat(Files.toString(packageJson, StandardCharsets.UTF_8)).isNotEqualTo("modified");
+    assertThat(new File(bundleDir, ".deployed")).exists();
+    assertThat(BUNDLES_ROOT.list((dir, name) -> name.contains(".tmp"))).isEmpty();
+  }
+
+  @Test
+  public void should_deploy_to_sonar_user_home_of_analysis() throws Exception {
+    File userHome = temporaryFolder.newFolder("userHome");
+
+    new SonarTSCoreBundleFactory("/testBundle.zip").createAndDeploy(DEPLOY_DESTINATION, userHome, temporaryFolder.newFolder("project"));
+
+    File[] bundleDirs = new File(userHome, "sonarts-core").listFiles(File::isDirectory);
+    assertThat(bundleDirs).hasSize(1);
+    assertThat(new File(bundleDirs[0], "sonarts-core/package.json")).exists();
+  }
+
+  @Test
+  public void should_resolve_typescript_from_project_when_deployed_outside_of_it() throws Exception {
+    File baseDir = temporaryFolder.newFolder("project");
+    File typescript = new File(baseDir, "node_modules/typescript");
+    typescript.mkdirs();
+    Files.write("module.exports = { version: \"2.4.2\" };\n", new File(typescript, "index.js"), StandardCharsets.UTF_8);
+    File userHome = temporaryFolder.newFolder("userHome");
+
+    Command command = new SonarTSCoreBundleFactory("/testBundle.zip").createAndDeploy(DEPLOY_DESTINATION, userHome, baseDir).getTsMetricsCommand(true);
+
+    assertThat(command.getEnvironmentVariables().get("NODE_PATH")).startsWith(new File(baseDir, "node_modules").getAbsolutePath() + File.pathSeparator);
+    File embeddedNode = new File("target/node/node");
+    List<String> commandLine = Lists.newArrayList(embeddedNode.exists() ? embeddedNode.getAbsolutePath() : "node");
+    commandLine.addAll(command.getArguments());
+    ProcessBuilder processBuilder = new ProcessBuilder(commandLine).directory(temporaryFolder.getRoot());
+    processBuilder.environment().putAll(command.getEnvironmentVariables());
+    Process process = processBuilder.start();
+    assertThat(IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8)).isEqualTo("2.4.2");
+    assertThat(process.waitFor()).isEqualTo(0);
+  }
+
+  private File deployedBundleDir() {
+    File[] bundleDirs = BUNDLES_ROOT.listFiles(File::isDirectory);
+    assertThat(bundleDirs).hasSize(1);
+    return bundleDirs[0];
   }
 
 }
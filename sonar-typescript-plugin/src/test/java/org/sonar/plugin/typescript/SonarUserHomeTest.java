@@ -0,0 +1,44 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import java.io.File;
+import org.junit.Test;
+import org.sonar.api.config.MapSettings;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SonarUserHomeTest {
+
+  @Test
+  public void should_prefer_scanner_property() throws Exception {
+    File userHome = SonarUserHome.resolve(new MapSettings().setProperty(SonarUserHome.PROPERTY, "/ci/sonar-home"));
+
+    assertThat(userHome).isEqualTo(new File("/ci/sonar-home"));
+  }
+
+  @Test
+  public void should_default_to_environment_or_home_directory() throws Exception {
+    String environment = System.getenv("SONAR_USER_HOME");
+    File expected = environment == null || environment.isEmpty() ? new File(System.getProperty("user.home"), ".sonar") : new File(environment);
+
+    assertThat(SonarUserHome.resolve(new MapSettings())).isEqualTo(expected);
+  }
+}
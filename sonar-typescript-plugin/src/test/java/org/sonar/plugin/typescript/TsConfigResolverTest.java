@@ -0,0 +1,160 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TsConfigResolverTest {
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private File baseDir;
+
+  @Before
+  public void setUp() throws Exception {
+    baseDir = tmpDir.newFolder("project");
+  }
+
+  @Test
+  public void should_find_nearest_tsconfig() throws Exception {
+    File rootTsConfig = createFile("tsconfig.json");
+    File nestedTsConfig = createFile("nested/tsconfig.json");
+    TsConfigResolver resolver = new TsConfigResolver(baseDir);
+
+    assertThat(resolver.tsConfigOf(new File(baseDir, "file.ts"))).isEqualTo(rootTsConfig);
+    assertThat(resolver.tsConfigOf(new File(baseDir, "dir/file.ts"))).isEqualTo(rootTsConfig);
+    assertThat(resolver.tsConfigOf(new File(baseDir, "dir/other.ts"))).isEqualTo(rootTsConfig);
+    assertThat(resolver.tsConfigOf(new File(baseDir, "nested/dir/file.ts"))).isEqualTo(nestedTsConfig);
+  }
+
+  @Test
+  public void should_not_look_above_project_base_dir() throws Exception {
+    tmpDir.newFile("tsconfig.json");
+    TsConfigResolver resolver = new TsConfigResolver(baseDir);
+
+    assertThat(resolver.tsConfigOf(new File(baseDir, "dir/file.ts"))).isNull();
+  }
+
+  @Test
+  public void should_find_tsconfig_of_files_not_scanned() throws Exception {
+    File nodeModulesTsConfig = createFile("node_modules/lib/tsconfig.json");
+    File outsideTsConfig = tmpDir.newFile("tsconfig.json");
+    TsConfigResolver resolver = new TsConfigResolver(baseDir);
+
+    assertThat(resolver.tsConfigOf(new File(baseDir, "node_modules/lib/dir/file.ts"))).isEqualTo(nodeModulesTsConfig);
+    assertThat(resolver.tsConfigOf(new File(tmpDir.getRoot(), "other/file.ts"))).isEqualTo(outsideTsConfig);
+  }
+
+  @Test
+  public void should_return_null_for_files_outside_base_dir_without_tsconfig() throws Exception {
+    TsConfigResolver resolver = new TsConfigResolver(baseDir);
+
+    assertThat(resolver.tsConfigOf(new File("/file.ts"))).isNull();
+  }
+
+  @Test
+  public void should_find_tsconfig_including_file() throws Exception {
+    File rootTsConfig = createFile("tsconfig.json", "{\"exclude\": [\"generated\"]}");
+    File appTsConfig = createFile("src/tsconfig.app.json", "{\"include\": [\"app/**/*.ts\"], \"exclude\": [\"**/*.spec.ts\"]}");
+    File specTsConfig = createFile("src/tsconfig.spec.json", "{\"include\": [\"**/*.spec.ts\"]}");
+    TsConfigResolver resolver = new TsConfigResolver(baseDir);
+
+    assertThat(resolver.tsConfigOf(new File(baseDir, "src/app/file.ts"))).isEqualTo(appTsConfig);
+    assertThat(resolver.tsConfigOf(new File(baseDir, "src/app/file.spec.ts"))).isEqualTo(specTsConfig);
+    assertThat(resolver.tsConfigOf(new File(baseDir, "src/other/file.ts"))).isEqualTo(rootTsConfig);
+    // excluded files are still part of the program when imported
+    assertThat(resolver.tsConfigOf(new File(baseDir, "generated/file.ts"))).isEqualTo(rootTsConfig);
+  }
+
+  @Test
+  public void should_fall_back_to_nearest_tsconfig_for_files_not_included() throws Exception {
+    File rootTsConfig = createFile("tsconfig.json", "{\"files\": [\"src/main.ts\"]}");
+    File appTsConfig = createFile("app/tsconfig.app.json", "{\"include\": [\"*.component.ts\"]}");
+    TsConfigResolver resolver = new TsConfigResolver(baseDir);
+
+    assertThat(resolver.tsConfigsOf(new File(baseDir, "src/main.ts"))).containsExactly(rootTsConfig);
+    // imported by main.ts
+    assertThat(resolver.tsConfigsOf(new File(baseDir, "src/lib/util.ts"))).containsExactly(rootTsConfig);
+    assertThat(resolver.tsConfigsOf(new File(baseDir, "app/service.ts"))).containsExactly(appTsConfig);
+  }
+
+  @Test
+  public void should_only_match_tsconfig_files_against_files_below_their_roots() throws Exception {
+    File sharedTsConfig = createFile("lib/tsconfig.json", "{\"include\": [\"../shared/**/*.ts\", \"../other/util.ts\"]}");
+    TsConfigResolver resolver = new TsConfigResolver(baseDir);
+
+    assertThat(resolver.tsConfigsOf(new File(baseDir, "shared/deep/file.ts"))).containsExactly(sharedTsConfig);
+    assertThat(resolver.tsConfigsOf(new File(baseDir, "other/util.ts"))).containsExactly(sharedTsConfig);
+    assertThat(resolver.tsConfigsOf(new File(baseDir, "other/nested/util.ts"))).isEmpty();
+    assertThat(resolver.tsConfigsOf(new File(baseDir, "unrelated/file.ts"))).isEmpty();
+  }
+
+  @Test
+  public void should_find_all_tsconfig_files_including_file() throws Exception {
+    File rootTsConfig = createFile("tsconfig.json");
+    File specTsConfig = createFile("src/app/tsconfig.spec.json", "{\"include\": [\"**/*.spec.ts\", \"../shared/*.ts\"]}");
+    File otherTsConfig = createFile("other/tsconfig.json", "{\"include\": [\"../src/shared/*.ts\"]}");
+    TsConfigResolver resolver = new TsConfigResolver(baseDir);
+
+    assertThat(resolver.tsConfigsOf(new File(baseDir, "src/app/file.spec.ts"))).containsExactly(specTsConfig, rootTsConfig);
+    assertThat(resolver.tsConfigsOf(new File(baseDir, "src/app/file.ts"))).containsExactly(rootTsConfig);
+    assertThat(resolver.tsConfigsOf(new File(baseDir, "src/shared/file.ts"))).containsExactly(rootTsConfig, otherTsConfig, specTsConfig);
+  }
+
+  @Test
+  public void should_prefer_tsconfig_json_in_same_directory() throws Exception {
+    File tsConfig = createFile("tsconfig.json");
+    createFile("tsconfig.app.json");
+    TsConfigResolver resolver = new TsConfigResolver(baseDir);
+
+    assertThat(resolver.tsConfigOf(new File(baseDir, "file.ts"))).isEqualTo(tsConfig);
+  }
+
+  @Test
+  public void should_find_tsconfig_including_file_outside_of_its_directory() throws Exception {
+    createFile("app/tsconfig.json", "{\"files\": [\"main.ts\"], \"include\": [\"../shared/*.ts\"]}");
+    TsConfigResolver resolver = new TsConfigResolver(baseDir);
+
+    assertThat(resolver.tsConfigOf(new File(baseDir, "shared/util.ts"))).isEqualTo(new File(baseDir, "app/tsconfig.json"));
+    assertThat(resolver.tsConfigOf(new File(baseDir, "shared/nested/util.ts"))).isNull();
+  }
+
+  private File createFile(String relativePath, String content) throws Exception {
+    File file = createFile(relativePath);
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  private File createFile(String relativePath) throws Exception {
+    File file = new File(baseDir, relativePath);
+    file.getParentFile().mkdirs();
+    file.createNewFile();
+    return file;
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * SonarTS
+ * Copyright (C) 2017-2017 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugin.typescript;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TsConfigTest {
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private Path baseDir;
+
+  @Before
+  public void setUp() throws Exception {
+    baseDir = tmpDir.newFolder("project").toPath();
+  }
+
+  @Test
+  public void should_include_all_files_by_default() throws Exception {
+    TsConfig tsConfig = load("tsconfig.json", "{\"compilerOptions\": {\"outDir\": \"dist\"}}");
+
+    assertThat(tsConfig.includes(baseDir.resolve("src/file.ts"))).isTrue();
+    assertThat(tsConfig.includes(baseDir.resolve("file.ts"))).isTrue();
+    assertThat(tsConfig.includes(baseDir.resolve("node_modules/lib/file.ts"))).isFalse();
+    assertThat(tsConfig.includes(baseDir.resolve("dist/file.ts"))).isFalse();
+    assertThat(tsConfig.includes(baseDir.resolveSibling("file.ts"))).isFalse();
+  }
+
+  @Test
+  public void should_only_include_files_when_no_include() throws Exception {
+    TsConfig tsConfig = load("tsconfig.json", "{\"files\": [\"./src/main.ts\"], \"exclude\": [\"src\"]}");
+
+    assertThat(tsConfig.includes(baseDir.resolve("src/main.ts"))).isTrue();
+    assertThat(tsConfig.includes(baseDir.resolve("src/other.ts"))).isFalse();
+  }
+
+  @Test
+  public void should_match_globs_and_directories() throws Exception {
+    TsConfig tsConfig = load("tsconfig.json", "{\"include\": [\"src\", \"test/**/*.spec.ts\", \"lib/?.ts\"], \"exclude\": [\"src/**/generated\"]}");
+
+    assertThat(tsConfig.includes(baseDir.resolve("src/a/b/file.ts"))).isTrue();
+    assertThat(tsConfig.includes(baseDir.resolve("src/a/generated/file.ts"))).isFalse();
+    assertThat(tsConfig.includes(baseDir.resolve("test/file.spec.ts"))).isTrue();
+    assertThat(tsConfig.includes(baseDir.resolve("test/dir/file.spec.ts"))).isTrue();
+    assertThat(tsConfig.includes(baseDir.resolve("test/file.ts"))).isFalse();
+    assertThat(tsConfig.includes(baseDir.resolve("lib/a.ts"))).isTrue();
+    assertThat(tsConfig.includes(baseDir.resolve("lib/ab.ts"))).isFalse();
+  }
+
+  @Test
+  public void should_match_directories_with_dots() throws Exception {
+    TsConfig tsConfig = load("tsconfig.json", "{\"include\": [\"src/v1.2\", \"lib/main.ts\"]}");
+
+    assertThat(tsConfig.includes(baseDir.resolve("src/v1.2/file.ts"))).isTrue();
+    assertThat(tsConfig.includes(baseDir.resolve("src/file.ts"))).isFalse();
+    assertThat(tsConfig.includes(baseDir.resolve("lib/main.ts"))).isTrue();
+    assertThat(tsConfig.includes(baseDir.resolve("lib/other.ts"))).isFalse();
+  }
+
+  @Test
+  public void should_inherit_properties_of_extended_config() throws Exception {
+    write("config/base.json", "{\"include\": [\"../src/**/*\"], \"exclude\": [\"../src/legacy\"]}");
+    write("node_modules/shared-config/tsconfig.json", "{\"exclude\": []}");
+    TsConfig tsConfig = load("tsconfig.json", "{\"extends\": \"./config/base\"}");
+    TsConfig overriding = load("tsconfig.app.json", "{\"extends\": \"./config/base.json\", \"exclude\": []}");
+    TsConfig fromPackage = load("tsconfig.lib.json", "{\"extends\": \"shared-config\", \"include\": [\"lib\"]}");
+
+    assertThat(tsConfig.includes(baseDir.resolve("src/file.ts"))).isTrue();
+    assertThat(tsConfig.includes(baseDir.resolve("src/legacy/file.ts"))).isFalse();
+    assertThat(tsConfig.includes(baseDir.resolve("other/file.ts"))).isFalse();
+    assertThat(overriding.includes(baseDir.resolve("src/legacy/file.ts"))).isTrue();
+    assertThat(fromPackage.includes(baseDir.resolve("lib/node_modules/file.ts"))).isTrue();
+    assertThat(tsConfig.extended()).containsExactly(baseDir.resolve("config/base.json"));
+    assertThat(fromPackage.extended()).containsExactly(baseDir.resolve("node_modules/shared-config/tsconfig.json"));
+  }
+
+  @Test
+  public void should_accept_comments_and_trailing_commas() throws Exception {
+    TsConfig tsConfig = load("tsconfig.json", "{\n  // only sources\n  \"include\": [\"src\",],\n  /* no tests */\n  \"exclude\": [\"src/test\"],\n}");
+
+    assertThat(tsConfig.includes(baseDir.resolve("src/file.ts"))).isTrue();
+    assertThat(tsConfig.includes(baseDir.resolve("src/test/file.ts"))).isFalse();
+  }
+
+  @Test
+  public void should_consider_invalid_config_as_empty() throws Exception {
+    TsConfig tsConfig = load("tsconfig.json", "{\"include\": [");
+
+    assertThat(tsConfig.includes(baseDir.resolve("src/file.ts"))).isTrue();
+  }
+
+  @Test
+  public void should_resolve_patterns() throws Exception {
+    Path directory = new File("/project/app").toPath();
+    assertThat(TsConfig.resolve(directory, "../src/**/*.ts")).endsWith("/project/src/**/*.ts");
+    assertThat(TsConfig.resolve(directory, "./src/")).endsWith("/project/app/src");
+    assertThat(TsConfig.resolve(directory, "/other/*.ts")).isEqualTo("/other/*.ts");
+  }
+
+  private TsConfig load(String relativePath, String content) throws Exception {
+    return new TsConfig.Loader().load(write(relativePath, content));
+  }
+
+  private Path write(String relativePath, String content) throws Exception {
+    Path path = baseDir.resolve(relativePath);
+    Files.createDirectories(path.getParent());
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    return path;
+  }
+}
@@ -25,6 +25,7 @@ import java.io.IOException;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.sonar.api.batch.fs.InputFile.Type;
 import org.sonar.api.batch.fs.internal.DefaultInputFile;
 import org.sonar.api.batch.fs.internal.FileMetadata;
@@ -48,6 +49,9 @@ public class LCOVCoverageSensorTest {
   @Rule
   public LogTester logTester = new LogTester();
 
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
   @Before
   public void init() throws IOException {
     Settings settings = new MapSettings();
@@ -55,6 +59,7 @@ public class LCOVCoverageSensorTest {
 
     context = SensorContextTester.create(moduleBaseDir);
     context.setSettings(settings);
+    context.fileSystem().setWorkDir(tmpDir.getRoot());
 
     createInputFile();
   }
@@ -70,6 +75,15 @@ public class LCOVCoverageSensorTest {
     assertThat(logTester.logs().get(1)).containsSequence("Could not resolve 1 file paths in [", BASE_DIR, "], first unresolved path: file2.ts");
   }
 
+  @Test
+  public void write_performance_report() throws Exception {
+    lcovCoverageSensor.execute(context);
+
+    assertThat(new File(tmpDir.getRoot(), "sonarts-lcov-performance.json")).exists();
+    assertThat(new File(tmpDir.getRoot(), "sonarts-lcov-performance.prom")).exists();
+    assertThat(logTester.logs().stream().anyMatch(log -> log.startsWith("Performance of lcov analysis: 1 files in "))).isTrue();
+  }
+
   private void createInputFile() throws IOException {
     DefaultInputFile inputFile = new TestInputFileBuilder("moduleKey", "file1.ts")
       .setModuleBaseDir(moduleBaseDir.toPath())
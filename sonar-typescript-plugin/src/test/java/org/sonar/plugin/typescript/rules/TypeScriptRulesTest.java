@@ -27,8 +27,12 @@ import com.google.common.reflect.ClassPath.ClassInfo;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import java.io.File;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -40,6 +44,7 @@ import org.sonar.plugin.typescript.TestActiveRules;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.Assume.assumeTrue;
 import static org.mockito.Matchers.anyCollection;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.booleanThat;
@@ -121,6 +126,58 @@ public class TypeScriptRulesTest {
     }
   }
 
+  @Test
+  public void should_tell_which_kinds_of_rules_are_enabled() throws Exception {
+    TypeScriptRules syntacticOnly = new TypeScriptRules(new CheckFactory(new TestActiveRules("S1751")));
+    assertThat(syntacticOnly.hasEnabledSyntacticRules()).isTrue();
+    assertThat(syntacticOnly.hasEnabledTypeAwareRules()).isFalse();
+
+    TypeScriptRules typeAwareOnly = new TypeScriptRules(new CheckFactory(new TestActiveRules("S1874")));
+    assertThat(typeAwareOnly.hasEnabledSyntacticRules()).isFalse();
+    assertThat(typeAwareOnly.hasEnabledTypeAwareRules()).isTrue();
+  }
+
+  @Test
+  public void type_aware_rules_should_match_typed_rules_of_bundle() throws Exception {
+    // installed by "npm install" of the build
+    File nodeModules = new File("sonarts-core/node_modules");
+    assumeTrue(nodeModules.isDirectory());
+    Set<String> typedRules = new HashSet<>();
+    for (String rulesDirectory : new String[] {"tslint-sonarts/lib/rules", "tslint/lib/rules"}) {
+      for (File ruleFile : new File(nodeModules, rulesDirectory).listFiles((dir, name) -> name.endsWith("Rule.js"))) {
+        String source = new String(Files.readAllBytes(ruleFile.toPath()), StandardCharsets.UTF_8);
+        if (source.contains("Lint.Rules.TypedRule")) {
+          typedRules.add(fileNameToKey(ruleFile.getName()));
+        }
+      }
+    }
+
+    TypeScriptRules rules = new TypeScriptRules(new CheckFactory(new TestActiveRules()));
+    Set<String> keys = new HashSet<>();
+    Set<String> typeAwareKeys = new HashSet<>();
+    for (TypeScriptRule rule : rules) {
+      keys.add(rule.tsLintKey());
+      if (rule.requiresTypeCheck()) {
+        typeAwareKeys.add(rule.tsLintKey());
+      }
+    }
+    typedRules.retainAll(keys);
+    assertThat(typeAwareKeys).isEqualTo(typedRules);
+  }
+
+  private static String fileNameToKey(String fileName) {
+    String className = fileName.substring(0, fileName.length() - "Rule.js".length());
+    StringBuilder sb = new StringBuilder();
+    for (char c : className.toCharArray()) {
+      if (Character.isUpperCase(c)) {
+        sb.append('-').append(Character.toLowerCase(c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
   private CheckFactory mockCheckFactory() {
     Checks checks = mock(Checks.class);
     when(checks.addAnnotatedChecks((Iterable) anyCollection())).thenReturn(checks);
@@ -0,0 +1,33 @@
+var args = process.argv.slice(2);
+var metricsIndex = args.indexOf("--metrics");
+var files = metricsIndex >= 0 ? args.slice(0, metricsIndex) : args;
+var filesToMeasure = metricsIndex >= 0 ? args.slice(metricsIndex + 1) : [];
+
+filesToMeasure.forEach(function (file) {
+    console.log(JSON.stringify({
+        metrics: {
+            filepath: file,
+            highlights: [{startLine: 2, startCol: 0, endLine: 2, endCol: 8, textType: "keyword"}],
+            cpdTokens: [{startLine: 2, startCol: 0, endLine: 2, endCol: 3, image: "foo"}],
+            ncloc: [55, 77, 99],
+            commentLines: [24, 42],
+            nosonarLines: [24],
+            executableLines: [5, 7],
+            statements: 100,
+            functions: 10,
+            classes: 1
+        }
+    }));
+});
+
+files.forEach(function (file) {
+    console.log(JSON.stringify({
+        failure: {
+            failure: "some message",
+            startPosition: {line: 1, character: 5},
+            endPosition: {line: 1, character: 6},
+            name: file,
+            ruleName: "no-unconditional-jump"
+        }
+    }));
+});
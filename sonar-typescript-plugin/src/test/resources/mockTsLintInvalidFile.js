@@ -0,0 +1,33 @@
+// usage: mockTsLintInvalidFile.js <"report", "crash" or "partial"> <invalid file> <files...>
+// with "partial", failures of the files listed before the invalid file are written before crashing
+var mode = process.argv[2];
+var invalidFile = process.argv[3];
+var files = process.argv.slice(4);
+
+if (mode === "partial" && files.indexOf(invalidFile) >= 0) {
+    files.slice(0, files.indexOf(invalidFile)).forEach(writeFailure);
+    console.error("Unexpected error");
+    process.exit(1);
+}
+
+if (files.indexOf(invalidFile) >= 0) {
+    if (mode === "report") {
+        console.error("Invalid source file: " + invalidFile + ". Ensure that the files supplied to lint have a .ts, .tsx, .js or .jsx extension.");
+        console.error(JSON.stringify({error: {file: invalidFile, message: "Invalid source file: " + invalidFile}}));
+    } else {
+        console.error("Unexpected error");
+    }
+    process.exit(1);
+}
+
+files.forEach(writeFailure);
+
+function writeFailure(file) {
+    console.log(JSON.stringify({
+        failure: "some message",
+        startPosition: {line: 1, character: 5},
+        endPosition: {line: 1, character: 6},
+        name: file,
+        ruleName: "deprecation"
+    }));
+}
@@ -0,0 +1,11 @@
+
+var testFile = process.argv[2];
+[1, 2, 3].forEach(function (line) {
+    console.log(JSON.stringify({
+        failure: "some message",
+        startPosition: {line: line, character: 5},
+        endPosition: {line: line, character: 6},
+        name: testFile,
+        ruleName: "no-unconditional-jump"
+    }));
+});
@@ -0,0 +1,21 @@
+// runs out of memory when analyzing more than one file with a heap smaller than 4096 MB, or always with "--always" first argument
+var files = process.argv.slice(2);
+var always = files[0] === "--always";
+if (always) {
+    files.shift();
+}
+var heap = /--max-old-space-size=(\d+)/.exec(process.execArgv.join(" "));
+if (always || (files.length > 1 && (!heap || Number(heap[1]) < 4096))) {
+    console.error("FATAL ERROR: Reached heap limit Allocation failed - JavaScript heap out of memory");
+    process.exit(134);
+}
+
+console.log(JSON.stringify(files.map(function (file) {
+    return {
+        failure: "analyzed with " + files.length + " files and a heap of " + heap[1] + " MB",
+        startPosition: {line: 1, character: 5},
+        endPosition: {line: 1, character: 6},
+        name: file,
+        ruleName: "no-unconditional-jump"
+    };
+})));
@@ -0,0 +1,18 @@
+var args = process.argv.slice(2);
+// optional "--rule=<tslint rule>" first argument
+var ruleName = "no-unconditional-jump";
+if (args.length > 0 && args[0].indexOf("--rule=") === 0) {
+    ruleName = args.shift().substring("--rule=".length);
+}
+
+var result = args.map(function (file) {
+    return {
+        failure: "some message",
+        startPosition: {line: 1, character: 5},
+        endPosition: {line: 1, character: 6},
+        name: file,
+        ruleName: ruleName
+    };
+});
+
+console.log(JSON.stringify(result));
@@ -0,0 +1,33 @@
+#!/usr/bin/env node
+
+// answers with metrics of each requested file, "functions" being the number of files requested to this process
+// with "--out-of-memory" argument, runs out of memory when more than one file is requested with a heap smaller than 4096 MB
+var outOfMemory = process.argv[2] === "--out-of-memory";
+var heap = /--max-old-space-size=(\d+)/.exec(process.execArgv.join(" "));
+var input = "";
+
+process.stdin.on('data', function (data) {
+    input += data;
+});
+
+process.stdin.on('end', function () {
+    var filepaths = JSON.parse(input).filepaths;
+    if (outOfMemory && filepaths.length > 1 && (!heap || Number(heap[1]) < 4096)) {
+        console.error("FATAL ERROR: Reached heap limit Allocation failed - JavaScript heap out of memory");
+        process.exit(134);
+    }
+    process.stdout.write(JSON.stringify(filepaths.map(function (filepath) {
+        return {
+            "filepath": filepath,
+            "highlights": [],
+            "cpdTokens": [],
+            "ncloc": [1],
+            "commentLines": [],
+            "nosonarLines": [],
+            "executableLines": [],
+            "statements": 1,
+            "functions": filepaths.length,
+            "classes": 0
+        };
+    })));
+});
@@ -0,0 +1,78 @@
+#!/usr/bin/env node
+
+var input = Buffer.alloc(0);
+
+process.stdin.on('data', function (chunk) {
+    input = Buffer.concat([input, chunk]);
+    while (input.length >= 4 && input.length >= 4 + input.readUInt32BE(0)) {
+        var length = input.readUInt32BE(0);
+        var request = JSON.parse(input.slice(4, 4 + length).toString('utf8'));
+        input = input.slice(4 + length);
+        handle(request);
+    }
+});
+
+function handle(request) {
+    if (request.type === 'close') {
+        process.exit(0);
+    } else if (request.type === 'metrics' && request.filepaths.some(function (filepath) { return filepath.indexOf('/slow-metrics/') >= 0; })) {
+        // never answers
+    } else if (request.type === 'metrics') {
+        // "functions" being the number of files of the request
+        respond(request.filepaths.map(function (filepath) {
+            return {
+                filepath: filepath,
+                highlights: [{startLine: 2, startCol: 0, endLine: 2, endCol: 8, textType: "keyword"}],
+                cpdTokens: [{startLine: 2, startCol: 0, endLine: 2, endCol: 3, image: "foo"}],
+                ncloc: [55, 77, 99],
+                commentLines: [24, 42],
+                nosonarLines: [24],
+                executableLines: [5, 7],
+                statements: 100,
+                functions: request.filepaths.length,
+                classes: 1
+            };
+        }));
+    } else if (request.files.some(function (file) { return file.indexOf('/slow/') >= 0; })) {
+        // never answers
+    } else if (request.files.some(function (file) { return file.indexOf('/bar/') >= 0; })) {
+        respond({error: "Invalid source file: " + request.files[0] + ". Ensure that the files supplied to lint have a .ts, .tsx, .js or .jsx extension."});
+    } else {
+        respond(request.files.map(function (file) {
+            if (file.indexOf('/invalid/') >= 0) {
+                return {error: {file: file, message: "Invalid source file: " + file + ". Ensure that the files supplied to lint have a .ts, .tsx, .js or .jsx extension."}};
+            }
+            return {
+                failure: {
+                    failure: "some message",
+                    startPosition: {line: 1, character: 5},
+                    endPosition: {line: 1, character: 6},
+                    name: file,
+                    ruleName: "no-unconditional-jump"
+                }
+            };
+        }));
+    }
+}
+
+function respond(response) {
+    // one chunk per array element, then the empty chunk ending the response
+    if (Array.isArray(response)) {
+        writeChunk('[');
+        response.forEach(function (record, index) {
+            writeChunk((index > 0 ? ',' : '') + JSON.stringify(record));
+        });
+        writeChunk(']');
+    } else {
+        writeChunk(JSON.stringify(response));
+    }
+    writeChunk('');
+}
+
+function writeChunk(chunk) {
+    var payload = Buffer.from(chunk, 'utf8');
+    var header = Buffer.alloc(4);
+    header.writeUInt32BE(payload.length, 0);
+    process.stdout.write(header);
+    process.stdout.write(payload);
+}